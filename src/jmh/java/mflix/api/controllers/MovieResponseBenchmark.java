@@ -0,0 +1,81 @@
+package mflix.api.controllers;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import mflix.api.daos.MovieDocumentMapper;
+import mflix.api.daos.MovieFixtures;
+import mflix.api.models.Movie;
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU cost of one movie listing response after the query returned: mapping the page of documents
+ * and serializing the response map the way {@link MovieController} builds it, with an ObjectMapper
+ * configured like the Spring Boot one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MovieResponseBenchmark {
+
+  private static final int MOVIES_PER_PAGE = 20;
+
+  private final ObjectMapper objectMapper =
+      Jackson2ObjectMapperBuilder.json()
+          .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+          .build();
+
+  private List<Document> documents;
+
+  private Map<String, Object> response;
+
+  @Setup
+  public void setup() {
+    documents = MovieFixtures.movies(MOVIES_PER_PAGE);
+    response = response(mapPage());
+  }
+
+  private static Map<String, Object> response(List<Movie> movies) {
+    Map<String, Object> results = new HashMap<>();
+    results.put("movies", movies);
+    results.put("page", 0);
+    results.put("entries_per_page", MOVIES_PER_PAGE);
+    results.put("total_results", 23539L);
+    results.put("filters", Collections.emptyMap());
+    return results;
+  }
+
+  @Benchmark
+  public List<Movie> mapPage() {
+    List<Movie> movies = new ArrayList<>(documents.size());
+    for (Document document : documents) {
+      movies.add(MovieDocumentMapper.mapToMovie(document));
+    }
+    return movies;
+  }
+
+  @Benchmark
+  public byte[] serializePage() throws JsonProcessingException {
+    return objectMapper.writeValueAsBytes(response);
+  }
+
+  @Benchmark
+  public byte[] mapAndSerializePage() throws JsonProcessingException {
+    return objectMapper.writeValueAsBytes(response(mapPage()));
+  }
+}
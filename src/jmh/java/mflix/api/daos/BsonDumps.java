@@ -0,0 +1,74 @@
+package mflix.api.daos;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the `mongodump` archives under `data/mflix`, so benchmarks run on real documents. Each
+ * `{collection}.bson.gz` file is a gzipped sequence of BSON documents.
+ */
+public class BsonDumps {
+
+  private static final String DUMP_DIR = System.getProperty("mflix.dump.dir", "data/mflix");
+
+  /**
+   * Decodes up to `max` documents of a collection dump.
+   *
+   * @param collection - collection name, e.g. `users`.
+   * @param max - max number of documents to decode.
+   * @return decoded documents, or an empty list if there is no dump for the collection.
+   */
+  public static List<Document> load(String collection, int max) {
+    Path dump = Paths.get(DUMP_DIR, collection + ".bson.gz");
+    if (!Files.isReadable(dump)) {
+      return Collections.emptyList();
+    }
+    DocumentCodec codec = new DocumentCodec();
+    List<Document> documents = new ArrayList<>();
+    try (InputStream in = new GZIPInputStream(Files.newInputStream(dump))) {
+      DataInputStream data = new DataInputStream(in);
+      while (documents.size() < max) {
+        byte[] bytes = readDocument(data);
+        if (bytes == null) {
+          break;
+        }
+        RawBsonDocument raw = new RawBsonDocument(bytes);
+        documents.add(codec.decode(raw.asBsonReader(), DecoderContext.builder().build()));
+      }
+    } catch (IOException ex) {
+      throw new UncheckedIOException("cannot read " + dump, ex);
+    }
+    return documents;
+  }
+
+  private static byte[] readDocument(DataInputStream data) throws IOException {
+    byte[] size = new byte[4];
+    try {
+      data.readFully(size);
+    } catch (EOFException ex) {
+      return null;
+    }
+    // BSON lengths are little endian and include the 4 length bytes
+    int length =
+        (size[0] & 0xff) | (size[1] & 0xff) << 8 | (size[2] & 0xff) << 16 | (size[3] & 0xff) << 24;
+    byte[] bytes = new byte[length];
+    System.arraycopy(size, 0, bytes, 0, 4);
+    data.readFully(bytes, 4, length - 4);
+    return bytes;
+  }
+}
@@ -0,0 +1,122 @@
+package mflix.api.daos;
+
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolving a misspelled cast member with the {@link TrigramIndex} of {@link MovieAutocomplete},
+ * over the cast vocabulary of `data/mflix/movies.bson.gz` or, when the dump is not there, as many
+ * synthetic names as the catalog has cast members. Every call looks up the next name of a fixed
+ * list, each one a cast member with `edits` random typos.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FuzzyCastBenchmark {
+
+  private static final int CAST_MEMBERS = 60000;
+
+  private static final int QUERIES = 1024;
+
+  private static final String[] FIRST_NAMES = {
+    "James", "Mary", "John", "Patricia", "Robert", "Jennifer", "Michael", "Linda", "William",
+    "Elizabeth", "David", "Barbara", "Richard", "Susan", "Joseph", "Jessica", "Thomas", "Sarah",
+    "Charles", "Karen", "Christopher", "Nancy", "Daniel", "Lisa", "Matthew", "Betty", "Anthony",
+    "Margaret", "Mark", "Sandra", "Donald", "Ashley", "Steven", "Kimberly", "Paul", "Emily"
+  };
+
+  private static final String[] LAST_NAMES = {
+    "Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller", "Davis", "Rodriguez",
+    "Martinez", "Hernandez", "Lopez", "Gonzalez", "Wilson", "Anderson", "Thomas", "Taylor",
+    "Moore", "Jackson", "Martin", "Lee", "Perez", "Thompson", "White", "Harris", "Sanchez",
+    "Clark", "Ramirez", "Lewis", "Robinson", "Walker", "Young", "Allen", "King", "Wright"
+  };
+
+  @Param({"1", "2"})
+  public int edits;
+
+  private TrigramIndex<String> index;
+
+  private final List<String> queries = new ArrayList<>();
+
+  private int next;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    Set<String> cast = new LinkedHashSet<>();
+    for (Document movie : BsonDumps.load(MovieDao.MOVIES_COLLECTION, Integer.MAX_VALUE)) {
+      if (movie.get("cast") instanceof List) {
+        for (Object name : (List<?>) movie.get("cast")) {
+          if (name instanceof String) {
+            cast.add((String) name);
+          }
+        }
+      }
+    }
+    if (cast.isEmpty()) {
+      // no dump: first, middle initial and last names, as varied as the real vocabulary
+      cast.clear();
+      while (cast.size() < CAST_MEMBERS) {
+        String lastName = LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+        if (random.nextInt(4) == 0) {
+          lastName += "-" + LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+        }
+        cast.add(
+            FIRST_NAMES[random.nextInt(FIRST_NAMES.length)]
+                + " "
+                + (char) ('A' + random.nextInt(26))
+                + ". "
+                + lastName);
+      }
+    }
+
+    TrigramIndex.Builder<String> builder = new TrigramIndex.Builder<>();
+    cast.forEach(name -> builder.add(name, random.nextInt(1000), name));
+    index = builder.build();
+
+    List<String> names = new ArrayList<>(cast);
+    for (int i = 0; i < QUERIES; i++) {
+      queries.add(misspell(names.get(random.nextInt(names.size())), random));
+    }
+  }
+
+  private String misspell(String name, Random random) {
+    StringBuilder typo = new StringBuilder(name.toLowerCase());
+    for (int i = 0; i < edits && typo.length() > 1; i++) {
+      int at = random.nextInt(typo.length());
+      char letter = (char) ('a' + random.nextInt(26));
+      switch (random.nextInt(3)) {
+        case 0:
+          typo.setCharAt(at, letter);
+          break;
+        case 1:
+          typo.insert(at, letter);
+          break;
+        default:
+          typo.deleteCharAt(at);
+      }
+    }
+    return typo.toString();
+  }
+
+  @Benchmark
+  public List<TrigramIndex.Match<String>> resolve() {
+    String query = queries.get(next++ & (QUERIES - 1));
+    return index.match(query, edits, 1);
+  }
+}
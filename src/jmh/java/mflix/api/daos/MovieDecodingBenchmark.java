@@ -0,0 +1,66 @@
+package mflix.api.daos;
+
+import mflix.api.models.Movie;
+import org.bson.BsonBinaryReader;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares decoding a movie detail reply into a {@link Movie}: the generic Document tree followed
+ * by {@link MovieDocumentMapper#mapToMovie}, against {@link MovieCodec} reading the BSON directly.
+ * Run with `-prof gc` to compare allocation per decoded movie as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MovieDecodingBenchmark {
+
+  @Param({"0", "20", "200"})
+  public int comments;
+
+  @Param({"false", "true"})
+  public boolean legacy;
+
+  private final DocumentCodec documentCodec = new DocumentCodec();
+
+  private final MovieCodec movieCodec = new MovieCodec();
+
+  private final DecoderContext decoderContext = DecoderContext.builder().build();
+
+  private byte[] bson;
+
+  @Setup
+  public void setup() {
+    ByteBuffer buffer =
+        new RawBsonDocument(MovieFixtures.movie(comments, legacy), documentCodec)
+            .getByteBuffer()
+            .asNIO();
+    bson = new byte[buffer.remaining()];
+    buffer.get(bson);
+  }
+
+  @Benchmark
+  public Movie documentAndMapper() {
+    Document document =
+        documentCodec.decode(new BsonBinaryReader(ByteBuffer.wrap(bson)), decoderContext);
+    return MovieDocumentMapper.mapToMovie(document);
+  }
+
+  @Benchmark
+  public Movie movieCodec() {
+    return movieCodec.decode(new BsonBinaryReader(ByteBuffer.wrap(bson)), decoderContext);
+  }
+}
@@ -0,0 +1,49 @@
+package mflix.api.daos;
+
+import mflix.api.models.Movie;
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link MovieDocumentMapper#mapToMovie} alone, on already decoded documents. Run with
+ * `-prof gc`: `gc.alloc.rate.norm` is the number of bytes allocated per mapped movie.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MovieDocumentMapperBenchmark {
+
+  @Param({"0", "20"})
+  public int comments;
+
+  @Param({"false", "true"})
+  public boolean legacy;
+
+  private Document movie;
+
+  @Setup
+  public void setup() {
+    movie = MovieFixtures.movie(comments, legacy);
+  }
+
+  @Benchmark
+  public Movie mapToMovie() {
+    return MovieDocumentMapper.mapToMovie(movie);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public Movie mapToMovieContended() {
+    return MovieDocumentMapper.mapToMovie(movie);
+  }
+}
@@ -0,0 +1,93 @@
+package mflix.api.daos;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/** Movie documents shaped like the `movies` collection, including its legacy field types. */
+public class MovieFixtures {
+
+  /**
+   * Loads a page of movies from `data/mflix/movies.bson.gz`. When the dump is not there, which is
+   * the case in this repository, synthetic movies are built instead: every third one with legacy
+   * field types and up to 9 embedded comments.
+   *
+   * @param count - number of movies.
+   * @return movie Documents.
+   */
+  public static List<Document> movies(int count) {
+    List<Document> movies = BsonDumps.load("movies", count);
+    if (!movies.isEmpty()) {
+      return movies;
+    }
+    movies = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      movies.add(movie(i % 10, i % 3 == 0));
+    }
+    return movies;
+  }
+
+  /**
+   * Builds a movie detail document, as returned by the `getMovie` aggregation.
+   *
+   * @param numComments - number of embedded comments.
+   * @param legacy - store `lastupdated` and `imdb.rating` as strings, like unmigrated documents.
+   * @return movie Document.
+   */
+  public static Document movie(int numComments, boolean legacy) {
+    ObjectId movieId = new ObjectId();
+    Document movie = new Document("_id", movieId);
+    movie.append("title", "The Great Train Robbery");
+    movie.append("year", 1903);
+    movie.append("runtime", 11);
+    movie.append(
+        "cast", Arrays.asList("A.C. Abadie", "Gilbert M. 'Broncho Billy' Anderson", "George Barnes"));
+    movie.append(
+        "plot",
+        "A group of bandits stage a brazen train hold-up, only to find a determined posse hot on "
+            + "their heels.");
+    movie.append(
+        "fullplot",
+        "Among the earliest existing films in American cinema - notable as the first film that "
+            + "presented a narrative story to tell - it depicts a group of cowboy outlaws who hold "
+            + "up a train and rob the passengers. They are then pursued by a Sheriff's posse.");
+    movie.append("lastupdated", legacy ? "2015-08-13 00:27:59.177000000" : new Date());
+    movie.append("type", "movie");
+    movie.append("directors", Arrays.asList("Edwin S. Porter"));
+    movie.append("writers", Arrays.asList("Scott Marble (story)"));
+    movie.append("countries", Arrays.asList("USA"));
+    movie.append("genres", Arrays.asList("Short", "Western"));
+    movie.append(
+        "imdb",
+        new Document("rating", legacy ? "7.4" : (Object) 7.4).append("votes", 9847).append("id", 439));
+    movie.append(
+        "tomatoes",
+        new Document("viewer", new Document("rating", 3.7).append("numReviews", 2559))
+            .append("fresh", 6)
+            .append("lastUpdated", new Date()));
+    movie.append("poster", "http://ia.media-imdb.com/images/M/MV5BMTU3NjE5NzYtYTYyNS00MDVmLWIwYjgtMmYwYWIxZDYyNzU2XkEyXkFqcGdeQXVyNzQzNzQxNzI@._V1_SX300.jpg");
+    movie.append("comments", comments(movieId, numComments));
+    return movie;
+  }
+
+  private static List<Document> comments(ObjectId movieId, int numComments) {
+    List<Document> comments = new ArrayList<>(numComments);
+    for (int i = 0; i < numComments; i++) {
+      comments.add(
+          new Document("_id", new ObjectId())
+              .append("name", "Commenter " + i)
+              .append("email", "commenter" + i + "@fakegmail.com")
+              .append("movie_id", movieId)
+              .append(
+                  "text",
+                  "Rem officiis eaque repellendus amet eos doloribus. Porro dolor voluptatum "
+                      + "voluptates neque culpa molestias. Voluptate unde nulla temporibus ullam.")
+              .append("date", new Date(1_000_000_000_000L + i * 86_400_000L)));
+    }
+    return comments;
+  }
+}
@@ -0,0 +1,62 @@
+package mflix.api.daos;
+
+import com.mongodb.MongoClientSettings;
+import org.bson.BsonDocument;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the aggregation pipelines of {@link MovieDao#getMovie} and {@link
+ * MovieDao#getMoviesCastFaceted}, and rendering them to BSON as the driver does before sending
+ * them. No server is involved.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MoviePipelineBenchmark {
+
+  private final CodecRegistry codecRegistry = MongoClientSettings.getDefaultCodecRegistry();
+
+  private final String movieId = new ObjectId().toHexString();
+
+  private final String[] cast = {"Salma Hayek", "Johnny Depp"};
+
+  private List<BsonDocument> render(List<Bson> pipeline) {
+    List<BsonDocument> stages = new ArrayList<>(pipeline.size());
+    for (Bson stage : pipeline) {
+      stages.add(stage.toBsonDocument(BsonDocument.class, codecRegistry));
+    }
+    return stages;
+  }
+
+  @Benchmark
+  public List<Bson> movieDetailPipeline() {
+    return MovieDao.movieDetailPipeline(movieId, 10);
+  }
+
+  @Benchmark
+  public List<BsonDocument> movieDetailPipelineRendered() {
+    return render(MovieDao.movieDetailPipeline(movieId, 10));
+  }
+
+  @Benchmark
+  public List<Bson> castFacetedPipeline() {
+    return MovieDao.castFacetedPipeline(20, 0, cast);
+  }
+
+  @Benchmark
+  public List<BsonDocument> castFacetedPipelineRendered() {
+    return render(MovieDao.castFacetedPipeline(20, 0, cast));
+  }
+}
@@ -0,0 +1,132 @@
+package mflix.api.daos;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A first page of text search results and the number of matches, as served by
+ * `/api/v1/movies/search?text=`, with each `api.movies.text.engine`. The `bm25` engine indexes the
+ * movies of `data/mflix/movies.bson.gz`, or synthetic ones when the dump is not there. The `mongo`
+ * engine runs the `$text` query and count of {@link MovieDao} against the `sample_mflix` database
+ * of `-Dmflix.benchmark.uri`, so it has to be selected explicitly: `-p engine=bm25,mongo -jvmArgs
+ * -Dmflix.benchmark.uri=mongodb://...`.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TextSearchBenchmark {
+
+  private static final int MOVIES = 23000;
+
+  private static final String[] WORDS = {
+    "love", "war", "family", "murder", "young", "police", "life", "world", "town", "secret",
+    "story", "train", "robbery", "detective", "city", "night", "escape", "journey", "revenge",
+    "school", "island", "king", "space", "dream", "ghost", "friend", "mystery", "heist", "river",
+    "doctor", "soldier", "wedding", "prison", "music", "desert", "ocean", "spy", "mountain"
+  };
+
+  @Param({"bm25"})
+  public String engine;
+
+  @Param({"love", "police detective", "\"train robbery\"", "war -love"})
+  public String search;
+
+  private InvertedIndex index;
+
+  private MongoClient mongoClient;
+
+  private MongoCollection<Document> movies;
+
+  @Setup
+  public void setUp() {
+    if ("mongo".equals(engine)) {
+      String uri = System.getProperty("mflix.benchmark.uri");
+      if (uri == null) {
+        throw new IllegalStateException("the mongo engine needs -Dmflix.benchmark.uri");
+      }
+      mongoClient = MongoClients.create(uri);
+      movies = mongoClient.getDatabase("sample_mflix").getCollection(MovieDao.MOVIES_COLLECTION);
+      return;
+    }
+    index = new InvertedIndex(1.2, 0.75);
+    List<Document> corpus = BsonDumps.load(MovieDao.MOVIES_COLLECTION, MOVIES);
+    if (corpus.isEmpty()) {
+      corpus = syntheticMovies();
+    }
+    for (Document movie : corpus) {
+      index.put(movie.getObjectId("_id"), MovieTextIndex.texts(movie));
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    if (mongoClient != null) {
+      mongoClient.close();
+    }
+  }
+
+  /** Plots drawn from a small vocabulary with skewed frequencies, so terms differ in selectivity. */
+  private static List<Document> syntheticMovies() {
+    Random random = new Random(42);
+    List<Document> corpus = new ArrayList<>(MOVIES);
+    for (int i = 0; i < MOVIES; i++) {
+      corpus.add(
+          new Document("_id", new ObjectId())
+              .append("title", sentence(random, 3))
+              .append("plot", sentence(random, 25))
+              .append("fullplot", sentence(random, 80))
+              .append("cast", Arrays.asList(sentence(random, 2), sentence(random, 2)))
+              .append("directors", Arrays.asList(sentence(random, 2))));
+    }
+    return corpus;
+  }
+
+  private static String sentence(Random random, int length) {
+    StringBuilder sentence = new StringBuilder();
+    for (int i = 0; i < length; i++) {
+      // squaring skews the draw towards the first words
+      double draw = random.nextDouble();
+      sentence.append(i == 0 ? "" : " ").append(WORDS[(int) (draw * draw * WORDS.length)]);
+    }
+    return sentence.toString();
+  }
+
+  @Benchmark
+  public Object firstPageAndCount() {
+    if (index != null) {
+      return index.search(search, 0, 20);
+    }
+    Bson textFilter = Filters.text(search);
+    Bson projection = Projections.metaTextScore("score");
+    List<Document> page =
+        movies
+            .find(textFilter)
+            .projection(projection)
+            .sort(Sorts.metaTextScore("score"))
+            .limit(20)
+            .into(new ArrayList<>());
+    return movies.countDocuments(textFilter) + page.size();
+  }
+}
@@ -0,0 +1,111 @@
+package mflix.api.services;
+
+import mflix.api.daos.BsonDumps;
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signing and verifying the JWT of every authenticated request, with the secret and expiration of
+ * `application.properties`. Subjects are the emails of `data/mflix/users.bson.gz`. The
+ * `getAuthenticationUser` benchmark verifies every token, `getAuthenticationUserCached` repeats
+ * tokens already in the verified token cache. `refreshJWTHeader` hands back tokens that are far from
+ * their expiration, as on most write responses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TokenAuthenticationBenchmark {
+
+  private static final int USERS = 1024;
+
+  private final TokenAuthenticationService service = new TokenAuthenticationService();
+
+  private final TokenAuthenticationService cachedService = new TokenAuthenticationService();
+
+  private String[] emails;
+
+  private String[] headers;
+
+  private int next;
+
+  @Setup
+  public void setup() throws Exception {
+    Properties properties = new Properties();
+    try (InputStream in = getClass().getResourceAsStream("/application.properties")) {
+      if (in == null) {
+        throw new IOException("application.properties is not on the classpath");
+      }
+      properties.load(in);
+    }
+    long expirationInMs = Long.parseLong(properties.getProperty("jwtExpirationInMs"));
+    for (TokenAuthenticationService target : Arrays.asList(service, cachedService)) {
+      inject(target, "jwtSecret", properties.getProperty("jwtSecret"));
+      inject(target, "jwtExpirationInMs", expirationInMs);
+    }
+    inject(service, "tokenCacheEnabled", false);
+    service.init();
+    cachedService.init();
+
+    List<String> users = new ArrayList<>();
+    for (Document user : BsonDumps.load("users", USERS)) {
+      users.add(user.getString("email"));
+    }
+    for (int i = users.size(); i < USERS; i++) {
+      users.add("user" + i + "@fakegmail.com");
+    }
+    emails = users.toArray(new String[0]);
+    headers = new String[emails.length];
+    for (int i = 0; i < emails.length; i++) {
+      headers[i] = service.mintJWTHeader(emails[i]);
+      cachedService.getAuthenticationUser(headers[i]);
+    }
+  }
+
+  private static void inject(TokenAuthenticationService target, String name, Object value)
+      throws ReflectiveOperationException {
+    Field field = TokenAuthenticationService.class.getDeclaredField(name);
+    field.setAccessible(true);
+    field.set(target, value);
+  }
+
+  private int nextUser() {
+    next = (next + 1) % emails.length;
+    return next;
+  }
+
+  @Benchmark
+  public String mintJWTHeader() {
+    return service.mintJWTHeader(emails[nextUser()]);
+  }
+
+  @Benchmark
+  public String getAuthenticationUser() {
+    return service.getAuthenticationUser(headers[nextUser()]);
+  }
+
+  @Benchmark
+  public String getAuthenticationUserCached() {
+    return cachedService.getAuthenticationUser(headers[nextUser()]);
+  }
+
+  @Benchmark
+  public String refreshJWTHeader() {
+    int user = nextUser();
+    return cachedService.refreshJWTHeader(headers[user], emails[user]);
+  }
+}
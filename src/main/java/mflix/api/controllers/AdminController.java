@@ -0,0 +1,141 @@
+package mflix.api.controllers;
+
+import mflix.api.daos.CollectionExporter;
+import mflix.api.daos.CommenterLeaderboard;
+import mflix.api.daos.RecentCommentsSubset;
+import mflix.api.models.User;
+import mflix.api.services.UserService;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/** Maintenance operations, reserved to admin users. */
+@CrossOrigin(origins = "*")
+@RequestMapping(path = "/api/v1/admin")
+@RestController
+public class AdminController extends ApiController {
+
+  @Autowired private UserService userService;
+
+  @Autowired private RecentCommentsSubset recentComments;
+
+  @Autowired private CommenterLeaderboard leaderboard;
+
+  @Autowired private CollectionExporter exporter;
+
+  public AdminController() {
+    super();
+  }
+
+  private boolean isAdmin(String authorizationToken) {
+    User user = userService.loadUser(getEmailFromRequest(authorizationToken), "admin");
+    return user != null && user.isAdmin();
+  }
+
+  private static ResponseEntity<Map> notAdmin() {
+    Map<String, String> results = new HashMap<>();
+    results.put("status", "fail");
+    return ResponseEntity.status(401).body(results);
+  }
+
+  @PostMapping("/recent-comments/backfill")
+  public ResponseEntity<Map> backfillRecentComments(
+      @RequestHeader("Authorization") String authorizationToken) {
+    if (!isAdmin(authorizationToken)) {
+      return notAdmin();
+    }
+    Map<String, Object> results = new HashMap<>();
+    results.put("movies_without_comments", recentComments.backfill());
+    return ResponseEntity.ok(results);
+  }
+
+  @PostMapping("/recent-comments/check")
+  public ResponseEntity<Map> checkRecentComments(
+      @RequestHeader("Authorization") String authorizationToken,
+      @RequestParam(value = "sample", required = false, defaultValue = "100") int sample,
+      @RequestParam(value = "repair", required = false, defaultValue = "false") boolean repair) {
+    if (!isAdmin(authorizationToken)) {
+      return notAdmin();
+    }
+    if (sample < 1) {
+      Map<String, String> error = new HashMap<>();
+      error.put("error", "sample must be positive");
+      return ResponseEntity.badRequest().body(error);
+    }
+    return ResponseEntity.ok(recentComments.check(sample, repair));
+  }
+
+  @PostMapping("/commenters/reconcile")
+  public ResponseEntity<Map> reconcileCommenters(
+      @RequestHeader("Authorization") String authorizationToken) {
+    if (!isAdmin(authorizationToken)) {
+      return notAdmin();
+    }
+    leaderboard.reconcile();
+    Map<String, Object> results = new HashMap<>();
+    results.put("commenters", leaderboard.top());
+    return ResponseEntity.ok(results);
+  }
+
+  /**
+   * Streams a whole collection as NDJSON, in `_id` order, on the request thread so writes to a slow
+   * consumer hold back the cursor. An interrupted export is resumed with the `_id` of the last line
+   * received as `after`.
+   */
+  @GetMapping("/export/{collection}")
+  public ResponseEntity<Map> export(
+      @RequestHeader("Authorization") String authorizationToken,
+      @PathVariable("collection") String collection,
+      @RequestParam(value = "after", required = false) String after,
+      @RequestParam(value = "gzip", required = false, defaultValue = "false") boolean gzip,
+      HttpServletResponse response)
+      throws IOException {
+    if (!isAdmin(authorizationToken)) {
+      return notAdmin();
+    }
+    Map<String, String> error = new HashMap<>();
+    if (!CollectionExporter.COLLECTIONS.contains(collection)) {
+      error.put(
+          "error",
+          MessageFormat.format(
+              "collection must be one of {0}", String.join(", ", CollectionExporter.COLLECTIONS)));
+      return ResponseEntity.badRequest().body(error);
+    }
+    if (after != null && !ObjectId.isValid(after)) {
+      error.put("error", "after must be the `_id` of an exported document");
+      return ResponseEntity.badRequest().body(error);
+    }
+
+    response.setContentType("application/x-ndjson");
+    response.setCharacterEncoding("UTF-8");
+    if (gzip) {
+      response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+    }
+    OutputStream out = response.getOutputStream();
+    if (gzip) {
+      // sync flush, so every flushed batch reaches the consumer
+      out = new GZIPOutputStream(out, true);
+    }
+    try (OutputStream lines = out) {
+      exporter.export(collection, after == null ? null : new ObjectId(after), lines);
+    }
+    // the response was written above
+    return null;
+  }
+
+  @Override
+  ResponseEntity<Map> index() {
+    return ResponseEntity.ok(Collections.emptyMap());
+  }
+}
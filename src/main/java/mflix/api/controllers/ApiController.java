@@ -2,6 +2,7 @@ package mflix.api.controllers;
 
 import mflix.api.services.TokenAuthenticationService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.ResponseEntity;
@@ -11,6 +12,8 @@ import org.springframework.web.bind.annotation.RestController;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
 
 @RestController
 @Configuration
@@ -19,6 +22,9 @@ public abstract class ApiController {
 
   @Autowired protected TokenAuthenticationService tokenProvider;
 
+  @Value("${api.async.enabled:false}")
+  private boolean async;
+
   @ResponseBody
   @GetMapping(value = "info")
   public ResponseEntity<Map> info() {
@@ -34,6 +40,22 @@ public abstract class ApiController {
     return tokenProvider.getAuthenticationUser(jwt);
   }
 
+  /**
+   * Answers a request that waits on MongoDB. With `api.async.enabled` the handler is returned as a
+   * {@link Callable}, which Spring MVC runs on the bounded request pool of {@link
+   * mflix.config.WebMvcConfig} while the servlet thread goes back to the container; otherwise it is
+   * called right away on the servlet thread.
+   *
+   * @param handler - builds the response.
+   * @return the response, or the callable building it.
+   */
+  protected Object respond(Supplier<? extends ResponseEntity<?>> handler) {
+    if (async) {
+      return (Callable<ResponseEntity<?>>) handler::get;
+    }
+    return handler.get();
+  }
+
   @GetMapping(value = "/")
   abstract ResponseEntity<Map> index();
 }
@@ -1,6 +1,9 @@
 package mflix.api.controllers;
 
+import mflix.api.security.PasswordHashingBusyException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 import org.springframework.validation.FieldError;
 import org.springframework.web.bind.MethodArgumentNotValidException;
@@ -14,6 +17,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 
 @ControllerAdvice
@@ -52,4 +56,19 @@ public class GlobalExceptionHandler {
                 })
             .collect(Collectors.toList()));
   }
+
+  @ExceptionHandler
+  public ResponseEntity<Map<String, String>> handle(PasswordHashingBusyException exception) {
+    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+        .header(HttpHeaders.RETRY_AFTER, "1")
+        .body(Collections.singletonMap("error", exception.getMessage()));
+  }
+
+  /** The async request pool and its queue are full. */
+  @ExceptionHandler
+  public ResponseEntity<Map<String, String>> handle(RejectedExecutionException exception) {
+    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+        .header(HttpHeaders.RETRY_AFTER, "1")
+        .body(Collections.singletonMap("error", "too many requests in progress"));
+  }
 }
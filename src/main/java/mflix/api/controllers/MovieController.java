@@ -1,14 +1,21 @@
 package mflix.api.controllers;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import mflix.api.models.Movie;
 import mflix.api.services.MoviesService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.Size;
+import java.io.IOException;
+import java.text.MessageFormat;
 import java.util.*;
 
 @RestController
@@ -18,9 +25,29 @@ public class MovieController extends ApiController {
 
   @Autowired private MoviesService moviesService;
 
+  @Autowired private ObjectMapper objectMapper;
+
+  @Value("${api.movies.streaming.enabled:false}")
+  private boolean streaming;
+
   @Value("${api.movies.movies_per_page}")
   private int MOVIES_PER_PAGE = 20;
 
+  @Value("${api.movies.max_skip:2000}")
+  private int MAX_SKIP = 2000;
+
+  @Value("${api.movies.autocomplete.limit:10}")
+  private int SUGGESTIONS_LIMIT = 10;
+
+  @Value("${api.movies.autocomplete.max_limit:50}")
+  private int MAX_SUGGESTIONS_LIMIT = 50;
+
+  @Value("${api.comments.comments_per_page:20}")
+  private int COMMENTS_PER_PAGE = 20;
+
+  @Value("${api.comments.max_comments_per_page:100}")
+  private int MAX_COMMENTS_PER_PAGE = 100;
+
   public MovieController() {
     super();
   }
@@ -39,6 +66,9 @@ public class MovieController extends ApiController {
     if (moviesResults.containsKey("movies_count")) {
       results.put("total_results", moviesResults.get("movies_count"));
     }
+    if (moviesResults.containsKey("next")) {
+      results.put("next", moviesResults.get("next"));
+    }
 
     results.put("filters", filters);
 
@@ -51,36 +81,118 @@ public class MovieController extends ApiController {
   }
 
   @GetMapping(value = "/id/{movieId}")
-  ResponseEntity getMovie(@PathVariable(value = "movieId") String movieId) {
-    HashMap<String, Object> result = new HashMap<>();
-    Movie movie = moviesService.getMovie(movieId);
-    if (movie == null) {
-      result.put("error", "Not found");
-      return ResponseEntity.badRequest().body(result);
-    }
+  Object getMovie(@PathVariable(value = "movieId") String movieId) {
+    return respond(
+        () -> {
+          HashMap<String, Object> result = new HashMap<>();
+          Movie movie = moviesService.getMovie(movieId);
+          if (movie == null) {
+            result.put("error", "Not found");
+            return ResponseEntity.badRequest().body(result);
+          }
+
+          result.put("movie", movie);
+          result.put("api", "java");
+          result.put(
+              "updated_type", moviesService.getMovieDocumentFieldType(movieId, "lastupdated"));
+          return ResponseEntity.ok(result);
+        });
+  }
 
-    result.put("movie", movie);
-    result.put("api", "java");
-    result.put("updated_type", moviesService.getMovieDocumentFieldType(movieId, "lastupdated"));
-    return ResponseEntity.ok(result);
+  @GetMapping(value = "/{movieId}/comments")
+  public Object getMovieComments(
+      @PathVariable(value = "movieId") String movieId,
+      @RequestParam(value = "limit", required = false) Integer limit,
+      @RequestParam(value = "next", required = false) String next) {
+    return respond(
+        () -> {
+          Map<String, String> error = new HashMap<>();
+          int pageSize = limit == null ? COMMENTS_PER_PAGE : limit;
+          if (pageSize < 1 || pageSize > MAX_COMMENTS_PER_PAGE) {
+            error.put(
+                "error",
+                MessageFormat.format("limit must be between 1 and {0}", MAX_COMMENTS_PER_PAGE));
+            return ResponseEntity.badRequest().body(error);
+          }
+          try {
+            return ResponseEntity.ok(moviesService.getMovieComments(movieId, pageSize, next));
+          } catch (IllegalArgumentException ex) {
+            error.put("error", ex.getMessage());
+            return ResponseEntity.badRequest().body(error);
+          }
+        });
   }
 
   @GetMapping(value = "/countries")
-  public ResponseEntity<Map> moviesByCountry(
-      @RequestParam(value = "countries") @Size(min = 1) ArrayList<String> countries) {
-    return buildOkResponse(
-        moviesService.getMoviesByCountry(countries.toArray(new String[0])),
-        0,
-        Collections.EMPTY_MAP,
-        "titles");
+  public Object moviesByCountry(
+      @RequestParam(value = "countries") @Size(min = 1) ArrayList<String> countries,
+      HttpServletResponse response)
+      throws IOException {
+    if (streaming) {
+      streamMoviesByCountry(countries.toArray(new String[0]), response);
+      // the response was written above
+      return null;
+    }
+    return respond(
+        () ->
+            buildOkResponse(
+                moviesService.getMoviesByCountry(countries.toArray(new String[0])),
+                0,
+                Collections.EMPTY_MAP,
+                "titles"));
+  }
+
+  /**
+   * Same response as {@link #buildOkResponse} for the countries endpoint, written to the servlet
+   * response on the request thread while the titles are read from the cursor, so a slow client
+   * holds back the cursor rather than a buffer or an extra thread. A failure once the response has
+   * started truncates the JSON.
+   */
+  private void streamMoviesByCountry(String[] countries, HttpServletResponse response)
+      throws IOException {
+    response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+    response.setCharacterEncoding("UTF-8");
+    try (JsonGenerator json =
+        objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+      json.writeStartObject();
+      json.writeFieldName("titles");
+      moviesService.streamMoviesByCountry(json, countries);
+      json.writeNumberField("page", 0);
+      json.writeNumberField("entries_per_page", MOVIES_PER_PAGE);
+      json.writeObjectFieldStart("filters");
+      json.writeEndObject();
+      json.writeEndObject();
+    }
   }
 
   @GetMapping(value = "/search")
-  public ResponseEntity<Map> search(
+  public Object search(
       @RequestParam(value = "page", required = false, defaultValue = "0") @Min(0) Integer page,
+      @RequestParam(value = "next", required = false) String next,
       @RequestParam(value = "text", required = false) ArrayList<String> text,
       @RequestParam(value = "cast", required = false) ArrayList<String> cast,
       @RequestParam(value = "genre", required = false) ArrayList<String> genre) {
+    return respond(() -> searchMovies(page, next, text, moviesService.resolveCast(cast), genre));
+  }
+
+  private ResponseEntity<Map> searchMovies(
+      Integer page,
+      String next,
+      ArrayList<String> text,
+      ArrayList<String> cast,
+      ArrayList<String> genre) {
+    if (next != null) {
+      return keysetSearch(next, text, cast, genre);
+    }
+
+    if ((long) page * MOVIES_PER_PAGE > MAX_SKIP) {
+      Map<String, String> error = new HashMap<>();
+      error.put(
+          "error",
+          MessageFormat.format(
+              "page {0} is beyond the maximum skip depth, follow the `next` token instead", page));
+      return ResponseEntity.badRequest().body(error);
+    }
 
     Map<String, List<String>> filters = new HashMap<>();
     if (text != null) {
@@ -104,11 +216,63 @@ public class MovieController extends ApiController {
     return index();
   }
 
+  private ResponseEntity<Map> keysetSearch(
+      String next, ArrayList<String> text, ArrayList<String> cast, ArrayList<String> genre) {
+    Map<String, String> error = new HashMap<>();
+    if (text != null) {
+      error.put("error", "continuation tokens are not supported for text search");
+      return ResponseEntity.badRequest().body(error);
+    }
+
+    Map<String, List<String>> filters = new HashMap<>();
+    try {
+      if (cast != null) {
+        filters.put("cast", cast);
+        return buildOkResponse(
+            moviesService.getMoviesByCast(MOVIES_PER_PAGE, next, cast), 0, filters);
+      }
+      if (genre != null) {
+        filters.put("genre", genre);
+        return buildOkResponse(
+            moviesService.getMoviesByGenre(MOVIES_PER_PAGE, next, genre), 0, filters);
+      }
+      return buildOkResponse(moviesService.getMovies(MOVIES_PER_PAGE, next), 0, filters);
+    } catch (IllegalArgumentException ex) {
+      error.put("error", ex.getMessage());
+      return ResponseEntity.badRequest().body(error);
+    }
+  }
+
+  @GetMapping(value = "/autocomplete")
+  public ResponseEntity<Map> autocomplete(
+      @RequestParam(value = "prefix") String prefix,
+      @RequestParam(value = "limit", required = false) Integer limit) {
+    Map<String, String> error = new HashMap<>();
+    int suggestions = limit == null ? SUGGESTIONS_LIMIT : limit;
+    if (suggestions < 1 || suggestions > MAX_SUGGESTIONS_LIMIT) {
+      error.put(
+          "error",
+          MessageFormat.format("limit must be between 1 and {0}", MAX_SUGGESTIONS_LIMIT));
+      return ResponseEntity.badRequest().body(error);
+    }
+    Map<String, ?> results = moviesService.getSuggestions(prefix, suggestions);
+    if (results == null) {
+      error.put("error", "autocomplete is not available");
+      return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(error);
+    }
+    Map<String, Object> response = new HashMap<>(results);
+    response.put("prefix", prefix);
+    return ResponseEntity.ok(response);
+  }
+
   @RequestMapping(value = "/facet-search", method = RequestMethod.GET)
-  public ResponseEntity<Map> apiSearchMoviesFaceted(
+  public Object apiSearchMoviesFaceted(
       @RequestParam(value = "page", required = false, defaultValue = "0") Integer page,
       @RequestParam(value = "cast", required = false) @Size(min = 1) ArrayList<String> cast) {
+    return respond(() -> searchMoviesFaceted(page, moviesService.resolveCast(cast)));
+  }
 
+  private ResponseEntity<Map> searchMoviesFaceted(Integer page, ArrayList<String> cast) {
     Map<String, List<String>> filters = new HashMap<>();
     filters.put("cast", cast);
     Map<String, ?> results = moviesService.getMovieFacetedSearch(cast, page, MOVIES_PER_PAGE);
@@ -117,13 +281,9 @@ public class MovieController extends ApiController {
       return ResponseEntity.notFound().build();
     }
 
-    Map<String, Object> facets = new HashMap<>();
-    facets.put("runtime", results.get("runtime"));
-    facets.put("rating", results.get("rating"));
-
     HashMap<String, Object> response = new HashMap<>();
     response.put("movies", results.get("movies"));
-    response.put("facets", facets);
+    response.put("facets", results.get("facets"));
     response.put("total_results", results.get("count"));
     response.put("entries_per_page", MOVIES_PER_PAGE);
     response.put("filters", filters);
@@ -132,66 +292,77 @@ public class MovieController extends ApiController {
   }
 
   @PutMapping(value = "/comment")
-  public ResponseEntity updateMovieComment(
+  public Object updateMovieComment(
       @RequestHeader("Authorization") String authorizationToken,
       @RequestBody HashMap<String, String> body) {
-
-    Map<String, Object> results = new HashMap<>();
-    String email = getEmailFromRequest(authorizationToken);
-    if (email == null) {
-      results.put("error", "email not found");
-      return ResponseEntity.badRequest().body(results);
-    }
-    if (!moviesService.updateMovieComment(body, email, results)) {
-      return ResponseEntity.badRequest().body(results);
-    }
-    results.put("auth_token", tokenProvider.mintJWTHeader(email));
-    return ResponseEntity.ok(results);
+    return respond(
+        () -> {
+          Map<String, Object> results = new HashMap<>();
+          String email = getEmailFromRequest(authorizationToken);
+          if (email == null) {
+            results.put("error", "email not found");
+            return ResponseEntity.badRequest().body(results);
+          }
+          if (!moviesService.updateMovieComment(body, email, results)) {
+            return ResponseEntity.badRequest().body(results);
+          }
+          results.put("auth_token", tokenProvider.refreshJWTHeader(authorizationToken, email));
+          return ResponseEntity.ok(results);
+        });
   }
 
   @PostMapping(value = "/comment")
-  public ResponseEntity addComment(
+  public Object addComment(
       @RequestHeader("Authorization") String authorizationToken,
       @RequestBody HashMap<String, String> body) {
-    String email = getEmailFromRequest(authorizationToken);
-    HashMap<String, Object> results = new HashMap<>();
-
-    String movieID = body.get("movie_id");
-    String comment = body.get("comment");
-    if (!moviesService.addMovieComment(movieID, email, comment, results)) {
-      return ResponseEntity.badRequest().body(results);
-    }
-
-    results.put("auth_token", tokenProvider.mintJWTHeader(email));
-    return ResponseEntity.ok(results);
+    return respond(
+        () -> {
+          String email = getEmailFromRequest(authorizationToken);
+          HashMap<String, Object> results = new HashMap<>();
+
+          String movieID = body.get("movie_id");
+          String comment = body.get("comment");
+          if (!moviesService.addMovieComment(movieID, email, comment, results)) {
+            return ResponseEntity.badRequest().body(results);
+          }
+
+          results.put("auth_token", tokenProvider.refreshJWTHeader(authorizationToken, email));
+          return ResponseEntity.ok(results);
+        });
   }
 
   @DeleteMapping(value = "/comment")
-  public ResponseEntity deleteComment(
+  public Object deleteComment(
       @RequestHeader("Authorization") String authorizationToken,
       @RequestBody HashMap<String, String> body) {
-    String email = getEmailFromRequest(authorizationToken);
-    Map<String, Object> results = new HashMap<>();
-    if (email == null) {
-      results.put("error", "email not found");
-      return ResponseEntity.badRequest().body(results);
-    }
-
-    String movie_id = body.get("movie_id");
-    String comment_id = body.get("comment_id");
-    if (!moviesService.deleteMovieComment(movie_id, email, comment_id, results)) {
-      return ResponseEntity.badRequest().body(results);
-    }
-
-    return ResponseEntity.ok(results);
+    return respond(
+        () -> {
+          String email = getEmailFromRequest(authorizationToken);
+          Map<String, Object> results = new HashMap<>();
+          if (email == null) {
+            results.put("error", "email not found");
+            return ResponseEntity.badRequest().body(results);
+          }
+
+          String movie_id = body.get("movie_id");
+          String comment_id = body.get("comment_id");
+          if (!moviesService.deleteMovieComment(movie_id, email, comment_id, results)) {
+            return ResponseEntity.badRequest().body(results);
+          }
+
+          return ResponseEntity.ok(results);
+        });
   }
 
   @GetMapping(value = "/config-options")
-  public ResponseEntity configOptions() {
-    Map<String, ?> results = moviesService.getConfiguration();
-    if (results.containsKey("error")) {
-      return ResponseEntity.badRequest().body(results);
-    }
-    return ResponseEntity.ok(results);
+  public Object configOptions() {
+    return respond(
+        () -> {
+          Map<String, ?> results = moviesService.getConfiguration();
+          if (results.containsKey("error")) {
+            return ResponseEntity.badRequest().body(results);
+          }
+          return ResponseEntity.ok(results);
+        });
   }
 }
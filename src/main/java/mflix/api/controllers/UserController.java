@@ -12,7 +12,6 @@ import org.springframework.web.bind.annotation.*;
 
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
-import javax.validation.constraints.Size;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -39,7 +38,11 @@ public class UserController extends ApiController {
   }
 
   @PostMapping("/login")
-  public ResponseEntity authenticateUser(@RequestBody Login login) {
+  public Object authenticateUser(@RequestBody Login login) {
+    return respond(() -> login(login));
+  }
+
+  private ResponseEntity login(Login login) {
 
     Map<String, String> results = new HashMap<>();
 
@@ -52,86 +55,110 @@ public class UserController extends ApiController {
   }
 
   @PostMapping("/register")
-  public ResponseEntity register(@Valid @RequestBody UserRegistry register) {
-
-    Map<String, String> results = new HashMap<>();
-
-    User user = userService.createUser(register, results);
-    if (user == null || user.isEmpty()) {
-      return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(results);
-    }
-
-    return authenticateUser(new Login(register.getEmail(), register.getPassword()));
+  public Object register(@Valid @RequestBody UserRegistry register) {
+    return respond(
+        () -> {
+          Map<String, String> results = new HashMap<>();
+
+          User user = userService.createUser(register, results);
+          if (user == null || user.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(results);
+          }
+
+          return login(new Login(register.getEmail(), register.getPassword()));
+        });
   }
 
   @PostMapping("/logout")
-  public ResponseEntity logout(@NotNull @RequestHeader("Authorization") String logoutRequest) {
-    String email = getEmailFromRequest(logoutRequest);
-
-    if (userService.logoutUser(email)) {
-      Map<String, String> response = new HashMap<>();
-      response.put("status", "logged out");
-      return ResponseEntity.ok(response);
-    }
-
-    return ResponseEntity.notFound().build();
+  public Object logout(@NotNull @RequestHeader("Authorization") String logoutRequest) {
+    return respond(
+        () -> {
+          String email = getEmailFromRequest(logoutRequest);
+
+          if (userService.logoutUser(email)) {
+            Map<String, String> response = new HashMap<>();
+            response.put("status", "logged out");
+            return ResponseEntity.ok(response);
+          }
+
+          return ResponseEntity.notFound().build();
+        });
   }
 
   @DeleteMapping("/delete")
-  public ResponseEntity delete(
+  public Object delete(
       @RequestHeader("Authorization") String authorizationToken,
-      @NotNull @Size(min = 8) @RequestBody String password) {
-    String email = getEmailFromRequest(authorizationToken);
-    Map results = new HashMap<String, String>();
-    if (!userService.deleteUser(email, password, results)) {
-      return ResponseEntity.badRequest().body(results);
-    }
-    Map<String, String> response = new HashMap<>();
-    response.put("success", "deleted");
-    return ResponseEntity.ok(response);
+      @RequestBody Map<String, String> body) {
+    return respond(
+        () -> {
+          // the frontend sends `{"password": ...}`
+          String password = body.get("password");
+          if (password == null || password.length() < 8) {
+            Map<String, String> error = new HashMap<>();
+            error.put("error", "`password` must be at least 8 characters long");
+            return ResponseEntity.badRequest().body(error);
+          }
+          String email = getEmailFromRequest(authorizationToken);
+          Map results = new HashMap<String, String>();
+          if (!userService.deleteUser(email, password, results)) {
+            return ResponseEntity.badRequest().body(results);
+          }
+          Map<String, String> response = new HashMap<>();
+          response.put("success", "deleted");
+          return ResponseEntity.ok(response);
+        });
   }
 
   @PutMapping("/update-preferences")
-  public ResponseEntity updateUserPreferences(
+  public Object updateUserPreferences(
       @RequestHeader("Authorization") String authorizationToken,
       @RequestBody Map<String, Object> userPreferences) {
-    String email = getEmailFromRequest(authorizationToken);
-    Map<String, Object> results = new HashMap<>();
-    if (!userService.updateUserPreferences(email, userPreferences, results)) {
-      results.put("status", "fail");
-      return ResponseEntity.badRequest().body(results);
-    }
-    results.put("auth_token", tokenProvider.mintJWTHeader(email));
-    return ResponseEntity.ok(results);
+    return respond(
+        () -> {
+          String email = getEmailFromRequest(authorizationToken);
+          Map<String, Object> results = new HashMap<>();
+          if (!userService.updateUserPreferences(email, userPreferences, results)) {
+            results.put("status", "fail");
+            return ResponseEntity.badRequest().body(results);
+          }
+          results.put("auth_token", tokenProvider.refreshJWTHeader(authorizationToken, email));
+          return ResponseEntity.ok(results);
+        });
   }
 
   @PostMapping("/make-admin")
-  public ResponseEntity makeUserAdmin(@RequestBody UserRegistry registry) {
-    Map<String, String> results = new HashMap<>();
-    User user = userService.createAdminUser(registry, results);
-
-    if (user == null || user.isEmpty()) {
-      results.put("status", "fail");
-      return ResponseEntity.badRequest().body(results);
-    }
-
-    return authenticateUser(new Login(registry.getEmail(), registry.getPassword()));
+  public Object makeUserAdmin(@RequestBody UserRegistry registry) {
+    return respond(
+        () -> {
+          Map<String, String> results = new HashMap<>();
+          User user = userService.createAdminUser(registry, results);
+
+          if (user == null || user.isEmpty()) {
+            results.put("status", "fail");
+            return ResponseEntity.badRequest().body(results);
+          }
+
+          return login(new Login(registry.getEmail(), registry.getPassword()));
+        });
   }
 
   @GetMapping("/comment-report")
-  public ResponseEntity getCommentReport(
+  public Object getCommentReport(
       @RequestHeader("Authorization") String authorizationToken) {
-    String email = getEmailFromRequest(authorizationToken);
-    Map<String, Object> results = new HashMap<>();
-    User user = userService.loadUser(email);
-    if (!user.isAdmin()) {
-      results.put("status", "fail");
-      return ResponseEntity.status(401).body(results);
-    }
-
-    results.put("auth_token", tokenProvider.mintJWTHeader(email));
-    results.put("report", moviesService.mostActiveUsers());
-    return ResponseEntity.ok(results);
+    return respond(
+        () -> {
+          String email = getEmailFromRequest(authorizationToken);
+          Map<String, Object> results = new HashMap<>();
+          User user = userService.loadUser(email, "report");
+          if (!user.isAdmin()) {
+            results.put("status", "fail");
+            return ResponseEntity.status(401).body(results);
+          }
+
+          results.put("auth_token", tokenProvider.refreshJWTHeader(authorizationToken, email));
+          results.put("report", moviesService.mostActiveUsers());
+          return ResponseEntity.ok(results);
+        });
   }
 
   @Override
@@ -0,0 +1,27 @@
+package mflix.api.daos;
+
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import org.bson.Document;
+
+/**
+ * Receives the change events that {@link ChangeStreamWatcher} reads from the watched collections.
+ * Any Spring bean implementing this interface is registered with the watcher automatically.
+ */
+public interface ChangeStreamListener {
+
+  /**
+   * Called, on the watcher thread, for every change event of a watched collection.
+   *
+   * @param collection - name of the collection that produced the event.
+   * @param event - change stream document. `fullDocument` is looked up for updates.
+   */
+  void onChange(String collection, ChangeStreamDocument<Document> event);
+
+  /**
+   * Called when the change stream of `collection` had to be reopened without a resume token, so
+   * events may have been missed. Listeners holding derived state should drop or rebuild it.
+   *
+   * @param collection - name of the collection whose stream was reset.
+   */
+  default void onReset(String collection) {}
+}
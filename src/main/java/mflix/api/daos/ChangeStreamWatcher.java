@@ -0,0 +1,145 @@
+package mflix.api.daos;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tails the `movies` and `comments` change streams, one daemon thread per collection, and hands
+ * every event to the registered {@link ChangeStreamListener} beans. This is the same `watch()`
+ * mechanism shown in the ChangeStreams lesson, kept open for the lifetime of the application.
+ */
+@Component
+public class ChangeStreamWatcher extends AbstractMFlixDao {
+
+  private static final Logger log = LoggerFactory.getLogger(ChangeStreamWatcher.class);
+
+  private static final long MAX_AWAIT_MS = 1000;
+  private static final long RETRY_BACKOFF_MS = 2000;
+
+  @Value("${api.change_streams.enabled:false}")
+  private boolean enabled;
+
+  @Autowired(required = false)
+  private List<ChangeStreamListener> listeners = new ArrayList<>();
+
+  private final List<Thread> threads = new ArrayList<>();
+
+  private volatile boolean running;
+
+  @Autowired
+  public ChangeStreamWatcher(
+      MongoClient mongoClient, @Value("${spring.mongodb.database}") String databaseName) {
+    super(mongoClient, databaseName);
+  }
+
+  @PostConstruct
+  public void start() {
+    if (!enabled || listeners.isEmpty()) {
+      return;
+    }
+    running = true;
+    String[] collections = {MovieDao.MOVIES_COLLECTION, CommentDao.COMMENT_COLLECTION};
+    for (String collection : collections) {
+      Thread thread = new Thread(() -> watch(collection), "change-stream-" + collection);
+      thread.setDaemon(true);
+      thread.start();
+      threads.add(thread);
+    }
+  }
+
+  @PreDestroy
+  public void stop() {
+    running = false;
+    for (Thread thread : threads) {
+      thread.interrupt();
+    }
+    threads.clear();
+  }
+
+  public boolean isRunning() {
+    return running;
+  }
+
+  private void watch(String collection) {
+    BsonDocument resumeToken = null;
+    while (running) {
+      ChangeStreamIterable<Document> stream =
+          db.getCollection(collection)
+              .watch()
+              .fullDocument(FullDocument.UPDATE_LOOKUP)
+              .maxAwaitTime(MAX_AWAIT_MS, TimeUnit.MILLISECONDS);
+      if (resumeToken != null) {
+        stream = stream.resumeAfter(resumeToken);
+      }
+      try (MongoCursor<ChangeStreamDocument<Document>> cursor = stream.iterator()) {
+        while (running) {
+          ChangeStreamDocument<Document> event = cursor.tryNext();
+          if (event == null) {
+            continue;
+          }
+          resumeToken = event.getResumeToken();
+          dispatch(collection, event);
+        }
+      } catch (MongoException ex) {
+        if (!running) {
+          return;
+        }
+        log.warn("Change stream on `{}` failed, reopening: {}", collection, ex.getMessage());
+        // the resume token may be the reason of the failure, start over and let the listeners
+        // drop whatever they derived from the events they may now miss.
+        resumeToken = null;
+        reset(collection);
+        if (!sleep(RETRY_BACKOFF_MS)) {
+          return;
+        }
+      }
+    }
+  }
+
+  private void dispatch(String collection, ChangeStreamDocument<Document> event) {
+    for (ChangeStreamListener listener : listeners) {
+      try {
+        listener.onChange(collection, event);
+      } catch (RuntimeException ex) {
+        log.error("Listener {} failed on `{}` change: {}", listener, collection, ex.getMessage());
+      }
+    }
+  }
+
+  private void reset(String collection) {
+    for (ChangeStreamListener listener : listeners) {
+      try {
+        listener.onReset(collection);
+      } catch (RuntimeException ex) {
+        log.error("Listener {} failed on `{}` reset: {}", listener, collection, ex.getMessage());
+      }
+    }
+  }
+
+  private boolean sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+      return true;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+}
@@ -0,0 +1,123 @@
+package mflix.api.daos;
+
+import com.mongodb.MongoCursorNotFoundException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.BsonDocument;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Exports whole collections as NDJSON, one relaxed Extended JSON document per line, from a single
+ * `{_id: 1}` cursor instead of pages of the listing endpoints.
+ *
+ * <p>Documents are transcoded from raw BSON and written as the cursor yields them, and the output
+ * is flushed after every batch of `api.admin.export.batch_size`. Writes to a slow consumer block,
+ * which in turn holds back the next `getMore`, so no more than a batch is buffered on the heap.
+ * Exports resume after the `_id` of the last line received, and a cursor that timed out on the
+ * server while the consumer was stalled is reopened the same way. Exported documents are counted
+ * under `mflix.export.documents`.
+ */
+@Component
+public class CollectionExporter extends AbstractMFlixDao {
+
+  /** Collections that can be exported. */
+  public static final List<String> COLLECTIONS =
+      Arrays.asList(MovieDao.MOVIES_COLLECTION, CommentDao.COMMENT_COLLECTION);
+
+  private static final JsonWriterSettings JSON =
+      JsonWriterSettings.builder().outputMode(JsonMode.RELAXED).build();
+
+  private static final byte[] NEW_LINE = {'\n'};
+
+  private static final Logger log = LoggerFactory.getLogger(CollectionExporter.class);
+
+  @Value("${api.admin.export.batch_size:1000}")
+  private int batchSize = 1000;
+
+  private final MeterRegistry meterRegistry;
+
+  @Autowired
+  public CollectionExporter(
+      MongoClient mongoClient,
+      @Value("${spring.mongodb.database}") String databaseName,
+      MeterRegistry meterRegistry) {
+    super(mongoClient, databaseName);
+    this.meterRegistry = meterRegistry;
+  }
+
+  /**
+   * Writes the documents of a collection in `_id` order.
+   *
+   * @param collection - one of {@link #COLLECTIONS}.
+   * @param after - `_id` of the last document already exported, or null to start over.
+   * @param out - stream the lines are written to. It is flushed but not closed.
+   * @return number of exported documents.
+   * @throws IOException if the stream cannot be written, e.g. the consumer went away.
+   */
+  public long export(String collection, ObjectId after, OutputStream out) throws IOException {
+    if (!COLLECTIONS.contains(collection)) {
+      throw new IllegalArgumentException(
+          MessageFormat.format("collection `{0}` cannot be exported", collection));
+    }
+    Counter exported =
+        Counter.builder("mflix.export.documents")
+            .tag("collection", collection)
+            .register(meterRegistry);
+    Object last = after;
+    long count = 0;
+    boolean resumed = false;
+    while (true) {
+      try (MongoCursor<RawBsonDocument> cursor = open(collection, last)) {
+        while (cursor.hasNext()) {
+          RawBsonDocument document = cursor.next();
+          out.write(document.toJson(JSON).getBytes(StandardCharsets.UTF_8));
+          out.write(NEW_LINE);
+          last = document.get("_id");
+          exported.increment();
+          if (++count % batchSize == 0) {
+            out.flush();
+            resumed = false;
+          }
+        }
+        out.flush();
+        return count;
+      } catch (MongoCursorNotFoundException ex) {
+        if (resumed) {
+          // timed out again without a whole batch going through
+          throw ex;
+        }
+        log.info("Export cursor of `{}` timed out after {} documents, resuming", collection, count);
+        resumed = true;
+      }
+    }
+  }
+
+  private MongoCursor<RawBsonDocument> open(String collection, Object after) {
+    Bson filter = after == null ? new BsonDocument() : Filters.gt("_id", after);
+    return db.getCollection(collection, RawBsonDocument.class)
+        .find(filter)
+        .sort(Sorts.ascending("_id"))
+        .batchSize(batchSize)
+        .iterator();
+  }
+}
@@ -2,7 +2,14 @@ package mflix.api.daos;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import com.mongodb.MongoClientSettings;
 import com.mongodb.MongoException;
@@ -13,11 +20,16 @@ import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.model.Aggregates;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
 import com.mongodb.client.model.Updates;
 import com.mongodb.client.result.DeleteResult;
 import com.mongodb.client.result.UpdateResult;
 import mflix.api.models.Comment;
 import mflix.api.models.Critic;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.bson.Document;
 import org.bson.codecs.configuration.CodecRegistry;
 import org.bson.codecs.pojo.PojoCodecProvider;
@@ -40,12 +52,53 @@ public class CommentDao extends AbstractMFlixDao {
 
     public static String COMMENT_COLLECTION = "comments";
 
+    /**
+     * Index serving the comments of a movie newest first: the movie detail `$lookup`, its count,
+     * and the keyset pages of {@link #getMovieComments}, whose ties on `date` are broken by `_id`.
+     */
+    public static final Bson MOVIE_DATE_INDEX =
+            Indexes.compoundIndex(Indexes.ascending("movie_id"), Indexes.descending("date", "_id"));
+
+    private static final String[] MOVIE_DATE_INDEX_KEYS = {"movie_id", "date", "_id"};
+
     private MongoCollection<Comment> commentCollection;
 
     private CodecRegistry pojoCodecRegistry;
 
     private final Logger log;
 
+    @Value("${api.comments.group_commit.enabled:false}")
+    private boolean groupCommitEnabled;
+
+    @Value("${api.comments.group_commit.max_batch_size:200}")
+    private int groupCommitMaxBatchSize = 200;
+
+    @Value("${api.comments.group_commit.max_delay_ms:10}")
+    private long groupCommitMaxDelayMs = 10;
+
+    @Value("${api.comments.group_commit.queue_size:10000}")
+    private int groupCommitQueueSize = 10000;
+
+    @Value("${api.comments.group_commit.timeout_ms:5000}")
+    private long groupCommitTimeoutMs = 5000;
+
+    @Value("${api.comments.check_indexes:true}")
+    private boolean checkIndexes;
+
+    @Value("${api.comments.ensure_indexes:false}")
+    private boolean ensureIndexes;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Autowired(required = false)
+    private RecentCommentsSubset recentComments;
+
+    @Autowired(required = false)
+    private CommenterLeaderboard leaderboard;
+
+    private GroupCommitter<Comment> groupCommitter;
+
     @Autowired
     public CommentDao(
             MongoClient mongoClient, @Value("${spring.mongodb.database}") String databaseName) {
@@ -61,6 +114,75 @@ public class CommentDao extends AbstractMFlixDao {
                         .withCodecRegistry(pojoCodecRegistry);
     }
 
+    /**
+     * Checks that the {@link #MOVIE_DATE_INDEX} index exists, and creates it if
+     * `api.comments.ensure_indexes` is set. Without it every movie detail view and comments page
+     * scans the collection.
+     */
+    @PostConstruct
+    public void checkMovieDateIndex() {
+        if (!checkIndexes) {
+            return;
+        }
+        try {
+            if (hasMovieDateIndex()) {
+                return;
+            }
+            if (ensureIndexes) {
+                commentCollection.createIndex(MOVIE_DATE_INDEX);
+                log.info("Created comments index {}", MOVIE_DATE_INDEX);
+            } else {
+                log.warn(
+                        "Comments index {} is missing, movie comments will be read with a collection "
+                                + "scan. Create it or set api.comments.ensure_indexes=true",
+                        MOVIE_DATE_INDEX);
+            }
+        } catch (MongoException ex) {
+            log.warn("Could not check the comments indexes: {}", ex.getMessage());
+        }
+    }
+
+    boolean hasMovieDateIndex() {
+        for (Document index : commentCollection.listIndexes()) {
+            Iterator<String> keys = index.get("key", Document.class).keySet().iterator();
+            boolean matches = true;
+            for (String expected : MOVIE_DATE_INDEX_KEYS) {
+                if (!keys.hasNext() || !expected.equals(keys.next())) {
+                    matches = false;
+                    break;
+                }
+            }
+            if (matches) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Starts group commit of comment inserts when `api.comments.group_commit.enabled` is set.
+     */
+    @PostConstruct
+    public void startGroupCommit() {
+        if (groupCommitEnabled) {
+            groupCommitter =
+                    new GroupCommitter<>(
+                            "mflix.comments.group_commit",
+                            commentCollection,
+                            groupCommitMaxBatchSize,
+                            groupCommitMaxDelayMs,
+                            groupCommitQueueSize,
+                            meterRegistry);
+        }
+    }
+
+    @PreDestroy
+    public void stopGroupCommit() {
+        if (groupCommitter != null) {
+            groupCommitter.stop();
+        }
+    }
+
     /**
      * Returns a Comment object that matches the provided id string.
      *
@@ -71,12 +193,58 @@ public class CommentDao extends AbstractMFlixDao {
         return commentCollection.find(new Document("_id", new ObjectId(id))).first();
     }
 
+    /**
+     * Returns a page of the comments of a movie, newest first. Pages are keyset paginated on
+     * `{date: -1, _id: -1}`, so deep pages cost the same as the first one.
+     *
+     * @param movieId - Movie identifier string.
+     * @param limit   - max number of comments.
+     * @param after   - token of the last comment of the previous page, null for the first page.
+     * @return list of Comment objects.
+     */
+    public List<Comment> getMovieComments(String movieId, int limit, PageToken after) {
+        Bson filter = eq("movie_id", new ObjectId(movieId));
+        if (after != null) {
+            filter = Filters.and(filter, afterComment(after));
+        }
+        return commentCollection
+                .find(filter)
+                .sort(Sorts.descending("date", "_id"))
+                .limit(limit)
+                .into(new ArrayList<>());
+    }
+
+    /**
+     * Token continuing after the given comment, see {@link #getMovieComments}.
+     *
+     * @param lastComment - last comment of the current page.
+     * @return PageToken object.
+     */
+    public static PageToken pageTokenAfter(Comment lastComment) {
+        Date date = lastComment.getDate();
+        return new PageToken(date == null ? null : date.getTime(), lastComment.getOid());
+    }
+
+    /**
+     * Range predicate selecting the comments that follow the token in `{date: -1, _id: -1}` order.
+     * Comments without a date sort last.
+     */
+    static Bson afterComment(PageToken after) {
+        Date date = after.getSortValue() == null ? null : new Date(after.getSortValue());
+        Bson sameDateLowerId = Filters.and(eq("date", date), Filters.lt("_id", after.getId()));
+        if (date == null) {
+            return sameDateLowerId;
+        }
+        return Filters.or(Filters.lt("date", date), sameDateLowerId, eq("date", null));
+    }
+
     /**
      * Adds a new Comment to the collection. The equivalent instruction in the mongo shell would be:
      *
      * <p>db.comments.insertOne({comment})
      *
-     * <p>
+     * <p>In group commit mode the comment is inserted together with the comments of concurrent
+     * callers, in one unordered insertMany, and this call waits for the outcome of its own comment.
      *
      * @param comment - Comment object.
      * @throw IncorrectDaoOperation if the insert fails, otherwise
@@ -84,17 +252,47 @@ public class CommentDao extends AbstractMFlixDao {
      */
     public Comment addComment(Comment comment) {
         try {
-            if (comment.getId() != null) {
-                this.commentCollection.insertOne(comment);
-            } else {
+            if (comment.getId() == null) {
                 throw new IncorrectDaoOperation("NO Id Provided");
+            } else if (groupCommitter != null) {
+                awaitGroupCommit(comment);
+            } else {
+                this.commentCollection.insertOne(comment);
             }
         } catch (MongoException ex) {
             throw new IncorrectDaoOperation(ex.getMessage());
         }
+        if (maintainsRecentComments()) {
+            recentComments.commentAdded(MovieDocumentMapper.mapToCommentDocument(comment));
+        }
+        if (leaderboard != null) {
+            leaderboard.commentAdded(comment.getEmail());
+        }
         return comment;
     }
 
+    private boolean maintainsRecentComments() {
+        return recentComments != null && recentComments.isEnabled();
+    }
+
+    private void awaitGroupCommit(Comment comment) {
+        try {
+            groupCommitter
+                    .submit(comment, groupCommitTimeoutMs)
+                    .get(groupCommitTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IncorrectDaoOperation) {
+                throw (IncorrectDaoOperation) ex.getCause();
+            }
+            throw new IncorrectDaoOperation(ex.getCause().getMessage(), ex.getCause());
+        } catch (TimeoutException ex) {
+            throw new IncorrectDaoOperation("comment insert was not acknowledged in time", ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IncorrectDaoOperation("comment insert was interrupted", ex);
+        }
+    }
+
     /**
      * Updates the comment text matching commentId and user email. This method would be equivalent to
      * running the following mongo shell command:
@@ -109,10 +307,37 @@ public class CommentDao extends AbstractMFlixDao {
      * @return true if successfully updates the comment text.
      */
     public boolean updateComment(String commentId, String text, String email) {
+        return updateComment(commentId, text, email, new Date());
+    }
+
+    /**
+     * Updates the comment text matching commentId and user email, setting the comment date to the
+     * given one.
+     *
+     * @param commentId - comment id string value.
+     * @param text      - comment text to be updated.
+     * @param email     - user email.
+     * @param date      - new comment date.
+     * @return true if successfully updates the comment text.
+     */
+    public boolean updateComment(String commentId, String text, String email, Date date) {
         Bson idFilter = eq("_id", new ObjectId(commentId));
         Bson queryCommentsUserOnly = Filters.and(idFilter, eq("email", email));
         try {
-            Bson updates = Updates.combine(set("text", text), set("date", new Date()));
+            Bson updates = Updates.combine(set("text", text), set("date", date));
+            if (maintainsRecentComments()) {
+                // the movie embeds the whole comment, so the updated one is needed
+                Comment updated =
+                        this.commentCollection.findOneAndUpdate(
+                                queryCommentsUserOnly,
+                                updates,
+                                new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER));
+                if (updated == null) {
+                    return false;
+                }
+                recentComments.commentUpdated(MovieDocumentMapper.mapToCommentDocument(updated));
+                return true;
+            }
             UpdateResult updateResult = this.commentCollection.updateOne(queryCommentsUserOnly, updates);
             if (updateResult.getModifiedCount() != 1) {
                 return false;
@@ -134,13 +359,24 @@ public class CommentDao extends AbstractMFlixDao {
         Bson idFilter = eq("_id", new ObjectId(commentId));
         Bson queryCommentsUserOnly = Filters.and(idFilter, eq("email", email));
         try {
-            DeleteResult result = this.commentCollection.deleteOne(queryCommentsUserOnly);
-            if(result.getDeletedCount()!=1){
-                return false;
+            if (maintainsRecentComments()) {
+                Comment deleted = this.commentCollection.findOneAndDelete(queryCommentsUserOnly);
+                if (deleted == null) {
+                    return false;
+                }
+                recentComments.commentDeleted(deleted.getMovieObjectId(), deleted.getOid());
+            } else {
+                DeleteResult result = this.commentCollection.deleteOne(queryCommentsUserOnly);
+                if (result.getDeletedCount() != 1) {
+                    return false;
+                }
             }
         } catch (MongoWriteException ex) {
             throw new IncorrectDaoOperation("Not a valid comment for the given");
         }
+        if (leaderboard != null) {
+            leaderboard.commentDeleted(email);
+        }
         // TODO> Ticket Delete Comments - Implement the method that enables the deletion of a user
         // comment
         // TIP: make sure to match only users that own the given commentId
@@ -154,9 +390,17 @@ public class CommentDao extends AbstractMFlixDao {
      * `comments` collection and group the users by number of comments. The list is limited to up most
      * 20 commenter.
      *
+     * <p>Once the {@link CommenterLeaderboard} is loaded, the report is read from it instead.
+     *
      * @return List {@link Critic} objects.
      */
     public List<Critic> mostActiveCommenters() {
+        if (leaderboard != null && leaderboard.isLoaded()) {
+            List<Critic> top = leaderboard.top();
+            if (top != null) {
+                return top;
+            }
+        }
         List<Critic> mostActive = new ArrayList<>();
 
         List<Bson> pipeline = new ArrayList<>();
@@ -0,0 +1,244 @@
+package mflix.api.daos;
+
+import com.mongodb.MongoException;
+import com.mongodb.ReadConcern;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import mflix.api.models.Critic;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.lte;
+
+/**
+ * Most active commenters, maintained incrementally instead of running `$sortByCount` over the
+ * whole `comments` collection for every report. With `api.comments.leaderboard.enabled`:
+ *
+ * <ul>
+ *   <li>the `commenter_counts` collection holds the number of comments of every email, `$inc`-ed by
+ *       {@link CommentDao} on every acknowledged insert and delete;
+ *   <li>a {@link CommenterRanking} keeps the top candidates in memory, so the report is an O(K)
+ *       read. When decrements make it uncertain, it is reloaded from the `{count: -1}` index of
+ *       `commenter_counts`, which is also done every `refresh_interval_ms` to pick up the writes of
+ *       other instances;
+ *   <li>every `reconcile_interval_ms`, the counts are recomputed exactly from `comments` with a
+ *       `$group`/`$out` aggregation, which corrects any drift, e.g. from failed `$inc`s counted in
+ *       `mflix.leaderboard.failures`.
+ * </ul>
+ *
+ * <p>Counts are bootstrapped by a reconciliation when `commenter_counts` is empty.
+ */
+@Component
+public class CommenterLeaderboard extends AbstractMFlixDao {
+
+  public static final String COUNTS_COLLECTION = "commenter_counts";
+
+  private static final Logger log = LoggerFactory.getLogger(CommenterLeaderboard.class);
+
+  private final MongoCollection<Document> counts;
+
+  private final MongoCollection<Document> comments;
+
+  @Value("${api.comments.leaderboard.enabled:false}")
+  private boolean enabled;
+
+  @Value("${api.comments.leaderboard.size:20}")
+  private int size = 20;
+
+  @Value("${api.comments.leaderboard.refresh_interval_ms:60000}")
+  private long refreshIntervalMs = 60000;
+
+  @Value("${api.comments.leaderboard.reconcile_interval_ms:3600000}")
+  private long reconcileIntervalMs = 3600000;
+
+  @Autowired(required = false)
+  private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private CommenterRanking ranking;
+
+  private Counter failures;
+
+  private Timer reconcileTimer;
+
+  private ScheduledExecutorService scheduler;
+
+  private volatile boolean loaded;
+
+  @Autowired
+  public CommenterLeaderboard(
+      MongoClient mongoClient, @Value("${spring.mongodb.database}") String databaseName) {
+    super(mongoClient, databaseName);
+    this.counts = db.getCollection(COUNTS_COLLECTION);
+    this.comments = db.getCollection(CommentDao.COMMENT_COLLECTION);
+  }
+
+  @PostConstruct
+  public void start() {
+    // twice the report size, so a few decrements do not force a reload
+    ranking = new CommenterRanking(2 * size);
+    failures = Counter.builder("mflix.leaderboard.failures").register(meterRegistry);
+    reconcileTimer = Timer.builder("mflix.leaderboard.reconcile").register(meterRegistry);
+    if (!enabled) {
+      return;
+    }
+    scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "commenter-leaderboard");
+              thread.setDaemon(true);
+              return thread;
+            });
+    scheduler.execute(() -> quietly("bootstrap", this::bootstrap));
+    scheduler.scheduleWithFixedDelay(
+        () -> quietly("refresh", this::reload),
+        refreshIntervalMs,
+        refreshIntervalMs,
+        TimeUnit.MILLISECONDS);
+    scheduler.scheduleWithFixedDelay(
+        () -> quietly("reconcile", this::reconcile),
+        reconcileIntervalMs,
+        reconcileIntervalMs,
+        TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+
+  /** Whether the ranking was loaded and can serve {@link #top()}. */
+  public boolean isLoaded() {
+    return loaded;
+  }
+
+  private void bootstrap() {
+    counts.createIndex(Indexes.descending("count"));
+    if (counts.estimatedDocumentCount() == 0) {
+      reconcile();
+    } else {
+      reload();
+    }
+  }
+
+  public void commentAdded(String email) {
+    adjust(email, 1);
+  }
+
+  public void commentDeleted(String email) {
+    adjust(email, -1);
+  }
+
+  private void adjust(String email, int delta) {
+    if (!enabled || email == null) {
+      return;
+    }
+    try {
+      Document counter =
+          counts.findOneAndUpdate(
+              eq("_id", email),
+              Updates.inc("count", delta),
+              new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
+      int count = count(counter);
+      if (count <= 0) {
+        counts.deleteOne(and(eq("_id", email), lte("count", 0)));
+      }
+      ranking.record(email, count);
+    } catch (MongoException ex) {
+      failures.increment();
+      log.warn("Could not count comment of {}, left to reconciliation: {}", email, ex.getMessage());
+    }
+  }
+
+  /**
+   * Returns the most active commenters, `api.comments.leaderboard.size` of them at most.
+   *
+   * @return list of Critic objects, by decreasing number of comments.
+   */
+  public List<Critic> top() {
+    List<Critic> top = ranking.top(size);
+    if (top == null) {
+      reload();
+      top = ranking.top(size);
+    }
+    return top;
+  }
+
+  /** Reloads the ranking candidates from the `commenter_counts` collection. */
+  public void reload() {
+    int capacity = 2 * size;
+    List<Document> highest =
+        counts
+            .withReadConcern(ReadConcern.MAJORITY)
+            .find()
+            .sort(Sorts.descending("count"))
+            .limit(capacity + 1)
+            .into(new ArrayList<>());
+    List<Critic> ranked = new ArrayList<>(capacity);
+    for (Document counter : highest.subList(0, Math.min(capacity, highest.size()))) {
+      ranked.add(new Critic(counter.getString("_id"), count(counter)));
+    }
+    int floor = highest.size() > capacity ? count(highest.get(capacity)) : 0;
+    ranking.reset(ranked, floor);
+    loaded = true;
+  }
+
+  /**
+   * Recomputes the comment count of every email from the `comments` collection and replaces the
+   * `commenter_counts` collection, keeping its indexes. Counts changed while the aggregation runs
+   * may be lost until the next reconciliation.
+   */
+  public void reconcile() {
+    reconcileTimer.record(
+        () -> {
+          comments
+              .withReadConcern(ReadConcern.MAJORITY)
+              .aggregate(
+                  Arrays.asList(
+                      Aggregates.group("$email", Accumulators.sum("count", 1)),
+                      Aggregates.out(COUNTS_COLLECTION)))
+              .allowDiskUse(true)
+              .toCollection();
+          reload();
+        });
+  }
+
+  private static int count(Document counter) {
+    return counter.get("count", Number.class).intValue();
+  }
+
+  private void quietly(String operation, Runnable task) {
+    try {
+      task.run();
+    } catch (MongoException ex) {
+      log.warn("Commenter leaderboard {} failed: {}", operation, ex.getMessage());
+    }
+  }
+}
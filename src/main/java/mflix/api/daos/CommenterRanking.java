@@ -0,0 +1,87 @@
+package mflix.api.daos;
+
+import mflix.api.models.Critic;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory ranking of the most active commenters, fed with exact per-email comment counts. It
+ * holds at most `capacity` candidates and a floor: every email that is not a candidate has at most
+ * `floor` comments. The top k are known exactly as long as k candidates have at least `floor`
+ * comments, e.g. until decrements push candidates below emails that are not tracked.
+ */
+class CommenterRanking {
+
+  private final int capacity;
+
+  private final Map<String, Integer> candidates = new HashMap<>();
+
+  private int floor;
+
+  CommenterRanking(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Replaces the candidates.
+   *
+   * @param ranked - highest counts, at most `capacity` of them.
+   * @param floor - highest count of the emails left out, 0 if none.
+   */
+  synchronized void reset(List<Critic> ranked, int floor) {
+    candidates.clear();
+    for (Critic critic : ranked) {
+      candidates.put(critic.getId(), critic.getNumComments());
+    }
+    this.floor = floor;
+  }
+
+  /**
+   * Records the current comment count of an email.
+   *
+   * @param email - commenter email.
+   * @param count - number of comments of the email.
+   */
+  synchronized void record(String email, int count) {
+    if (count <= 0) {
+      candidates.remove(email);
+      return;
+    }
+    if (!candidates.containsKey(email) && count <= floor) {
+      return;
+    }
+    candidates.put(email, count);
+    if (candidates.size() > capacity) {
+      Map.Entry<String, Integer> lowest = null;
+      for (Map.Entry<String, Integer> candidate : candidates.entrySet()) {
+        if (lowest == null || candidate.getValue() < lowest.getValue()) {
+          lowest = candidate;
+        }
+      }
+      candidates.remove(lowest.getKey());
+      floor = Math.max(floor, lowest.getValue());
+    }
+  }
+
+  /**
+   * Returns the k most active commenters, by decreasing number of comments.
+   *
+   * @param k - number of commenters.
+   * @return list of Critic objects, or null if the candidates cannot tell the top k for sure.
+   */
+  synchronized List<Critic> top(int k) {
+    List<Critic> ranked = new ArrayList<>(candidates.size());
+    candidates.forEach((email, count) -> ranked.add(new Critic(email, count)));
+    ranked.sort((a, b) -> Integer.compare(b.getNumComments(), a.getNumComments()));
+    if (ranked.size() < k) {
+      return floor > 0 ? null : ranked;
+    }
+    if (ranked.get(k - 1).getNumComments() < floor) {
+      return null;
+    }
+    return new ArrayList<>(ranked.subList(0, k));
+  }
+}
@@ -0,0 +1,192 @@
+package mflix.api.daos;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.InsertManyOptions;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Group commit of document inserts. Documents submitted by concurrent callers wait in a bounded
+ * queue and a single flusher thread inserts them together with one unordered `insertMany`, as soon
+ * as `maxBatchSize` documents are queued or the oldest one waited `maxDelayMs`. Each caller gets
+ * the outcome of its own document through the returned future.
+ *
+ * <p>Published meters, prefixed by the given name: `.batch_size` per flush, `.flush` time of the
+ * `insertMany`, `.latency` from submit to acknowledgement, and the `.queue` depth.
+ *
+ * @param <T> - collection document class.
+ */
+public class GroupCommitter<T> {
+
+  private static final Logger log = LoggerFactory.getLogger(GroupCommitter.class);
+
+  /** Document waiting to be inserted, with the future of its caller. */
+  private static final class Pending<T> {
+
+    private final T document;
+
+    private final long submittedNanos = System.nanoTime();
+
+    private final CompletableFuture<T> future = new CompletableFuture<>();
+
+    private Pending(T document) {
+      this.document = document;
+    }
+  }
+
+  private final MongoCollection<T> collection;
+
+  private final int maxBatchSize;
+
+  private final long maxDelayNanos;
+
+  private final BlockingQueue<Pending<T>> queue;
+
+  private final DistributionSummary batchSizes;
+
+  private final Timer flushTimer;
+
+  private final Timer latencyTimer;
+
+  private final Thread flusher;
+
+  private volatile boolean running = true;
+
+  public GroupCommitter(
+      String name,
+      MongoCollection<T> collection,
+      int maxBatchSize,
+      long maxDelayMs,
+      int queueCapacity,
+      MeterRegistry meterRegistry) {
+    this.collection = collection;
+    this.maxBatchSize = maxBatchSize;
+    this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMs);
+    this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    MeterRegistry registry = meterRegistry == null ? new SimpleMeterRegistry() : meterRegistry;
+    this.batchSizes = DistributionSummary.builder(name + ".batch_size").register(registry);
+    this.flushTimer = Timer.builder(name + ".flush").register(registry);
+    this.latencyTimer = Timer.builder(name + ".latency").register(registry);
+    Gauge.builder(name + ".queue", queue, BlockingQueue::size).register(registry);
+    this.flusher = new Thread(this::run, name + "-flusher");
+    this.flusher.setDaemon(true);
+    this.flusher.start();
+  }
+
+  /**
+   * Queues a document for the next batch.
+   *
+   * @param document - document to insert.
+   * @param maxWaitMs - how long to wait for room in the queue.
+   * @return future completed with the document once inserted, or with an IncorrectDaoOperation.
+   */
+  public CompletableFuture<T> submit(T document, long maxWaitMs) {
+    Pending<T> pending = new Pending<>(document);
+    try {
+      if (!running || !queue.offer(pending, maxWaitMs, TimeUnit.MILLISECONDS)) {
+        pending.future.completeExceptionally(new IncorrectDaoOperation("insert queue is full"));
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      pending.future.completeExceptionally(new IncorrectDaoOperation("insert interrupted", ex));
+    }
+    return pending.future;
+  }
+
+  /** Stops accepting documents and flushes the ones already queued. */
+  public void stop() {
+    running = false;
+    flusher.interrupt();
+    try {
+      flusher.join(TimeUnit.SECONDS.toMillis(5));
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    List<Pending<T>> batch = new ArrayList<>();
+    while (queue.drainTo(batch, maxBatchSize) > 0) {
+      flush(batch);
+      batch.clear();
+    }
+  }
+
+  private void run() {
+    List<Pending<T>> batch = new ArrayList<>(maxBatchSize);
+    while (running) {
+      try {
+        Pending<T> first = queue.poll(1, TimeUnit.SECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        long deadline = first.submittedNanos + maxDelayNanos;
+        while (batch.size() < maxBatchSize) {
+          queue.drainTo(batch, maxBatchSize - batch.size());
+          long remaining = deadline - System.nanoTime();
+          if (batch.size() >= maxBatchSize || remaining <= 0) {
+            break;
+          }
+          Pending<T> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+          if (next == null) {
+            break;
+          }
+          batch.add(next);
+        }
+      } catch (InterruptedException ex) {
+        // stop() flushes what is left in the queue
+      }
+      if (!batch.isEmpty()) {
+        flush(batch);
+        batch.clear();
+      }
+    }
+  }
+
+  private void flush(List<Pending<T>> batch) {
+    List<T> documents = new ArrayList<>(batch.size());
+    for (Pending<T> pending : batch) {
+      documents.add(pending.document);
+    }
+    batchSizes.record(batch.size());
+    long start = System.nanoTime();
+    IncorrectDaoOperation[] failures = new IncorrectDaoOperation[batch.size()];
+    try {
+      collection.insertMany(documents, new InsertManyOptions().ordered(false));
+    } catch (MongoBulkWriteException ex) {
+      for (BulkWriteError error : ex.getWriteErrors()) {
+        failures[error.getIndex()] = new IncorrectDaoOperation(error.getMessage());
+      }
+    } catch (RuntimeException ex) {
+      log.warn("Group commit of {} documents failed: {}", batch.size(), ex.getMessage());
+      IncorrectDaoOperation failure = new IncorrectDaoOperation(ex.getMessage(), ex);
+      for (int i = 0; i < failures.length; i++) {
+        failures[i] = failure;
+      }
+    } finally {
+      flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+    long now = System.nanoTime();
+    for (int i = 0; i < batch.size(); i++) {
+      Pending<T> pending = batch.get(i);
+      latencyTimer.record(now - pending.submittedNanos, TimeUnit.NANOSECONDS);
+      if (failures[i] == null) {
+        pending.future.complete(pending.document);
+      } else {
+        pending.future.completeExceptionally(failures[i]);
+      }
+    }
+  }
+}
@@ -0,0 +1,473 @@
+package mflix.api.daos;
+
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Positional inverted index over the text fields of movies, scored with Okapi BM25.
+ *
+ * <p>Every term maps to one flat `int[]` of `[doc, tf, position...]` postings, appended as movies
+ * are added. Movies get a new doc number whenever they are put, and removing or replacing one only
+ * marks its old doc number dead and takes it out of the document frequencies: dead postings are
+ * skipped by searches and dropped by {@link #compact()}, which runs once they make up a third of
+ * all postings.
+ *
+ * <p>Queries follow the `$search` syntax of `$text`: terms are ORed, `"quoted phrases"` must all
+ * appear and `-terms` exclude. Text is lower-cased and split on anything but letters and digits;
+ * stop words are not indexed but still take a position, so phrases keep their spacing. There is no
+ * stemming. Searches run under a read lock and updates under a write lock.
+ */
+final class InvertedIndex {
+
+  /** Position gap between fields, so phrases never match across two of them. */
+  static final int FIELD_GAP = 100;
+
+  private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+  private static final Pattern QUERY_PART = Pattern.compile("\"([^\"]*)\"?|(\\S+)");
+
+  private static final Set<String> STOP_WORDS =
+      new HashSet<>(
+          Arrays.asList(
+              "a", "an", "and", "are", "as", "at", "be", "but", "by", "for", "if", "in", "into",
+              "is", "it", "no", "not", "of", "on", "or", "such", "that", "the", "their", "then",
+              "there", "these", "they", "this", "to", "was", "will", "with"));
+
+  private final double k1;
+
+  private final double b;
+
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private final Map<String, Integer> termIds = new HashMap<>();
+
+  private int[][] postings = new int[1024][];
+
+  private int[] postingLengths = new int[1024];
+
+  private int[] documentFrequencies = new int[1024];
+
+  private final Map<ObjectId, Integer> docs = new HashMap<>();
+
+  private ObjectId[] movieIds = new ObjectId[1024];
+
+  private int[] docLengths = new int[1024];
+
+  /** Distinct term ids of every live doc, null once the doc is dead. */
+  private int[][] docTerms = new int[1024][];
+
+  private int docCount;
+
+  private long liveLength;
+
+  private long totalPostings;
+
+  private long deadPostings;
+
+  InvertedIndex(double k1, double b) {
+    this.k1 = k1;
+    this.b = b;
+  }
+
+  /**
+   * Splits a text into lower-cased tokens, stop words included.
+   *
+   * @param text - text to tokenize.
+   * @return list of tokens.
+   */
+  static List<String> tokenize(String text) {
+    List<String> tokens = new ArrayList<>();
+    if (text == null) {
+      return tokens;
+    }
+    for (String token : TOKEN_SEPARATOR.split(text.toLowerCase(Locale.ROOT))) {
+      if (!token.isEmpty()) {
+        tokens.add(token);
+      }
+    }
+    return tokens;
+  }
+
+  static boolean isStopWord(String token) {
+    return STOP_WORDS.contains(token);
+  }
+
+  /**
+   * Adds a movie, or replaces it if it was already indexed.
+   *
+   * @param id - movie id.
+   * @param fields - text of every indexed field, array elements as separate fields.
+   */
+  void put(ObjectId id, List<String> fields) {
+    Map<String, List<Integer>> positions = new LinkedHashMap<>();
+    int position = 0;
+    int length = 0;
+    for (String field : fields) {
+      for (String token : tokenize(field)) {
+        if (!isStopWord(token)) {
+          positions.computeIfAbsent(token, key -> new ArrayList<>()).add(position);
+          length++;
+        }
+        position++;
+      }
+      position += FIELD_GAP;
+    }
+
+    lock.writeLock().lock();
+    try {
+      removeLocked(id);
+      int doc = docCount++;
+      if (doc == movieIds.length) {
+        int capacity = doc * 2;
+        movieIds = Arrays.copyOf(movieIds, capacity);
+        docLengths = Arrays.copyOf(docLengths, capacity);
+        docTerms = Arrays.copyOf(docTerms, capacity);
+      }
+      int[] terms = new int[positions.size()];
+      int index = 0;
+      for (Map.Entry<String, List<Integer>> term : positions.entrySet()) {
+        int termId = termId(term.getKey());
+        append(termId, doc, term.getValue());
+        documentFrequencies[termId]++;
+        terms[index++] = termId;
+      }
+      movieIds[doc] = id;
+      docLengths[doc] = length;
+      docTerms[doc] = terms;
+      docs.put(id, doc);
+      liveLength += length;
+      totalPostings += terms.length;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Removes a movie.
+   *
+   * @param id - movie id.
+   * @return true if the movie was indexed.
+   */
+  boolean remove(ObjectId id) {
+    lock.writeLock().lock();
+    try {
+      return removeLocked(id);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private boolean removeLocked(ObjectId id) {
+    Integer doc = docs.remove(id);
+    if (doc == null) {
+      return false;
+    }
+    for (int termId : docTerms[doc]) {
+      documentFrequencies[termId]--;
+    }
+    deadPostings += docTerms[doc].length;
+    liveLength -= docLengths[doc];
+    docTerms[doc] = null;
+    movieIds[doc] = null;
+    if (deadPostings * 3 > totalPostings) {
+      compactLocked();
+    }
+    return true;
+  }
+
+  int size() {
+    lock.readLock().lock();
+    try {
+      return docs.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private int termId(String term) {
+    Integer termId = termIds.get(term);
+    if (termId != null) {
+      return termId;
+    }
+    int id = termIds.size();
+    termIds.put(term, id);
+    if (id == postings.length) {
+      int capacity = id * 2;
+      postings = Arrays.copyOf(postings, capacity);
+      postingLengths = Arrays.copyOf(postingLengths, capacity);
+      documentFrequencies = Arrays.copyOf(documentFrequencies, capacity);
+    }
+    postings[id] = new int[8];
+    return id;
+  }
+
+  private void append(int termId, int doc, List<Integer> positions) {
+    int length = postingLengths[termId];
+    int needed = length + 2 + positions.size();
+    if (needed > postings[termId].length) {
+      postings[termId] = Arrays.copyOf(postings[termId], Math.max(needed, length * 2));
+    }
+    int[] list = postings[termId];
+    list[length++] = doc;
+    list[length++] = positions.size();
+    for (int position : positions) {
+      list[length++] = position;
+    }
+    postingLengths[termId] = length;
+  }
+
+  /** Drops the postings of dead docs and renumbers the live ones. */
+  void compact() {
+    lock.writeLock().lock();
+    try {
+      compactLocked();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void compactLocked() {
+    int[] renumbered = new int[docCount];
+    int live = 0;
+    for (int doc = 0; doc < docCount; doc++) {
+      if (docTerms[doc] != null) {
+        renumbered[doc] = live;
+        movieIds[live] = movieIds[doc];
+        docLengths[live] = docLengths[doc];
+        docTerms[live] = docTerms[doc];
+        docs.put(movieIds[live], live);
+        live++;
+      } else {
+        renumbered[doc] = -1;
+      }
+    }
+    Arrays.fill(movieIds, live, docCount, null);
+    Arrays.fill(docTerms, live, docCount, null);
+    docCount = live;
+    for (int termId = 0; termId < termIds.size(); termId++) {
+      int[] list = postings[termId];
+      int read = 0;
+      int write = 0;
+      while (read < postingLengths[termId]) {
+        int doc = list[read];
+        int span = 2 + list[read + 1];
+        if (renumbered[doc] >= 0) {
+          System.arraycopy(list, read, list, write, span);
+          list[write] = renumbered[doc];
+          write += span;
+        }
+        read += span;
+      }
+      postingLengths[termId] = write;
+      postings[termId] = Arrays.copyOf(list, Math.max(write, 8));
+    }
+    totalPostings -= deadPostings;
+    deadPostings = 0;
+  }
+
+  /** Parsed `$search` string. */
+  static final class Query {
+
+    final Set<String> terms = new LinkedHashSet<>();
+
+    /** Words of every phrase, by relative position. Stop words are left out. */
+    final List<Map<Integer, String>> phrases = new ArrayList<>();
+
+    final Set<String> excluded = new LinkedHashSet<>();
+
+    static Query parse(String search) {
+      Query query = new Query();
+      Matcher matcher = QUERY_PART.matcher(search == null ? "" : search);
+      while (matcher.find()) {
+        if (matcher.group(1) != null) {
+          Map<Integer, String> phrase = new LinkedHashMap<>();
+          List<String> tokens = tokenize(matcher.group(1));
+          for (int position = 0; position < tokens.size(); position++) {
+            String token = tokens.get(position);
+            if (!isStopWord(token)) {
+              phrase.put(position, token);
+              query.terms.add(token);
+            }
+          }
+          if (!phrase.isEmpty()) {
+            query.phrases.add(phrase);
+          }
+        } else if (matcher.group(2).startsWith("-")) {
+          query.excluded.addAll(tokenize(matcher.group(2).substring(1)));
+        } else {
+          for (String token : tokenize(matcher.group(2))) {
+            if (!isStopWord(token)) {
+              query.terms.add(token);
+            }
+          }
+        }
+      }
+      return query;
+    }
+  }
+
+  /**
+   * Scores every movie matching the query and returns a page of the best ones.
+   *
+   * @param search - `$text` style search string.
+   * @param skip - number of best matches to be skipped.
+   * @param limit - max number of returned matches.
+   * @return SearchResult with the page of hits, best first, and the number of matching movies.
+   */
+  MovieTextIndex.SearchResult search(String search, int skip, int limit) {
+    Query query = Query.parse(search);
+    lock.readLock().lock();
+    try {
+      float[] scores = new float[docCount];
+      BitSet matches = new BitSet(docCount);
+      double averageLength = docs.isEmpty() ? 1 : (double) liveLength / docs.size();
+      for (String term : query.terms) {
+        score(term, averageLength, scores, matches);
+      }
+      for (Map<Integer, String> phrase : query.phrases) {
+        matches.and(phraseMatches(phrase));
+      }
+      for (String term : query.excluded) {
+        Integer termId = termIds.get(term);
+        if (termId != null) {
+          forEachLiveDoc(termId, (doc, offset) -> matches.clear(doc));
+        }
+      }
+      return topK(scores, matches, skip, limit);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Receives the doc and the offset of its posting in the term's list. */
+  private interface PostingVisitor {
+    void visit(int doc, int offset);
+  }
+
+  private void forEachLiveDoc(int termId, PostingVisitor visitor) {
+    int[] list = postings[termId];
+    int length = postingLengths[termId];
+    for (int offset = 0; offset < length; offset += 2 + list[offset + 1]) {
+      if (docTerms[list[offset]] != null) {
+        visitor.visit(list[offset], offset);
+      }
+    }
+  }
+
+  private void score(String term, double averageLength, float[] scores, BitSet matches) {
+    Integer termId = termIds.get(term);
+    if (termId == null || documentFrequencies[termId] == 0) {
+      return;
+    }
+    int documentFrequency = documentFrequencies[termId];
+    double idf =
+        Math.log(1 + (docs.size() - documentFrequency + 0.5) / (documentFrequency + 0.5));
+    int[] list = postings[termId];
+    forEachLiveDoc(
+        termId,
+        (doc, offset) -> {
+          int tf = list[offset + 1];
+          double norm = k1 * (1 - b + b * docLengths[doc] / averageLength);
+          scores[doc] += (float) (idf * tf * (k1 + 1) / (tf + norm));
+          matches.set(doc);
+        });
+  }
+
+  /** Docs holding every word of the phrase at the same relative positions. */
+  private BitSet phraseMatches(Map<Integer, String> phrase) {
+    Map<Integer, int[]> starts = null;
+    for (Map.Entry<Integer, String> word : phrase.entrySet()) {
+      Integer termId = termIds.get(word.getValue());
+      if (termId == null) {
+        return new BitSet();
+      }
+      int shift = word.getKey();
+      int[] list = postings[termId];
+      Map<Integer, int[]> next = new HashMap<>();
+      Map<Integer, int[]> previous = starts;
+      forEachLiveDoc(
+          termId,
+          (doc, offset) -> {
+            int from = offset + 2;
+            int to = from + list[offset + 1];
+            if (previous == null) {
+              // phrase starts, relative to the first word
+              int[] positions = Arrays.copyOfRange(list, from, to);
+              for (int i = 0; i < positions.length; i++) {
+                positions[i] -= shift;
+              }
+              next.put(doc, positions);
+              return;
+            }
+            int[] candidates = previous.get(doc);
+            if (candidates == null) {
+              return;
+            }
+            int[] kept = new int[candidates.length];
+            int count = 0;
+            for (int start : candidates) {
+              if (Arrays.binarySearch(list, from, to, start + shift) >= 0) {
+                kept[count++] = start;
+              }
+            }
+            if (count > 0) {
+              next.put(doc, Arrays.copyOf(kept, count));
+            }
+          });
+      starts = next;
+    }
+    BitSet docsWithPhrase = new BitSet(docCount);
+    if (starts != null) {
+      starts.keySet().forEach(docsWithPhrase::set);
+    }
+    return docsWithPhrase;
+  }
+
+  private MovieTextIndex.SearchResult topK(float[] scores, BitSet matches, int skip, int limit) {
+    int k = (int) Math.min((long) skip + limit, Integer.MAX_VALUE);
+    Comparator<Integer> ascending =
+        (left, right) -> {
+          int byScore = Float.compare(scores[left], scores[right]);
+          return byScore != 0 ? byScore : Integer.compare(right, left);
+        };
+    // min-heap of the best k so far, lowest score (then highest doc) on top
+    PriorityQueue<Integer> best = new PriorityQueue<>(Math.max(1, Math.min(k, 1024)), ascending);
+    int total = 0;
+    for (int doc = matches.nextSetBit(0); doc >= 0; doc = matches.nextSetBit(doc + 1)) {
+      total++;
+      if (k == 0) {
+        continue;
+      }
+      if (best.size() < k) {
+        best.add(doc);
+      } else if (ascending.compare(doc, best.peek()) > 0) {
+        best.poll();
+        best.add(doc);
+      }
+    }
+    List<Integer> ranked = new ArrayList<>(best);
+    ranked.sort(ascending.reversed());
+    List<MovieTextIndex.Hit> hits = new ArrayList<>();
+    for (int i = skip; i < ranked.size(); i++) {
+      int doc = ranked.get(i);
+      hits.add(new MovieTextIndex.Hit(movieIds[doc], scores[doc]));
+    }
+    return new MovieTextIndex.SearchResult(hits, total);
+  }
+}
@@ -0,0 +1,100 @@
+package mflix.api.daos;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import mflix.api.models.Session;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.codecs.pojo.PojoCodecProvider;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.mongodb.client.model.Filters.eq;
+import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
+import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
+
+/** {@link SessionStore} reading and writing the `sessions` collection on every call. */
+public class MongoSessionStore implements SessionStore {
+
+  public static final String SESSIONS_COLLECTION = "sessions";
+
+  private static final Logger log = LoggerFactory.getLogger(MongoSessionStore.class);
+
+  private final MongoCollection<Session> sessionsCollection;
+
+  public MongoSessionStore(MongoDatabase db) {
+    CodecRegistry pojoCodecRegistry =
+        fromRegistries(
+            MongoClientSettings.getDefaultCodecRegistry(),
+            fromProviders(PojoCodecProvider.builder().automatic(true).build()));
+    sessionsCollection =
+        db.getCollection(SESSIONS_COLLECTION, Session.class).withCodecRegistry(pojoCodecRegistry);
+  }
+
+  @Override
+  public boolean put(String userId, String jwt) {
+    try {
+      sessionsCollection.updateOne(
+          eq("user_id", userId), upsertUpdate(userId, jwt), new UpdateOptions().upsert(true));
+    } catch (MongoWriteException ex) {
+      log.error("Cannot create session of user `{}`: {}", userId, ex.getMessage());
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public Session get(String userId) {
+    return sessionsCollection.find(eq("user_id", userId)).first();
+  }
+
+  @Override
+  public boolean remove(String userId) {
+    return sessionsCollection.deleteMany(eq("user_id", userId)).wasAcknowledged();
+  }
+
+  /**
+   * Reads every stored session.
+   *
+   * @return list of Session objects.
+   */
+  public List<Session> findAll() {
+    return sessionsCollection.find().into(new ArrayList<>());
+  }
+
+  /**
+   * Applies a batch of session writes in one unordered `bulkWrite`. The writes must concern
+   * distinct users.
+   *
+   * @param writes - models built by {@link #upsertModel} and {@link #removeModel}.
+   */
+  public void bulkWrite(List<WriteModel<Session>> writes) {
+    if (!writes.isEmpty()) {
+      sessionsCollection.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+    }
+  }
+
+  public static WriteModel<Session> upsertModel(String userId, String jwt) {
+    return new UpdateOneModel<>(
+        eq("user_id", userId), upsertUpdate(userId, jwt), new UpdateOptions().upsert(true));
+  }
+
+  public static WriteModel<Session> removeModel(String userId) {
+    return new DeleteManyModel<>(eq("user_id", userId));
+  }
+
+  private static Bson upsertUpdate(String userId, String jwt) {
+    return Updates.combine(Updates.set("jwt", jwt), Updates.setOnInsert("user_id", userId));
+  }
+}
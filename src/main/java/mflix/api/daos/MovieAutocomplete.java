@@ -0,0 +1,300 @@
+package mflix.api.daos;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.model.Projections;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Typeahead suggestions for the search box: movie titles and cast members with a word starting
+ * with what was typed so far, served from two {@link PrefixIndex}es so keystrokes never reach the
+ * cluster. Titles are ranked by the `tomatoes.viewer.numReviews` of their movie, and cast members
+ * by the sum of it over their movies. Enabled with `api.movies.autocomplete.enabled`.
+ *
+ * <p>The title, cast and review count of every movie are loaded at startup and kept current by
+ * the `movies` change stream (see `api.change_streams.enabled`). Events are applied on the index
+ * thread, and the immutable indexes are rebuilt from them at most once per `rebuild_delay_ms`.
+ * Lookups are timed under `mflix.movies.autocomplete`.
+ *
+ * <p>With `api.movies.autocomplete.fuzzy.enabled`, titles and cast members are also held in
+ * {@link TrigramIndex}es: misspelled cast filters are resolved to the closest cast member before
+ * they reach the `$in` query, and suggestions are completed with titles and cast members within a
+ * few edits of the typed text. Up to `fuzzy.max_edits` edits are allowed, one per four characters.
+ */
+@Component
+public class MovieAutocomplete extends MovieChangeIndex {
+
+  /** What both indexes are built from, only touched on the index thread. */
+  private static class Entry {
+
+    final String title;
+
+    final Integer year;
+
+    final List<String> cast;
+
+    final long numReviews;
+
+    Entry(String title, Integer year, List<String> cast, long numReviews) {
+      this.title = title;
+      this.year = year;
+      this.cast = cast;
+      this.numReviews = numReviews;
+    }
+  }
+
+  /** What lookups read. */
+  private static class Snapshot {
+
+    final PrefixIndex<Document> titles;
+
+    final PrefixIndex<String> cast;
+
+    /** Null unless fuzzy matching is enabled. */
+    final TrigramIndex<Document> titleSpellings;
+
+    final TrigramIndex<String> castSpellings;
+
+    Snapshot(
+        PrefixIndex<Document> titles,
+        PrefixIndex<String> cast,
+        TrigramIndex<Document> titleSpellings,
+        TrigramIndex<String> castSpellings) {
+      this.titles = titles;
+      this.cast = cast;
+      this.titleSpellings = titleSpellings;
+      this.castSpellings = castSpellings;
+    }
+  }
+
+  private static final List<String> KEYS =
+      Arrays.asList("title", "year", "cast", MovieDao.KEYSET_SORT_KEY);
+
+  private static final Logger log = LoggerFactory.getLogger(MovieAutocomplete.class);
+
+  @Value("${api.movies.autocomplete.enabled:false}")
+  private boolean enabled;
+
+  @Value("${api.movies.autocomplete.rebuild_delay_ms:1000}")
+  private long rebuildDelayMs = 1000;
+
+  @Value("${api.movies.autocomplete.fuzzy.enabled:false}")
+  private boolean fuzzy;
+
+  @Value("${api.movies.autocomplete.fuzzy.max_edits:2}")
+  private int maxEdits = 2;
+
+  private final Timer lookupTimer;
+
+  private final Timer resolveTimer;
+
+  private final Map<ObjectId, Entry> entries = new HashMap<>();
+
+  private volatile Snapshot snapshot;
+
+  @Autowired
+  public MovieAutocomplete(
+      MongoClient mongoClient,
+      @Value("${spring.mongodb.database}") String databaseName,
+      MeterRegistry meterRegistry) {
+    super(mongoClient, databaseName, "movie-autocomplete", KEYS);
+    this.lookupTimer = Timer.builder("mflix.movies.autocomplete").register(meterRegistry);
+    this.resolveTimer =
+        Timer.builder("mflix.movies.autocomplete.resolve").register(meterRegistry);
+  }
+
+  @PostConstruct
+  public void start() {
+    if (enabled) {
+      startIndexThread();
+    }
+  }
+
+  @Override
+  protected boolean isEnabled() {
+    return enabled;
+  }
+
+  /** Whether the indexes were built and can answer lookups. */
+  public boolean isLoaded() {
+    return snapshot != null;
+  }
+
+  /** Whether misspelled cast members can be resolved. */
+  public boolean isFuzzy() {
+    Snapshot current = snapshot;
+    return current != null && current.castSpellings != null;
+  }
+
+  /**
+   * Suggests titles and cast members for a prefix.
+   *
+   * @param prefix - text typed so far.
+   * @param limit - max number of titles, and of cast members.
+   * @return Map with the `{_id, title, year}` of movies under `titles` and names under `cast`.
+   */
+  public Map<String, Object> suggest(String prefix, int limit) {
+    Snapshot current = snapshot;
+    if (current == null) {
+      throw new IllegalStateException("movie autocomplete is not loaded");
+    }
+    return lookupTimer.record(
+        () -> {
+          Map<String, Object> suggestions = new LinkedHashMap<>();
+          List<Document> titles = current.titles.top(prefix, limit);
+          List<String> cast = current.cast.top(prefix, limit);
+          if (current.castSpellings != null) {
+            addMisspelled(titles, current.titleSpellings, prefix, limit);
+            addMisspelled(cast, current.castSpellings, prefix, limit);
+          }
+          suggestions.put("titles", titles);
+          suggestions.put("cast", cast);
+          return suggestions;
+        });
+  }
+
+  private <T> void addMisspelled(
+      List<T> found, TrigramIndex<T> spellings, String text, int limit) {
+    if (found.size() < limit) {
+      for (TrigramIndex.Match<T> match : spellings.match(text, edits(text), limit)) {
+        if (found.size() < limit && !found.contains(match.getValue())) {
+          found.add(match.getValue());
+        }
+      }
+    }
+  }
+
+  /**
+   * Resolves a cast member as typed to the cast member of the catalog it most likely means: the
+   * one with the same name up to case and accents, or else the most reviewed one among the closest
+   * within the allowed edits.
+   *
+   * @param name - cast member as typed.
+   * @return the cast member of the catalog, or `name` if none is close enough.
+   */
+  public String resolveCast(String name) {
+    Snapshot current = snapshot;
+    if (current == null || current.castSpellings == null) {
+      return name;
+    }
+    return resolveTimer.record(
+        () -> {
+          List<TrigramIndex.Match<String>> matches =
+              current.castSpellings.match(name, edits(name), 1);
+          return matches.isEmpty() ? name : matches.get(0).getValue();
+        });
+  }
+
+  /** Edits allowed for a text: one per four characters, up to `max_edits`. */
+  private int edits(String text) {
+    return Math.min(maxEdits, PrefixIndex.normalize(text).trim().length() / 4);
+  }
+
+  @Override
+  protected void reload() {
+    try {
+      List<Document> movies = new ArrayList<>();
+      db.getCollection(MovieDao.MOVIES_COLLECTION)
+          .find()
+          .projection(Projections.include(KEYS))
+          .into(movies);
+      entries.clear();
+      movies.forEach(this::put);
+      rebuild();
+    } catch (MongoException ex) {
+      log.warn("Could not load movie autocomplete: {}", ex.getMessage());
+    }
+  }
+
+  /** Adds or replaces the entry of a movie. Package-private for tests. */
+  void put(Document movie) {
+    List<String> cast = new ArrayList<>();
+    if (movie.get("cast") instanceof List) {
+      for (Object name : (List<?>) movie.get("cast")) {
+        if (name instanceof String) {
+          cast.add((String) name);
+        }
+      }
+    }
+    Object title = movie.get("title");
+    Object year = movie.get("year");
+    Long numReviews = PageToken.after(movie, MovieDao.KEYSET_SORT_KEY).getSortValue();
+    entries.put(
+        movie.getObjectId("_id"),
+        new Entry(
+            title instanceof String ? (String) title : null,
+            year instanceof Number ? ((Number) year).intValue() : null,
+            cast,
+            numReviews == null ? 0 : numReviews));
+  }
+
+  /** Removes the entry of a movie. Package-private for tests. */
+  void remove(ObjectId id) {
+    entries.remove(id);
+  }
+
+  @Override
+  protected void apply(ObjectId id, Document movie) {
+    if (movie != null) {
+      put(movie);
+    } else {
+      remove(id);
+    }
+    scheduleRebuild(rebuildDelayMs);
+  }
+
+  /** Builds both indexes from the entries. Package-private for tests. */
+  @Override
+  void rebuild() {
+    PrefixIndex.Builder<Document> titles = new PrefixIndex.Builder<>();
+    Map<String, Long> castReviews = new HashMap<>();
+    entries.forEach(
+        (id, entry) -> {
+          if (entry.title != null) {
+            titles.add(entry.title, entry.numReviews, suggestion(id, entry));
+          }
+          for (String name : entry.cast) {
+            castReviews.merge(name, entry.numReviews, Long::sum);
+          }
+        });
+    PrefixIndex.Builder<String> cast = new PrefixIndex.Builder<>();
+    castReviews.forEach((name, numReviews) -> cast.add(name, numReviews, name));
+    if (!fuzzy) {
+      snapshot = new Snapshot(titles.build(), cast.build(), null, null);
+      return;
+    }
+    TrigramIndex.Builder<Document> titleSpellings = new TrigramIndex.Builder<>();
+    entries.forEach(
+        (id, entry) -> {
+          if (entry.title != null) {
+            titleSpellings.add(entry.title, entry.numReviews, suggestion(id, entry));
+          }
+        });
+    TrigramIndex.Builder<String> castSpellings = new TrigramIndex.Builder<>();
+    castReviews.forEach((name, numReviews) -> castSpellings.add(name, numReviews, name));
+    snapshot =
+        new Snapshot(titles.build(), cast.build(), titleSpellings.build(), castSpellings.build());
+  }
+
+  private static Document suggestion(ObjectId id, Entry entry) {
+    return new Document("_id", id.toHexString())
+        .append("title", entry.title)
+        .append("year", entry.year);
+  }
+}
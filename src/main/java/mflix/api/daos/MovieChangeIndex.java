@@ -0,0 +1,159 @@
+package mflix.api.daos;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import com.mongodb.client.model.changestream.UpdateDescription;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base of the in-memory indexes over the `movies` collection that the change stream keeps current:
+ * {@link MovieFilterIndex}, {@link MovieTextIndex} and {@link MovieAutocomplete}. Loads, events and
+ * rebuilds of an index all run on its own daemon thread, so its mutable state needs no locking.
+ *
+ * <p>Inserts, replaces, deletes and the updates that touch one of the indexed keys are applied
+ * movie by movie. Any other event, like `drop`, `rename` or `invalidate`, and a reset of the stream
+ * reload the whole index, since changes may have been missed.
+ */
+abstract class MovieChangeIndex extends AbstractMFlixDao implements ChangeStreamListener {
+
+  private final String threadName;
+
+  private final List<String> indexedKeys;
+
+  private ScheduledExecutorService scheduler;
+
+  /** Only touched on the index thread. */
+  private boolean rebuildScheduled;
+
+  /**
+   * @param threadName - name of the index thread.
+   * @param indexedKeys - dotted paths of the indexed fields, whose updates are applied.
+   */
+  protected MovieChangeIndex(
+      MongoClient mongoClient, String databaseName, String threadName, List<String> indexedKeys) {
+    super(mongoClient, databaseName);
+    this.threadName = threadName;
+    this.indexedKeys = indexedKeys;
+  }
+
+  /** Whether the index is maintained at all. Events are ignored otherwise. */
+  protected abstract boolean isEnabled();
+
+  /** Reads every movie again. Runs on the index thread. */
+  protected abstract void reload();
+
+  /**
+   * Applies the change of one movie. Runs on the index thread.
+   *
+   * @param id - `_id` of the changed movie, or null if it is not an ObjectId.
+   * @param movie - new version of the movie, or null if it was deleted.
+   */
+  protected abstract void apply(ObjectId id, Document movie);
+
+  /** Builds what lookups read from the applied changes. Runs on the index thread. */
+  void rebuild() {}
+
+  /**
+   * Starts the index thread with a first load. Called from the `@PostConstruct` of enabled indexes.
+   *
+   * @return the index thread, to schedule more work on.
+   */
+  protected ScheduledExecutorService startIndexThread() {
+    scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, threadName);
+              thread.setDaemon(true);
+              return thread;
+            });
+    scheduler.execute(this::reload);
+    return scheduler;
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+
+  /** Calls {@link #rebuild()} after `delayMs`, unless a call is pending already. */
+  protected void scheduleRebuild(long delayMs) {
+    if (!rebuildScheduled) {
+      rebuildScheduled = true;
+      scheduler.schedule(
+          () -> {
+            rebuildScheduled = false;
+            rebuild();
+          },
+          delayMs,
+          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Override
+  public void onChange(String collection, ChangeStreamDocument<Document> event) {
+    if (!isEnabled() || !MovieDao.MOVIES_COLLECTION.equals(collection) || !affectsIndex(event)) {
+      return;
+    }
+    OperationType operation = event.getOperationType();
+    if (operation != OperationType.INSERT
+        && operation != OperationType.UPDATE
+        && operation != OperationType.REPLACE
+        && operation != OperationType.DELETE) {
+      scheduler.execute(this::reload);
+      return;
+    }
+    ObjectId id = objectId(event.getDocumentKey());
+    Document movie = operation == OperationType.DELETE ? null : event.getFullDocument();
+    if (movie == null && id == null) {
+      return;
+    }
+    scheduler.execute(() -> apply(id, movie));
+  }
+
+  @Override
+  public void onReset(String collection) {
+    if (isEnabled() && MovieDao.MOVIES_COLLECTION.equals(collection)) {
+      scheduler.execute(this::reload);
+    }
+  }
+
+  /** Whether an event may change the indexed fields. Comment maintenance updates do not. */
+  private boolean affectsIndex(ChangeStreamDocument<Document> event) {
+    UpdateDescription update = event.getUpdateDescription();
+    if (event.getOperationType() != OperationType.UPDATE || update == null) {
+      return true;
+    }
+    List<String> paths = new ArrayList<>(update.getUpdatedFields().keySet());
+    if (update.getRemovedFields() != null) {
+      paths.addAll(update.getRemovedFields());
+    }
+    for (String path : paths) {
+      for (String key : indexedKeys) {
+        // the key itself, one of its parents like `tomatoes.viewer`, or one of its elements
+        if ((key + ".").startsWith(path + ".") || path.startsWith(key + ".")) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static ObjectId objectId(BsonDocument documentKey) {
+    if (documentKey == null || !documentKey.isObjectId("_id")) {
+      return null;
+    }
+    return documentKey.getObjectId("_id").getValue();
+  }
+}
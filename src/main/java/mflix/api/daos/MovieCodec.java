@@ -0,0 +1,400 @@
+package mflix.api.daos;
+
+import mflix.api.models.Comment;
+import mflix.api.models.IMDB;
+import mflix.api.models.Movie;
+import mflix.api.models.RottenTomatoes;
+import mflix.api.models.ViewerRating;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Decodes `movies` documents straight from the {@link BsonReader} into {@link Movie} objects,
+ * without building an intermediate {@link org.bson.Document}. It accepts the same legacy shapes as
+ * {@link MovieDocumentMapper}: numbers stored as strings (empty meaning 0), `lastupdated` stored as
+ * a `yyyy-MM-dd HH:mm:ss...` string or as a date, and numeric titles. Embedded `comments`, as
+ * produced by the movie detail `$lookup` or maintained under `recent_comments`, are decoded as
+ * well.
+ */
+public class MovieCodec implements Codec<Movie> {
+
+  @Override
+  public Movie decode(BsonReader reader, DecoderContext decoderContext) {
+    Movie movie = new Movie();
+    reader.readStartDocument();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      switch (reader.readName()) {
+        case "_id":
+          movie.setId(readId(reader));
+          break;
+        case "title":
+          movie.setTitle(readString(reader));
+          break;
+        case "year":
+          movie.setYear(readInt(reader));
+          break;
+        case "cast":
+          movie.setCast(readStrings(reader));
+          break;
+        case "plot":
+          movie.setPlog(readString(reader));
+          break;
+        case "fullplot":
+          movie.setFullPlot(readString(reader));
+          break;
+        case "lastupdated":
+          movie.setLastUpdated(readDate(reader));
+          break;
+        case "type":
+          movie.setType(readString(reader));
+          break;
+        case "directors":
+          movie.setDirectors(readStrings(reader));
+          break;
+        case "writers":
+          movie.setWriters(readStrings(reader));
+          break;
+        case "imdb":
+          movie.setImdb(readImdb(reader));
+          break;
+        case "countries":
+          movie.setCountries(readStrings(reader));
+          break;
+        case "genres":
+          movie.setGenres(readStrings(reader));
+          break;
+        case "tomatoes":
+          movie.setTomatoes(readTomatoes(reader));
+          break;
+        case "poster":
+          movie.setPoster(readString(reader));
+          break;
+        case "comments":
+        case "recent_comments":
+          movie.setComments(readComments(reader));
+          break;
+        case "num_comments":
+          movie.setNumComments(readInt(reader));
+          break;
+        default:
+          reader.skipValue();
+      }
+    }
+    reader.readEndDocument();
+    return movie;
+  }
+
+  @Override
+  public void encode(BsonWriter writer, Movie movie, EncoderContext encoderContext) {
+    writer.writeStartDocument();
+    if (movie.getId() != null) {
+      writer.writeObjectId("_id", new ObjectId(movie.getId()));
+    }
+    writeString(writer, "title", movie.getTitle());
+    writer.writeInt32("year", movie.getYear());
+    writeStrings(writer, "cast", movie.getCast());
+    writeString(writer, "plot", movie.getPlog());
+    writeString(writer, "fullplot", movie.getFullPlot());
+    writeDate(writer, "lastupdated", movie.getLastUpdated());
+    writeString(writer, "type", movie.getType());
+    writeStrings(writer, "directors", movie.getDirectors());
+    writeStrings(writer, "writers", movie.getWriters());
+    if (movie.getImdb() != null) {
+      writer.writeStartDocument("imdb");
+      writer.writeInt32("id", movie.getImdb().getId());
+      writer.writeDouble("rating", movie.getImdb().getRating());
+      writer.writeInt32("votes", movie.getImdb().getVotes());
+      writer.writeEndDocument();
+    }
+    writeStrings(writer, "countries", movie.getCountries());
+    writeStrings(writer, "genres", movie.getGenres());
+    if (movie.getTomatoes() != null) {
+      writer.writeStartDocument("tomatoes");
+      writeDate(writer, "lastUpdated", movie.getTomatoes().getLastUpdated());
+      ViewerRating viewer = movie.getTomatoes().getViewer();
+      if (viewer != null) {
+        writer.writeStartDocument("viewer");
+        writer.writeDouble("rating", viewer.getRating());
+        writer.writeInt32("numReviews", viewer.getNumReviews());
+        writer.writeEndDocument();
+      }
+      writer.writeEndDocument();
+    }
+    writeString(writer, "poster", movie.getPoster());
+    // comments are stored in their own collection, they are never written back with the movie
+    writer.writeEndDocument();
+  }
+
+  @Override
+  public Class<Movie> getEncoderClass() {
+    return Movie.class;
+  }
+
+  private static IMDB readImdb(BsonReader reader) {
+    if (!isDocument(reader)) {
+      return null;
+    }
+    IMDB imdb = new IMDB();
+    reader.readStartDocument();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      switch (reader.readName()) {
+        case "id":
+          imdb.setId(readInt(reader));
+          break;
+        case "rating":
+          imdb.setRating(readDouble(reader));
+          break;
+        case "votes":
+          imdb.setVotes(readInt(reader));
+          break;
+        default:
+          reader.skipValue();
+      }
+    }
+    reader.readEndDocument();
+    return imdb;
+  }
+
+  private static RottenTomatoes readTomatoes(BsonReader reader) {
+    if (!isDocument(reader)) {
+      return null;
+    }
+    RottenTomatoes tomatoes = new RottenTomatoes();
+    reader.readStartDocument();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      switch (reader.readName()) {
+        case "lastUpdated":
+        case "lastupdated":
+          tomatoes.setLastUpdated(readDate(reader));
+          break;
+        case "viewer":
+          tomatoes.setViewer(readViewer(reader));
+          break;
+        default:
+          reader.skipValue();
+      }
+    }
+    reader.readEndDocument();
+    return tomatoes;
+  }
+
+  private static ViewerRating readViewer(BsonReader reader) {
+    if (!isDocument(reader)) {
+      return null;
+    }
+    ViewerRating viewer = new ViewerRating();
+    reader.readStartDocument();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      switch (reader.readName()) {
+        case "numReviews":
+          viewer.setNumReviews(readInt(reader));
+          break;
+        case "rating":
+          viewer.setRating(readDouble(reader));
+          break;
+        default:
+          reader.skipValue();
+      }
+    }
+    reader.readEndDocument();
+    return viewer;
+  }
+
+  private static List<Comment> readComments(BsonReader reader) {
+    if (reader.getCurrentBsonType() != BsonType.ARRAY) {
+      reader.skipValue();
+      return null;
+    }
+    List<Comment> comments = new ArrayList<>();
+    reader.readStartArray();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      if (isDocument(reader)) {
+        comments.add(readComment(reader));
+      }
+    }
+    reader.readEndArray();
+    return comments;
+  }
+
+  private static Comment readComment(BsonReader reader) {
+    Comment comment = new Comment();
+    reader.readStartDocument();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      String name = reader.readName();
+      BsonType type = reader.getCurrentBsonType();
+      if ("_id".equals(name) && type == BsonType.OBJECT_ID) {
+        comment.setOid(reader.readObjectId());
+      } else if ("movie_id".equals(name) && type == BsonType.OBJECT_ID) {
+        comment.setMovieObjectId(reader.readObjectId());
+      } else if ("text".equals(name)) {
+        comment.setText(readString(reader));
+      } else if ("email".equals(name)) {
+        comment.setEmail(readString(reader));
+      } else if ("name".equals(name)) {
+        comment.setName(readString(reader));
+      } else if ("date".equals(name)) {
+        comment.setDate(readDate(reader));
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.readEndDocument();
+    return comment;
+  }
+
+  /** Reads a sub-document value header, skipping the value if it is anything else. */
+  private static boolean isDocument(BsonReader reader) {
+    if (reader.getCurrentBsonType() == BsonType.DOCUMENT) {
+      return true;
+    }
+    reader.skipValue();
+    return false;
+  }
+
+  private static String readId(BsonReader reader) {
+    if (reader.getCurrentBsonType() == BsonType.OBJECT_ID) {
+      return reader.readObjectId().toHexString();
+    }
+    return readString(reader);
+  }
+
+  private static String readString(BsonReader reader) {
+    switch (reader.getCurrentBsonType()) {
+      case STRING:
+        return reader.readString();
+      case INT32:
+        return Integer.toString(reader.readInt32());
+      case INT64:
+        return Long.toString(reader.readInt64());
+      case DOUBLE:
+        return Double.toString(reader.readDouble());
+      default:
+        reader.skipValue();
+        return null;
+    }
+  }
+
+  private static List<String> readStrings(BsonReader reader) {
+    BsonType type = reader.getCurrentBsonType();
+    if (type == BsonType.STRING) {
+      return Collections.singletonList(reader.readString());
+    }
+    if (type != BsonType.ARRAY) {
+      reader.skipValue();
+      return null;
+    }
+    List<String> values = new ArrayList<>();
+    reader.readStartArray();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      String value = readString(reader);
+      if (value != null) {
+        values.add(value);
+      }
+    }
+    reader.readEndArray();
+    return values;
+  }
+
+  private static int readInt(BsonReader reader) {
+    switch (reader.getCurrentBsonType()) {
+      case INT32:
+        return reader.readInt32();
+      case INT64:
+        return (int) reader.readInt64();
+      case DOUBLE:
+        return (int) reader.readDouble();
+      case STRING:
+        return parseLeadingInt(reader.readString());
+      default:
+        reader.skipValue();
+        return 0;
+    }
+  }
+
+  private static double readDouble(BsonReader reader) {
+    switch (reader.getCurrentBsonType()) {
+      case DOUBLE:
+        return reader.readDouble();
+      case INT32:
+        return reader.readInt32();
+      case INT64:
+        return reader.readInt64();
+      case STRING:
+        String value = reader.readString().trim();
+        try {
+          return value.isEmpty() ? 0 : Double.parseDouble(value);
+        } catch (NumberFormatException ex) {
+          return 0;
+        }
+      default:
+        reader.skipValue();
+        return 0;
+    }
+  }
+
+  private static Date readDate(BsonReader reader) {
+    switch (reader.getCurrentBsonType()) {
+      case DATE_TIME:
+        return new Date(reader.readDateTime());
+      case STRING:
+        return MovieDocumentMapper.parseDate(reader.readString());
+      default:
+        reader.skipValue();
+        return null;
+    }
+  }
+
+  /** Reads the leading digits of legacy values such as `""` or `"2011è"`. */
+  private static int parseLeadingInt(String value) {
+    int result = 0;
+    int i = 0;
+    boolean negative = value.startsWith("-");
+    if (negative) {
+      i++;
+    }
+    for (; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == ',') {
+        continue;
+      }
+      if (c < '0' || c > '9') {
+        break;
+      }
+      result = result * 10 + (c - '0');
+    }
+    return negative ? -result : result;
+  }
+
+  private static void writeString(BsonWriter writer, String name, String value) {
+    if (value != null) {
+      writer.writeString(name, value);
+    }
+  }
+
+  private static void writeDate(BsonWriter writer, String name, Date value) {
+    if (value != null) {
+      writer.writeDateTime(name, value.getTime());
+    }
+  }
+
+  private static void writeStrings(BsonWriter writer, String name, List<String> values) {
+    if (values == null) {
+      return;
+    }
+    writer.writeStartArray(name);
+    for (String value : values) {
+      writer.writeString(value);
+    }
+    writer.writeEndArray();
+  }
+}
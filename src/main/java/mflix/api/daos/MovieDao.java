@@ -2,22 +2,31 @@ package mflix.api.daos;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoException;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.model.Aggregates;
 import com.mongodb.client.model.BsonField;
 import com.mongodb.client.model.BucketOptions;
 import com.mongodb.client.model.Facet;
 import com.mongodb.client.model.Field;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Indexes;
 import com.mongodb.client.model.Sorts;
 import com.mongodb.client.model.Variable;
+import mflix.api.models.Movie;
 import org.bson.BsonArray;
 import org.bson.BsonValue;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
 import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 import org.slf4j.Logger;
@@ -27,25 +36,79 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+
 import static com.mongodb.client.model.Filters.eq;
 import static com.mongodb.client.model.Filters.in;
 import static com.mongodb.client.model.Filters.text;
 import static com.mongodb.client.model.Projections.include;
 import static com.mongodb.client.model.Projections.metaTextScore;
+import static org.bson.codecs.configuration.CodecRegistries.fromCodecs;
+import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
 
 @Component
 public class MovieDao extends AbstractMFlixDao {
 
     public static String MOVIES_COLLECTION = "movies";
 
+    /**
+     * Sort key of the keyset paginated listings. Ties are broken by `_id`, both descending.
+     */
+    public static final String KEYSET_SORT_KEY = "tomatoes.viewer.numReviews";
+
     private MongoCollection<Document> moviesCollection;
+    private MongoCollection<Movie> movieObjectsCollection;
     private static Logger log = LoggerFactory.getLogger(MovieDao.class.getName());
 
+    @Value("${api.movies.keyset.ensure_indexes:false}")
+    private boolean ensureKeysetIndexes;
+
+    @Value("${api.movies.detail.comments_limit:10}")
+    private int commentsLimit = 10;
+
+    @Value("${api.movies.recent_comments.enabled:false}")
+    private boolean embeddedComments;
+
+    /**
+     * Once loaded, answers the cast, genre and country filters and counts sorted by
+     * {@link #KEYSET_SORT_KEY} from memory.
+     */
+    @Autowired(required = false)
+    private MovieFilterIndex filterIndex;
+
     @Autowired
     public MovieDao(
             MongoClient mongoClient, @Value("${spring.mongodb.database}") String databaseName) {
         super(mongoClient, databaseName);
         moviesCollection = db.getCollection(MOVIES_COLLECTION);
+        movieObjectsCollection =
+                moviesCollection
+                        .withDocumentClass(Movie.class)
+                        .withCodecRegistry(
+                                fromRegistries(
+                                        fromCodecs(new MovieCodec()),
+                                        MongoClientSettings.getDefaultCodecRegistry()));
+    }
+
+    /**
+     * Creates the compound indexes backing the keyset paginated queries, if enabled. Index creation
+     * is idempotent, and a failure (e.g. missing privileges) only costs us the index.
+     */
+    @PostConstruct
+    public void createKeysetIndexes() {
+        if (!ensureKeysetIndexes) {
+            return;
+        }
+        Bson sortKeys = Indexes.descending(KEYSET_SORT_KEY, "_id");
+        try {
+            moviesCollection.createIndex(sortKeys);
+            for (String filterKey : new String[]{"cast", "genres"}) {
+                moviesCollection.createIndex(
+                        Indexes.compoundIndex(Indexes.ascending(filterKey), sortKeys));
+            }
+        } catch (MongoException ex) {
+            log.warn("Could not create keyset pagination indexes: {}", ex.getMessage());
+        }
     }
 
     @SuppressWarnings("unchecked")
@@ -74,7 +137,9 @@ public class MovieDao extends AbstractMFlixDao {
     }
 
     /**
-     * Gets a movie object from the database.
+     * Gets a movie object from the database, with its newest comments and comment count. With
+     * `api.movies.recent_comments.enabled`, backfilled movies are served by a single point read of
+     * the fields maintained by {@link RecentCommentsSubset}, the others by the movie detail pipeline.
      *
      * @param movieId - Movie identifier string.
      * @return Document object or null.
@@ -84,6 +149,86 @@ public class MovieDao extends AbstractMFlixDao {
         if (!validIdValue(movieId)) {
             return null;
         }
+        if (embeddedComments) {
+            Document movie = moviesCollection.find(eq("_id", new ObjectId(movieId))).first();
+            if (movie == null || movie.containsKey(RecentCommentsSubset.NUM_COMMENTS)) {
+                return withEmbeddedComments(movie);
+            }
+            // not backfilled yet
+        }
+        Document movie =
+                moviesCollection.aggregate(movieDetailPipeline(movieId, commentsLimit)).first();
+
+        return movie;
+    }
+
+    /**
+     * Gets a movie object from the database, decoded by {@link MovieCodec} straight into a
+     * {@link mflix.api.models.Movie} instead of going through a Document.
+     *
+     * @param movieId - Movie identifier string.
+     * @return Movie object or null.
+     */
+    public Movie getMovieObject(String movieId) {
+        if (!validIdValue(movieId)) {
+            return null;
+        }
+        if (embeddedComments) {
+            Movie movie = movieObjectsCollection.find(eq("_id", new ObjectId(movieId))).first();
+            if (movie == null || movie.getNumComments() != null) {
+                if (movie != null && movie.getComments() != null) {
+                    movie.setComments(limitComments(movie.getComments()));
+                }
+                return movie;
+            }
+        }
+        return movieObjectsCollection
+                .aggregate(movieDetailPipeline(movieId, commentsLimit))
+                .first();
+    }
+
+    /**
+     * Serves a movie document maintained by {@link RecentCommentsSubset} in the shape of the movie
+     * detail pipeline: its `recent_comments` become `comments`.
+     */
+    @SuppressWarnings("unchecked")
+    private Document withEmbeddedComments(Document movie) {
+        if (movie == null) {
+            return null;
+        }
+        Object recentComments = movie.remove(RecentCommentsSubset.RECENT_COMMENTS);
+        List<Document> comments =
+                recentComments instanceof List ? (List<Document>) recentComments : new ArrayList<>();
+        movie.put("comments", limitComments(comments));
+        return movie;
+    }
+
+    private <T> List<T> limitComments(List<T> comments) {
+        if (commentsLimit > 0 && comments.size() > commentsLimit) {
+            return new ArrayList<>(comments.subList(0, commentsLimit));
+        }
+        return comments;
+    }
+
+    /**
+     * Max number of comments embedded in a movie by {@link #getMovie(String)}, 0 for all of them.
+     * The remaining ones are served by {@link CommentDao#getMovieComments}.
+     */
+    public int getCommentsLimit() {
+        return commentsLimit;
+    }
+
+    /**
+     * Builds the movie detail pipeline: the movie matching `movieId` with its newest
+     * `commentsLimit` comments, newest first, embedded under `comments`, and the total number of
+     * comments of the movie under `num_comments`. Both lookups are served by the
+     * {@link CommentDao#MOVIE_DATE_INDEX} index.
+     *
+     * @param movieId - valid Movie identifier string.
+     * @param commentsLimit - max number of embedded comments, 0 for all of them.
+     * @return aggregation pipeline.
+     */
+    static List<Bson> movieDetailPipeline(String movieId, int commentsLimit) {
         // match stage to find movie
         Bson match = Aggregates.match(eq("_id", new ObjectId(movieId)));
 
@@ -97,6 +242,9 @@ public class MovieDao extends AbstractMFlixDao {
         List<Bson> lookUpPipeline = new ArrayList<>();
         lookUpPipeline.add(matchLetId);
         lookUpPipeline.add(sort);
+        if (commentsLimit > 0) {
+            lookUpPipeline.add(Aggregates.limit(commentsLimit));
+        }
 
         Bson lookup = Aggregates.lookup("comments", let, lookUpPipeline, "comments");
         //lookup example
@@ -130,14 +278,33 @@ public class MovieDao extends AbstractMFlixDao {
         aggregatePipeline.add(match);
         aggregatePipeline.add(lookup);
 
-        Document movie = moviesCollection.aggregate(aggregatePipeline).first();
+        Object numComments;
+        if (commentsLimit > 0) {
+            List<Bson> countPipeline = new ArrayList<>();
+            countPipeline.add(matchLetId);
+            countPipeline.add(Aggregates.count("count"));
+            aggregatePipeline.add(
+                    Aggregates.lookup("comments", let, countPipeline, "num_comments"));
+            numComments =
+                    new Document(
+                            "$ifNull",
+                            Arrays.asList(
+                                    new Document(
+                                            "$arrayElemAt",
+                                            Arrays.asList("$num_comments.count", 0)),
+                                    0));
+        } else {
+            numComments = new Document("$size", "$comments");
+        }
+        aggregatePipeline.add(Aggregates.addFields(new Field<>("num_comments", numComments)));
 
-        return movie;
+        return aggregatePipeline;
     }
 
     /**
      * Returns all movies within the defined limit and skip values using a default descending sort key
-     * `tomatoes.viewer.numReviews`
+     * `tomatoes.viewer.numReviews`, ties broken by descending `_id` like the `$facet` and keyset
+     * pages.
      *
      * @param limit - max number of returned documents.
      * @param skip  - number of documents to be skipped.
@@ -145,9 +312,26 @@ public class MovieDao extends AbstractMFlixDao {
      */
     @SuppressWarnings("UnnecessaryLocalVariable")
     public List<Document> getMovies(int limit, int skip) {
-        String defaultSortKey = "tomatoes.viewer.numReviews";
         List<Document> movies =
-                new ArrayList<>(getMovies(limit, skip, Sorts.descending(defaultSortKey)));
+                new ArrayList<>(getMovies(limit, skip, Sorts.descending(KEYSET_SORT_KEY, "_id")));
+        return movies;
+    }
+
+    /**
+     * {@link #getMovies(int, int)} decoded by {@link MovieCodec} straight into Movie objects.
+     *
+     * @param limit - max number of returned movies.
+     * @param skip  - number of documents to be skipped.
+     * @return list of movies.
+     */
+    public List<Movie> getMovieObjects(int limit, int skip) {
+        List<Movie> movies = new ArrayList<>();
+        movieObjectsCollection
+                .find()
+                .sort(Sorts.descending(KEYSET_SORT_KEY, "_id"))
+                .skip(skip)
+                .limit(limit)
+                .into(movies);
         return movies;
     }
 
@@ -181,6 +365,11 @@ public class MovieDao extends AbstractMFlixDao {
      * @return List of matching Document objects.
      */
     public List<Document> getMoviesByCountry(String... country) {
+        if (filterIndexLoaded()) {
+            return findByIds(
+                    filterIndex.page(MovieFilterIndex.Field.COUNTRIES, 0, Integer.MAX_VALUE, country),
+                    include("title"));
+        }
         Bson queryFilter = in("countries", country);
         Bson includeTitle = include("title");
 //        Bson titleNoId = Projections.fields(includeTitle,excludeId());
@@ -195,6 +384,48 @@ public class MovieDao extends AbstractMFlixDao {
         return movies;
     }
 
+    /**
+     * Streaming variant of {@link #getMoviesByCountry}: hands the `_id` and `title` of every
+     * matching movie to `sink` as it comes off the cursor, undecoded, so no more than one batch
+     * is held in memory.
+     *
+     * @param batchSize - number of movies fetched per round trip.
+     * @param sink      - receives every movie.
+     * @param country   - Country string value to be matched.
+     */
+    public void streamMoviesByCountry(
+            int batchSize, Consumer<RawBsonDocument> sink, String... country) {
+        MongoCollection<RawBsonDocument> rawMovies =
+                moviesCollection.withDocumentClass(RawBsonDocument.class);
+        if (!filterIndexLoaded()) {
+            try (MongoCursor<RawBsonDocument> cursor =
+                         rawMovies
+                                 .find(in("countries", country))
+                                 .projection(include("title"))
+                                 .batchSize(batchSize)
+                                 .iterator()) {
+                cursor.forEachRemaining(sink);
+            }
+            return;
+        }
+        List<ObjectId> ids =
+                filterIndex.page(MovieFilterIndex.Field.COUNTRIES, 0, Integer.MAX_VALUE, country);
+        for (int from = 0; from < ids.size(); from += batchSize) {
+            List<ObjectId> batch = ids.subList(from, Math.min(ids.size(), from + batchSize));
+            Map<ObjectId, RawBsonDocument> found = new HashMap<>();
+            for (RawBsonDocument movie :
+                    rawMovies.find(in("_id", batch)).projection(include("title"))) {
+                found.put(movie.getObjectId("_id").getValue(), movie);
+            }
+            for (ObjectId id : batch) {
+                RawBsonDocument movie = found.get(id);
+                if (movie != null) {
+                    sink.accept(movie);
+                }
+            }
+        }
+    }
+
     /**
      * This method will execute the following mongo shell query: db.movies.find({"$text": { "$search":
      * `keywords` }}, {"score": {"$meta": "textScore"}}).sort({"score": {"$meta": "textScore"}})
@@ -222,7 +453,7 @@ public class MovieDao extends AbstractMFlixDao {
 
     /**
      * Finds all movies that contain any of the `casts` members, sorted in descending by the `sortKey`
-     * field.
+     * field and then by `_id`.
      *
      * @param sortKey - sort key.
      * @param limit   - number of documents to be returned.
@@ -231,8 +462,11 @@ public class MovieDao extends AbstractMFlixDao {
      * @return List of documents sorted by sortKey that match the cast selector.
      */
     public List<Document> getMoviesByCast(String sortKey, int limit, int skip, String... cast) {
+        if (KEYSET_SORT_KEY.equals(sortKey) && filterIndexLoaded()) {
+            return findByIds(filterIndex.page(MovieFilterIndex.Field.CAST, skip, limit, cast), null);
+        }
         Bson castFilter = Filters.in("cast", cast);
-        Bson sort = Sorts.descending(sortKey);
+        Bson sort = Sorts.descending(sortKey, "_id");
 
         List<Document> movies = new ArrayList<>();
         moviesCollection
@@ -246,7 +480,8 @@ public class MovieDao extends AbstractMFlixDao {
     }
 
     /**
-     * Finds all movies that match the provide `genres`, sorted descending by the `sortKey` field.
+     * Finds all movies that match the provide `genres`, sorted descending by the `sortKey` field and
+     * then by `_id`.
      *
      * @param sortKey - sorting key string.
      * @param limit   - number of documents to be returned.
@@ -255,10 +490,14 @@ public class MovieDao extends AbstractMFlixDao {
      * @return List of matching Document objects.
      */
     public List<Document> getMoviesByGenre(String sortKey, int limit, int skip, String... genres) {
+        if (KEYSET_SORT_KEY.equals(sortKey) && filterIndexLoaded()) {
+            return findByIds(
+                    filterIndex.page(MovieFilterIndex.Field.GENRES, skip, limit, genres), null);
+        }
         // query filter
         Bson castFilter = in("genres", genres);
-        // sort key
-        Bson sort = Sorts.descending(sortKey);
+        // sort key, ties broken by _id so skip pages line up with the other paths
+        Bson sort = Sorts.descending(sortKey, "_id");
         List<Document> movies = new ArrayList<>();
         // TODO > Ticket: Paging - implement the necessary cursor methods to support simple
         // pagination like skip and limit in the code below
@@ -270,7 +509,103 @@ public class MovieDao extends AbstractMFlixDao {
         return movies;
     }
 
-    private ArrayList<Integer> runtimeBoundaries() {
+    /**
+     * Returns the page of movies that follows `after`, in descending `tomatoes.viewer.numReviews`
+     * order. Equivalent to the mongo shell query:
+     *
+     * <p>db.movies.find({$or: [{numReviews: {$lt: n}}, {numReviews: n, _id: {$lt: id}}, ...]})
+     * .sort({numReviews: -1, _id: -1}).limit(limit)
+     *
+     * @param limit - max number of returned documents.
+     * @param after - token of the previous page, or null for the first page.
+     * @return list of documents.
+     */
+    public List<Document> getMovies(int limit, PageToken after) {
+        return findAfter(new Document(), limit, after);
+    }
+
+    /**
+     * Keyset paginated variant of {@link #getMoviesByCast(String, int, int, String...)}.
+     *
+     * @param limit - number of documents to be returned.
+     * @param after - token of the previous page, or null for the first page.
+     * @param cast  - cast selector.
+     * @return List of documents that match the cast selector.
+     */
+    public List<Document> getMoviesByCast(int limit, PageToken after, String... cast) {
+        if (filterIndexLoaded()) {
+            return findByIds(filterIndex.page(MovieFilterIndex.Field.CAST, after, limit, cast), null);
+        }
+        return findAfter(in("cast", cast), limit, after);
+    }
+
+    /**
+     * Keyset paginated variant of {@link #getMoviesByGenre(String, int, int, String...)}.
+     *
+     * @param limit  - number of documents to be returned.
+     * @param after  - token of the previous page, or null for the first page.
+     * @param genres - genres matching string vargs.
+     * @return List of matching Document objects.
+     */
+    public List<Document> getMoviesByGenre(int limit, PageToken after, String... genres) {
+        if (filterIndexLoaded()) {
+            return findByIds(
+                    filterIndex.page(MovieFilterIndex.Field.GENRES, after, limit, genres), null);
+        }
+        return findAfter(in("genres", genres), limit, after);
+    }
+
+    /**
+     * Finds the movies matching the given ids, in the order of the ids.
+     *
+     * @param ids - movie ids.
+     * @return list of documents, without the ids that match no movie.
+     */
+    public List<Document> getMoviesByIds(List<ObjectId> ids) {
+        return findByIds(ids, null);
+    }
+
+    private boolean filterIndexLoaded() {
+        return filterIndex != null && filterIndex.isLoaded();
+    }
+
+    /**
+     * Reads the movies of a page found by the {@link MovieFilterIndex}, keeping the order of the
+     * ids. Movies deleted since the index was rebuilt are left out.
+     *
+     * @param ids        - movie ids, in listing order.
+     * @param projection - fields to return, or null for the whole documents.
+     * @return list of documents.
+     */
+    private List<Document> findByIds(List<ObjectId> ids, Bson projection) {
+        Map<Object, Document> found = new HashMap<>();
+        if (!ids.isEmpty()) {
+            for (Document movie : moviesCollection.find(in("_id", ids)).projection(projection)) {
+                found.put(movie.get("_id"), movie);
+            }
+        }
+        List<Document> movies = new ArrayList<>(ids.size());
+        for (ObjectId id : ids) {
+            Document movie = found.get(id);
+            if (movie != null) {
+                movies.add(movie);
+            }
+        }
+        return movies;
+    }
+
+    private List<Document> findAfter(Bson filter, int limit, PageToken after) {
+        Bson query = after == null ? filter : Filters.and(filter, after.toFilter(KEYSET_SORT_KEY));
+        List<Document> movies = new ArrayList<>();
+        moviesCollection
+                .find(query)
+                .sort(Sorts.descending(KEYSET_SORT_KEY, "_id"))
+                .limit(limit)
+                .into(movies);
+        return movies;
+    }
+
+    private static ArrayList<Integer> runtimeBoundaries() {
         ArrayList<Integer> runtimeBoundaries = new ArrayList<>();
         runtimeBoundaries.add(0);
         runtimeBoundaries.add(60);
@@ -280,7 +615,7 @@ public class MovieDao extends AbstractMFlixDao {
         return runtimeBoundaries;
     }
 
-    private ArrayList<Integer> ratingBoundaries() {
+    private static ArrayList<Integer> ratingBoundaries() {
         ArrayList<Integer> ratingBoundaries = new ArrayList<>();
         ratingBoundaries.add(0);
         ratingBoundaries.add(50);
@@ -295,7 +630,7 @@ public class MovieDao extends AbstractMFlixDao {
      * "$bucket": { "groupBy": "$runtime", "boundaries": [0, 60, 90, 120, 180], "default": "other",
      * "output": { "count": {"$sum": 1} } } }
      */
-    private Bson buildRuntimeBucketStage() {
+    private static Bson buildRuntimeBucketStage() {
 
         BucketOptions bucketOptions = new BucketOptions();
         bucketOptions.defaultBucket("other");
@@ -317,7 +652,7 @@ public class MovieDao extends AbstractMFlixDao {
       }
      }
      */
-    private Bson buildRatingBucketStage() {
+    private static Bson buildRatingBucketStage() {
         BucketOptions bucketOptions = new BucketOptions();
         bucketOptions.defaultBucket("other");
         BsonField count = new BsonField("count", new Document("$sum", 1));
@@ -327,16 +662,33 @@ public class MovieDao extends AbstractMFlixDao {
 
     /**
      * This method is the java implementation of the following mongo shell aggregation pipeline
-     * pipeline.aggregate([ {$match: {cast: {$in: ... }}}, {$sort: {tomatoes.viewer.numReviews: -1}},
+     * pipeline.aggregate([ {$match: {cast: {$in: ... }}}, {$sort: {tomatoes.viewer.numReviews: -1,
+     * _id: -1}},
      * {$skip: ... }, {$limit: ... }, {$facet:{ runtime: {$bucket: ...}, rating: {$bucket: ...},
      * movies: {$addFields: ...}, }} ])
      */
     public List<Document> getMoviesCastFaceted(int limit, int skip, String... cast) {
         List<Document> movies = new ArrayList<>();
-        String sortKey = "tomatoes.viewer.numReviews";
+        moviesCollection
+                .aggregate(castFacetedPipeline(limit, skip, cast))
+                .iterator()
+                .forEachRemaining(movies::add);
+        return movies;
+    }
+
+    /**
+     * Builds the faceted cast search pipeline run by {@link #getMoviesCastFaceted(int, int,
+     * String...)}.
+     *
+     * @param limit - max number of returned documents.
+     * @param skip  - number of documents to be skipped.
+     * @param cast  - cast selector.
+     * @return aggregation pipeline.
+     */
+    static List<Bson> castFacetedPipeline(int limit, int skip, String... cast) {
         Bson skipStage = Aggregates.skip(skip);
         Bson matchStage = Aggregates.match(in("cast", cast));
-        Bson sortStage = Aggregates.sort(Sorts.descending(sortKey));
+        Bson sortStage = Aggregates.sort(Sorts.descending(KEYSET_SORT_KEY, "_id"));
         Bson limitStage = Aggregates.limit(limit);
         Bson facetStage = buildFacetStage();
         // Using a LinkedList to ensure insertion order
@@ -352,8 +704,7 @@ public class MovieDao extends AbstractMFlixDao {
         pipeline.add(limitStage);
         pipeline.add(facetStage);
 
-        moviesCollection.aggregate(pipeline).iterator().forEachRemaining(movies::add);
-        return movies;
+        return pipeline;
     }
 
     /**
@@ -363,7 +714,7 @@ public class MovieDao extends AbstractMFlixDao {
      *
      * @return Bson defining the $facet stage.
      */
-    private Bson buildFacetStage() {
+    private static Bson buildFacetStage() {
 
         return Aggregates.facet(
                 new Facet("runtime", buildRuntimeBucketStage()),
@@ -371,6 +722,101 @@ public class MovieDao extends AbstractMFlixDao {
                 new Facet("movies", Aggregates.addFields(new Field("title", "$title"))));
     }
 
+    /**
+     * Returns one page of movies together with the total number of matching movies, in a single
+     * round trip. This method is the java implementation of the following mongo shell aggregation
+     * pipeline: db.movies.aggregate([ {$match: ... }, {$facet: { movies: [ {$sort: ... }, {$skip:
+     * ... }, {$limit: ... } ], count: [ {$count: "count"} ] }} ])
+     *
+     * @param limit - max number of movies in the page.
+     * @param skip  - number of documents to be skipped.
+     * @return Document with the page under `movies` and the total under `count`.
+     */
+    public Document getMoviesWithCount(int limit, int skip) {
+        return getSortedPageWithCount(new Document(), limit, skip);
+    }
+
+    /**
+     * {@link #getMoviesWithCount(int, int)} restricted to movies matching any of the `cast` members.
+     *
+     * @param limit - max number of movies in the page.
+     * @param skip  - number of documents to be skipped.
+     * @param cast  - cast selector.
+     * @return Document with the page under `movies` and the total under `count`.
+     */
+    public Document getMoviesByCastWithCount(int limit, int skip, String... cast) {
+        if (filterIndexLoaded()) {
+            return new Document("movies", getMoviesByCast(KEYSET_SORT_KEY, limit, skip, cast))
+                    .append("count", getCastSearchCount(cast));
+        }
+        return getSortedPageWithCount(in("cast", cast), limit, skip);
+    }
+
+    /**
+     * {@link #getMoviesWithCount(int, int)} restricted to movies matching any of the `genres`.
+     *
+     * @param limit  - max number of movies in the page.
+     * @param skip   - number of documents to be skipped.
+     * @param genres - genres matching string vargs.
+     * @return Document with the page under `movies` and the total under `count`.
+     */
+    public Document getMoviesByGenreWithCount(int limit, int skip, String... genres) {
+        if (filterIndexLoaded()) {
+            return new Document("movies", getMoviesByGenre(KEYSET_SORT_KEY, limit, skip, genres))
+                    .append("count", getGenresSearchCount(genres));
+        }
+        return getSortedPageWithCount(in("genres", genres), limit, skip);
+    }
+
+    /**
+     * Text search page sorted by text score, together with the number of matching movies.
+     *
+     * @param limit    - max number of movies in the page.
+     * @param skip     - number of documents to be skipped.
+     * @param keywords - text matching keywords or terms
+     * @return Document with the page under `movies` and the total under `count`.
+     */
+    public Document getMoviesByTextWithCount(int limit, int skip, String keywords) {
+        List<Bson> pipeline = new ArrayList<>();
+        pipeline.add(Aggregates.match(text(keywords)));
+        pipeline.add(Aggregates.addFields(new Field<>("score", new Document("$meta", "textScore"))));
+        return pageWithCount(pipeline, Sorts.descending("score"), limit, skip);
+    }
+
+    private Document getSortedPageWithCount(Bson filter, int limit, int skip) {
+        List<Bson> pipeline = new ArrayList<>();
+        pipeline.add(Aggregates.match(filter));
+        return pageWithCount(pipeline, Sorts.descending(KEYSET_SORT_KEY, "_id"), limit, skip);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Document pageWithCount(List<Bson> pipeline, Bson sort, int limit, int skip) {
+        pipeline.add(Aggregates.facet(
+                new Facet("movies",
+                        Aggregates.sort(sort), Aggregates.skip(skip), Aggregates.limit(limit)),
+                new Facet("count", Aggregates.count("count"))));
+
+        Document facets = moviesCollection.aggregate(pipeline).first();
+        List<Document> movies = facets == null ? null : (List<Document>) facets.get("movies");
+        List<Document> count = facets == null ? null : (List<Document>) facets.get("count");
+
+        Document result = new Document();
+        result.put("movies", movies == null ? new ArrayList<Document>() : movies);
+        result.put("count", count == null || count.isEmpty()
+                ? 0L : ((Number) count.get(0).get("count")).longValue());
+        return result;
+    }
+
+    /**
+     * Returns the number of documents in the `movies` collection from the collection metadata,
+     * without scanning it.
+     *
+     * @return estimated number of documents in the movies collection.
+     */
+    public long getEstimatedMoviesCount() {
+        return this.moviesCollection.estimatedDocumentCount();
+    }
+
     /**
      * Counts the total amount of documents in the `movies` collection
      *
@@ -397,6 +843,9 @@ public class MovieDao extends AbstractMFlixDao {
      * @return number of matching documents.
      */
     public long getCastSearchCount(String... cast) {
+        if (filterIndexLoaded()) {
+            return filterIndex.count(MovieFilterIndex.Field.CAST, cast);
+        }
         return this.moviesCollection.countDocuments(in("cast", cast));
     }
 
@@ -407,6 +856,9 @@ public class MovieDao extends AbstractMFlixDao {
      * @return number of matching documents.
      */
     public long getGenresSearchCount(String... genres) {
+        if (filterIndexLoaded()) {
+            return filterIndex.count(MovieFilterIndex.Field.GENRES, genres);
+        }
         return this.moviesCollection.countDocuments(in("genres", genres));
     }
 }
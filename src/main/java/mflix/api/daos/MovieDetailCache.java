@@ -0,0 +1,380 @@
+package mflix.api.daos;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import com.mongodb.client.model.changestream.UpdateDescription;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+/**
+ * Read-through cache in front of {@link MovieDao#getMovie(String)}. Entries are bounded by their
+ * encoded BSON size and admitted/evicted by Caffeine's W-TinyLFU policy, so the hottest titles stay
+ * resident. Entries are invalidated per movie by the `movies` change stream.
+ *
+ * <p>Comment writes do not invalidate: the comment write paths and the `comments` change stream
+ * patch the embedded comments of the cached movie, inserting, replacing or removing the one
+ * comment and adjusting `num_comments`, instead of running the `$lookup` again. Movies embed only
+ * their newest comments, so a delete that would need the next older comment drops the entry.
+ * `mflix.movie_detail.comment_patches` counts the writes served from a patched entry
+ * (`result=patched`) and the ones that had to load the movie (`result=loaded`).
+ *
+ * <p>Cached documents are shared between requests and must be treated as read-only. Patches
+ * replace the cached document with a patched copy.
+ */
+@Component
+public class MovieDetailCache implements ChangeStreamListener {
+
+  private static final DocumentCodec DOCUMENT_CODEC = new DocumentCodec();
+
+  private final MovieDao movieDao;
+
+  private final boolean enabled;
+
+  private final Cache<String, Document> cache;
+
+  private final Counter patched;
+
+  private final Counter loaded;
+
+  @Autowired
+  public MovieDetailCache(
+      MovieDao movieDao,
+      MeterRegistry meterRegistry,
+      @Value("${api.movies.cache.enabled:true}") boolean enabled,
+      @Value("${api.movies.cache.max_weight_bytes:67108864}") long maxWeightBytes,
+      @Value("${api.movies.cache.expire_after_write_seconds:600}") long expireAfterWriteSeconds) {
+    this.movieDao = movieDao;
+    this.enabled = enabled;
+    this.cache =
+        Caffeine.newBuilder()
+            .maximumWeight(maxWeightBytes)
+            .weigher((String movieId, Document movie) -> weigh(movie))
+            .expireAfterWrite(expireAfterWriteSeconds, TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, cache, "movie_detail");
+    this.patched = patchCounter(meterRegistry, "patched");
+    this.loaded = patchCounter(meterRegistry, "loaded");
+  }
+
+  private static Counter patchCounter(MeterRegistry meterRegistry, String result) {
+    return Counter.builder("mflix.movie_detail.comment_patches")
+        .tag("result", result)
+        .register(meterRegistry);
+  }
+
+  /**
+   * Returns the movie document, with its comments, from the cache or from the database on a miss.
+   *
+   * @param movieId - Movie identifier string.
+   * @return Document object or null.
+   */
+  public Document getMovie(String movieId) {
+    if (!enabled || movieId == null) {
+      return movieDao.getMovie(movieId);
+    }
+    String key = key(movieId);
+    if (key == null) {
+      return null;
+    }
+    return cache.get(key, movieDao::getMovie);
+  }
+
+  /**
+   * Cache key of a movie: the lowercase hex of its `_id`, as the change stream events spell it,
+   * whatever the case of the requested id.
+   *
+   * @return the key, or null if `movieId` is not an ObjectId.
+   */
+  private static String key(String movieId) {
+    if (movieId == null || !ObjectId.isValid(movieId)) {
+      return null;
+    }
+    return new ObjectId(movieId).toHexString();
+  }
+
+  /**
+   * Adds a new comment to its cached movie, or replaces the cached comment with the same `_id`.
+   *
+   * @param movieId - Movie identifier string.
+   * @param comment - comment document, as stored in the `comments` collection.
+   * @return newest comments of the movie, newest first.
+   */
+  public List<Document> putComment(String movieId, Document comment) {
+    return patchOrLoad(movieId, movie -> withNewComment(movie, comment));
+  }
+
+  /**
+   * Sets the text and date of a comment of a cached movie. If the comment is not cached, the movie
+   * is loaded again.
+   *
+   * @param movieId - Movie identifier string.
+   * @param commentId - comment identifier.
+   * @param text - new comment text.
+   * @param date - new comment date.
+   * @return newest comments of the movie, newest first.
+   */
+  public List<Document> updateComment(String movieId, ObjectId commentId, String text, Date date) {
+    return patchOrLoad(
+        movieId,
+        movie -> {
+          Document current = findComment(comments(movie), commentId);
+          if (current == null) {
+            return null;
+          }
+          Document updated = new Document(current);
+          updated.put("text", text);
+          updated.put("date", date);
+          return withUpdatedComment(movie, updated);
+        });
+  }
+
+  /**
+   * Removes a deleted comment from its cached movie.
+   *
+   * @param movieId - Movie identifier string.
+   * @param commentId - comment identifier.
+   * @return newest comments of the movie, newest first.
+   */
+  public List<Document> removeComment(String movieId, ObjectId commentId) {
+    return patchOrLoad(movieId, movie -> withoutComment(movie, commentId));
+  }
+
+  private List<Document> patchOrLoad(String movieId, UnaryOperator<Document> patch) {
+    Document movie = patchCached(movieId, patch);
+    if (movie != null) {
+      patched.increment();
+    } else {
+      loaded.increment();
+      movie = getMovie(movieId);
+    }
+    return comments(movie);
+  }
+
+  /**
+   * Replaces the cached movie with the result of `patch`. A patch returning null cannot be applied
+   * to the cached comments, and the movie is dropped from the cache instead.
+   *
+   * @return the patched movie, or null if it was not cached.
+   */
+  private Document patchCached(String movieId, UnaryOperator<Document> patch) {
+    String key = key(movieId);
+    if (!enabled || key == null) {
+      return null;
+    }
+    return cache.asMap().computeIfPresent(key, (id, movie) -> patch.apply(movie));
+  }
+
+  /** Copy of `movie` with a new comment, or with the cached version of the comment replaced. */
+  private Document withNewComment(Document movie, Document comment) {
+    List<Document> comments = comments(movie);
+    int numComments = numComments(movie);
+    if (findComment(comments, comment.get("_id")) == null) {
+      numComments++;
+    }
+    List<Document> patched = withComment(comments, comment);
+    int limit = movieDao.getCommentsLimit();
+    if (limit > 0 && patched.size() > limit) {
+      patched = new ArrayList<>(patched.subList(0, limit));
+    }
+    return patchedCopy(movie, patched, numComments);
+  }
+
+  /** Copy of `movie` with an edited comment, or null if the comment is not cached. */
+  private static Document withUpdatedComment(Document movie, Document comment) {
+    List<Document> comments = comments(movie);
+    if (findComment(comments, comment.get("_id")) == null) {
+      return null;
+    }
+    return patchedCopy(movie, withComment(comments, comment), numComments(movie));
+  }
+
+  /**
+   * Copy of `movie` without a deleted comment. Returns null if the embedded comments are only the
+   * newest ones of the movie, as the next older comment, or the deleted one, is not cached.
+   */
+  private static Document withoutComment(Document movie, ObjectId commentId) {
+    List<Document> comments = comments(movie);
+    int numComments = numComments(movie);
+    boolean complete = numComments <= comments.size();
+    if (findComment(comments, commentId) == null) {
+      // already removed, e.g. by the change stream echo of a local delete
+      return complete ? movie : null;
+    }
+    if (!complete) {
+      return null;
+    }
+    return patchedCopy(movie, withoutComment(comments, commentId), numComments - 1);
+  }
+
+  private static Document patchedCopy(Document movie, List<Document> comments, int numComments) {
+    Document copy = new Document(movie);
+    copy.put("comments", comments);
+    copy.put("num_comments", numComments);
+    return copy;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<Document> comments(Document movie) {
+    Object comments = movie == null ? null : movie.get("comments");
+    return comments instanceof List ? (List<Document>) comments : Collections.emptyList();
+  }
+
+  private static int numComments(Document movie) {
+    Object numComments = movie.get("num_comments");
+    return numComments instanceof Number
+        ? ((Number) numComments).intValue()
+        : comments(movie).size();
+  }
+
+  /** Copy of `comments` with `comment` in date order, newest first, replacing its older version. */
+  private static List<Document> withComment(List<Document> comments, Document comment) {
+    List<Document> patched = withoutComment(comments, comment.get("_id"));
+    Date date = comment.getDate("date");
+    int position = 0;
+    while (position < patched.size() && !isOlder(patched.get(position), date)) {
+      position++;
+    }
+    patched.add(position, comment);
+    return patched;
+  }
+
+  private static boolean isOlder(Document comment, Date date) {
+    Date other = comment.getDate("date");
+    return date != null && (other == null || other.before(date));
+  }
+
+  private static List<Document> withoutComment(List<Document> comments, Object commentId) {
+    List<Document> patched = new ArrayList<>(comments.size() + 1);
+    for (Document comment : comments) {
+      if (!commentId.equals(comment.get("_id"))) {
+        patched.add(comment);
+      }
+    }
+    return patched;
+  }
+
+  private static Document findComment(List<Document> comments, Object commentId) {
+    for (Document comment : comments) {
+      if (commentId.equals(comment.get("_id"))) {
+        return comment;
+      }
+    }
+    return null;
+  }
+
+  public void invalidate(String movieId) {
+    String key = key(movieId);
+    if (key != null) {
+      cache.invalidate(key);
+    }
+  }
+
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @Override
+  public void onChange(String collection, ChangeStreamDocument<Document> event) {
+    OperationType operation = event.getOperationType();
+    if (operation != OperationType.INSERT
+        && operation != OperationType.UPDATE
+        && operation != OperationType.REPLACE
+        && operation != OperationType.DELETE) {
+      // drop, rename, invalidate: nothing in the cache can be trusted anymore
+      invalidateAll();
+      return;
+    }
+
+    if (MovieDao.MOVIES_COLLECTION.equals(collection)) {
+      if (!onlyRecentComments(event)) {
+        invalidate(objectIdHex(event.getDocumentKey()));
+      }
+      return;
+    }
+
+    Document comment = event.getFullDocument();
+    if (operation != OperationType.DELETE
+        && comment != null
+        && comment.get("movie_id") instanceof ObjectId) {
+      String movieId = comment.getObjectId("movie_id").toHexString();
+      if (operation == OperationType.INSERT) {
+        patchCached(movieId, movie -> withNewComment(movie, comment));
+      } else {
+        patchCached(movieId, movie -> withUpdatedComment(movie, comment));
+      }
+      return;
+    }
+    // deleted comments only carry their own _id, find the movies that embed it. Deleted comments
+    // that are not embedded leave `num_comments` stale until the entry expires.
+    BsonValue commentId = event.getDocumentKey() == null ? null : event.getDocumentKey().get("_id");
+    if (commentId != null && commentId.isObjectId()) {
+      ObjectId oid = commentId.asObjectId().getValue();
+      for (Map.Entry<String, Document> entry : cache.asMap().entrySet()) {
+        if (findComment(comments(entry.getValue()), oid) != null) {
+          patchCached(entry.getKey(), movie -> withoutComment(movie, oid));
+        }
+      }
+    }
+  }
+
+  @Override
+  public void onReset(String collection) {
+    invalidateAll();
+  }
+
+  /**
+   * Whether a movie update only maintained its embedded comments. Those are already patched from
+   * the matching `comments` event.
+   */
+  private static boolean onlyRecentComments(ChangeStreamDocument<Document> event) {
+    UpdateDescription update = event.getUpdateDescription();
+    if (event.getOperationType() != OperationType.UPDATE
+        || update == null
+        || (update.getRemovedFields() != null && !update.getRemovedFields().isEmpty())) {
+      return false;
+    }
+    for (String field : update.getUpdatedFields().keySet()) {
+      if (!field.startsWith(RecentCommentsSubset.RECENT_COMMENTS)
+          && !field.equals(RecentCommentsSubset.NUM_COMMENTS)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String objectIdHex(BsonDocument documentKey) {
+    if (documentKey == null || !documentKey.isObjectId("_id")) {
+      return null;
+    }
+    return documentKey.getObjectId("_id").getValue().toHexString();
+  }
+
+  private static int weigh(Document movie) {
+    return new RawBsonDocument(movie, DOCUMENT_CODEC).getByteBuffer().remaining();
+  }
+}
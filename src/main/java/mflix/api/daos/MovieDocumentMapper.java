@@ -1,14 +1,22 @@
 package mflix.api.daos;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import mflix.api.models.*;
+import org.bson.BsonReader;
+import org.bson.BsonType;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
 
-import java.text.MessageFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.bson.conversions.Bson;
 import org.slf4j.Logger;
@@ -17,23 +25,78 @@ import org.slf4j.LoggerFactory;
 @SuppressWarnings("unchecked")
 public class MovieDocumentMapper {
 
-  private static SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+  // DateTimeFormatter is immutable, unlike SimpleDateFormat it can be shared by request threads
+  private static final DateTimeFormatter LAST_UPDATED_FORMAT =
+      DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+  private static final int LAST_UPDATED_LENGTH = 19;
+
+  // only one mapping failure in FAILURE_LOG_SAMPLE is logged, a bad batch must not flood the log
+  private static final long FAILURE_LOG_SAMPLE = 100;
+  private static final AtomicLong failures = new AtomicLong();
+
   private static Logger log = LoggerFactory.getLogger(MovieDocumentMapper.class.getName());
 
   public static MovieTitle mapToMovieTitle(Document document) {
     MovieTitle movie = new MovieTitle();
     movie.setId(document.getObjectId("_id").toHexString());
-    movie.setTitle(MessageFormat.format("{0}", document.get("title")));
+    movie.setTitle(asString(document.get("title")));
     return movie;
   }
 
+  /**
+   * Writes the JSON of {@link #mapToMovieTitle} straight from raw BSON, reading only `_id` and
+   * `title` without decoding a Document or building a MovieTitle. Titles of other types than
+   * strings and numbers go through {@link #mapToMovieTitle}.
+   *
+   * @param document - movie, with at least its `_id` and `title`.
+   * @param json - generator the `{title, _id}` object is written to.
+   * @throws IOException if the generator cannot write.
+   */
+  public static void writeMovieTitle(RawBsonDocument document, JsonGenerator json)
+      throws IOException {
+    String id = null;
+    String title = null;
+    boolean decode = false;
+    try (BsonReader reader = document.asBsonReader()) {
+      reader.readStartDocument();
+      while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+        String name = reader.readName();
+        BsonType type = reader.getCurrentBsonType();
+        if ("_id".equals(name) && type == BsonType.OBJECT_ID) {
+          id = reader.readObjectId().toHexString();
+        } else if ("title".equals(name) && type == BsonType.STRING) {
+          title = reader.readString();
+        } else if ("title".equals(name) && type == BsonType.INT32) {
+          title = Integer.toString(reader.readInt32());
+        } else if ("title".equals(name) && type == BsonType.INT64) {
+          title = Long.toString(reader.readInt64());
+        } else if ("title".equals(name) && type == BsonType.DOUBLE) {
+          title = Double.toString(reader.readDouble());
+        } else {
+          decode |= "_id".equals(name) || ("title".equals(name) && type != BsonType.NULL);
+          reader.skipValue();
+        }
+      }
+    }
+    if (decode) {
+      MovieTitle movie = mapToMovieTitle(document.decode(new DocumentCodec()));
+      id = movie.getId();
+      title = movie.getTitle();
+    }
+    // in the order Jackson writes the properties of a MovieTitle
+    json.writeStartObject();
+    json.writeStringField("title", title);
+    json.writeStringField("_id", id);
+    json.writeEndObject();
+  }
+
   public static Movie mapToMovie(Bson bson) {
 
     Movie movie = new Movie();
     Document document = (Document) bson;
     try {
       movie.setId(document.getObjectId("_id").toHexString());
-      movie.setTitle(MessageFormat.format("{0}", document.get("title")));
+      movie.setTitle(asString(document.get("title")));
       movie.setCast((List<String>) document.get("cast"));
       movie.setPlog(document.getString("plot"));
       movie.setFullPlot(document.getString("fullplot"));
@@ -44,57 +107,128 @@ public class MovieDocumentMapper {
       movie.setDirectors((List<String>) document.get("directors"));
       movie.setWriters((List<String>) document.get("writers"));
 
-      if (document.containsKey("imdb")) {
-        movie.setImdb(mapToIMDB((Document) document.get("imdb")));
+      Object imdb = document.get("imdb");
+      if (imdb != null) {
+        movie.setImdb(mapToIMDB((Document) imdb));
       }
 
       movie.setCountries((List<String>) document.get("countries"));
       movie.setGenres((List<String>) document.get("genres"));
 
-      if (document.containsKey("tomatoes")) {
-        movie.setTomatoes(mapToRottenTomatoes((Document) document.get("tomatoes")));
+      Object tomatoes = document.get("tomatoes");
+      if (tomatoes != null) {
+        movie.setTomatoes(mapToRottenTomatoes((Document) tomatoes));
       }
 
       movie.setPoster(document.getString("poster"));
 
-      if (document.containsKey("comments")) {
-        List<Comment> comments = new ArrayList<>();
-        for (Document commentDoc : (List<Document>) document.get("comments")) {
-          comments.add(parseComment(commentDoc));
-        }
-        movie.setComments(comments);
+      Object commentDocs = document.get("comments");
+      if (commentDocs != null) {
+        movie.setComments(mapToComments((List<Document>) commentDocs));
+      }
+
+      Object numComments = document.get("num_comments");
+      if (numComments != null) {
+        movie.setNumComments(parseInt(numComments));
       }
 
     } catch (Exception e) {
-      log.warn("Unable to map document `{}` to `Movie` object: {} ", document, e.getMessage());
-      log.warn("Skipping document");
+      logFailure(document, e);
     }
     return movie;
   }
 
+  private static void logFailure(Document document, Exception e) {
+    long failure = failures.incrementAndGet();
+    if (failure % FAILURE_LOG_SAMPLE == 1) {
+      log.warn(
+          "Unable to map movie `{}` to `Movie` object, skipping it ({} failures so far): {}",
+          document == null ? null : document.get("_id"),
+          failure,
+          e.toString());
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("Unmappable movie document: {}", document);
+    }
+  }
+
+  public static List<Comment> mapToComments(List<Document> documents) {
+    List<Comment> comments = new ArrayList<>(documents.size());
+    for (Document commentDoc : documents) {
+      comments.add(parseComment(commentDoc));
+    }
+    return comments;
+  }
+
+  /**
+   * Builds the document of a comment as it is stored in, and embedded from, the `comments`
+   * collection. Null fields are left out, like the POJO codec does.
+   */
+  public static Document mapToCommentDocument(Comment comment) {
+    Document document = new Document("_id", comment.getOid());
+    putIfNotNull(document, "name", comment.getName());
+    putIfNotNull(document, "email", comment.getEmail());
+    putIfNotNull(document, "movie_id", comment.getMovieObjectId());
+    putIfNotNull(document, "text", comment.getText());
+    putIfNotNull(document, "date", comment.getDate());
+    return document;
+  }
+
+  private static void putIfNotNull(Document document, String key, Object value) {
+    if (value != null) {
+      document.put(key, value);
+    }
+  }
+
   private static Comment parseComment(Document document) {
     Comment comment = new Comment();
-    comment.setId(document.getObjectId("_id").toHexString());
+    // the ObjectId setters derive the hex ids, the String setters would parse them back
+    comment.setOid(document.getObjectId("_id"));
     comment.setText(document.getString("text"));
     comment.setEmail(document.getString("email"));
     comment.setDate(document.getDate("date"));
-    comment.setMovieId(document.getObjectId("movie_id").toHexString());
+    comment.setMovieObjectId(document.getObjectId("movie_id"));
     comment.setName(document.getString("name"));
     return comment;
   }
 
+  private static String asString(Object value) {
+    if (value == null || value instanceof String) {
+      return (String) value;
+    }
+    return value.toString();
+  }
+
   private static Date parseDate(Object stringDate) {
+    if (stringDate instanceof Date) {
+      return (Date) stringDate;
+    }
+    if (stringDate instanceof String) {
+      return parseDate((String) stringDate);
+    }
+    return null;
+  }
+
+  /**
+   * Parses the legacy `lastupdated` strings, e.g. `2015-08-13 00:27:59.177000000`, in the local
+   * time zone. Only the seconds precision prefix is read.
+   *
+   * @param stringDate - date string.
+   * @return Date object or null if the string cannot be parsed.
+   */
+  static Date parseDate(String stringDate) {
     if (stringDate == null) {
       return null;
     }
+    if (stringDate.length() < LAST_UPDATED_LENGTH) {
+      log.error("Error parsing `{}` string into Date object: too short", stringDate);
+      return null;
+    }
     try {
-      if (stringDate instanceof String) {
-        return sdf.parse((String) stringDate);
-      }
-      if (stringDate instanceof Date) {
-        return (Date) stringDate;
-      }
-    } catch (ParseException ex) {
+      LocalDateTime dateTime =
+          LocalDateTime.parse(stringDate.substring(0, LAST_UPDATED_LENGTH), LAST_UPDATED_FORMAT);
+      return Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
+    } catch (DateTimeParseException ex) {
       log.error("Error parsing `{}` string into Date object: {}", stringDate, ex.getMessage());
     }
     return null;
@@ -105,9 +239,13 @@ public class MovieDocumentMapper {
     if (document == null) {
       return tomatoes;
     }
-    tomatoes.setLastUpdated(parseDate(document.getString("lastupdated")));
-    if (document.containsKey("viewer")) {
-      tomatoes.setViewer(mapToViewerRating((Document) document.get("viewer")));
+    // the dataset spells it `lastUpdated`, like MovieCodec reads it; `lastupdated` is a fallback
+    Object lastUpdated = document.get("lastUpdated");
+    tomatoes.setLastUpdated(
+        parseDate(lastUpdated != null ? lastUpdated : document.get("lastupdated")));
+    Object viewer = document.get("viewer");
+    if (viewer != null) {
+      tomatoes.setViewer(mapToViewerRating((Document) viewer));
     }
 
     return tomatoes;
@@ -118,8 +256,14 @@ public class MovieDocumentMapper {
     if (document == null) {
       return viewer;
     }
-    viewer.setNumReviews(document.getInteger("numReviews"));
-    viewer.setRating(document.getDouble("rating"));
+    Object numReviews = document.get("numReviews");
+    if (numReviews != null) {
+      viewer.setNumReviews(parseInt(numReviews));
+    }
+    Object rating = document.get("rating");
+    if (rating != null) {
+      viewer.setRating(parseDouble(rating));
+    }
 
     return viewer;
   }
@@ -137,6 +281,9 @@ public class MovieDocumentMapper {
   }
 
   public static Integer parseInt(Object o) {
+    if (o instanceof Integer) {
+      return (Integer) o;
+    }
     if (o instanceof String) {
       if ("".equals(o)) {
         return 0;
@@ -147,6 +294,9 @@ public class MovieDocumentMapper {
   }
 
   private static Double parseDouble(Object rating) {
+    if (rating instanceof Double) {
+      return (Double) rating;
+    }
     if (rating instanceof String) {
       if ("".equals(rating)) {
         return (double) 0;
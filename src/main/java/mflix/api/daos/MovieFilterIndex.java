@@ -0,0 +1,466 @@
+package mflix.api.daos;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.model.Projections;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory posting-list index of the `cast`, `genres` and `countries` of every movie, answering
+ * the `$in` filters of the listing endpoints without going to the multikey indexes. Enabled with
+ * `api.movies.filter_index.enabled`.
+ *
+ * <p>Movies get dense ordinals in `{tomatoes.viewer.numReviews: -1, _id: -1}` order, the order of
+ * the listings, and every value maps to the {@link PostingList} of the movies holding it. A union
+ * of lists is therefore already sorted: counts are cardinalities, and a page is the next `limit`
+ * ordinals from the skip or keyset position. Only the `_id`s come from memory; the movies
+ * themselves are then read by `_id`.
+ *
+ * <p>The numeric {@link Column}s of every movie are kept alongside, as one `double[]` per column
+ * indexed by ordinal, so a {@link Selection} can be aggregated without reading any document.
+ *
+ * <p>The index is loaded at startup and kept current by the `movies` change stream (see
+ * `api.change_streams.enabled`), or reloaded every `reload_interval_ms` without it. Every event
+ * and reload is applied on the index thread, and the immutable snapshot that queries read is
+ * rebuilt from it at most once per `rebuild_delay_ms`, so results may lag writes by that much.
+ */
+@Component
+public class MovieFilterIndex extends MovieChangeIndex {
+
+  /** Indexed array fields. */
+  public enum Field {
+    CAST("cast"),
+    GENRES("genres"),
+    COUNTRIES("countries");
+
+    private final String key;
+
+    Field(String key) {
+      this.key = key;
+    }
+
+    public String getKey() {
+      return key;
+    }
+  }
+
+  /** Numeric fields stored column-wise. Missing and non-numeric values are NaN. */
+  public enum Column {
+    RUNTIME("runtime"),
+    METACRITIC("metacritic"),
+    YEAR("year"),
+    IMDB_RATING("imdb.rating"),
+    NUM_REVIEWS(MovieDao.KEYSET_SORT_KEY);
+
+    private final String key;
+
+    Column(String key) {
+      this.key = key;
+    }
+
+    public String getKey() {
+      return key;
+    }
+  }
+
+  /**
+   * Movies matching a filter, as ordinals in listing order, together with the columns of the
+   * snapshot they were selected from. The arrays are shared and must be treated as read-only.
+   */
+  public static final class Selection {
+
+    private final Snapshot snapshot;
+
+    private final int[] ordinals;
+
+    private Selection(Snapshot snapshot, int[] ordinals) {
+      this.snapshot = snapshot;
+      this.ordinals = ordinals;
+    }
+
+    public int size() {
+      return ordinals.length;
+    }
+
+    public int[] ordinals() {
+      return ordinals;
+    }
+
+    /** Values of a column, indexed by ordinal. */
+    public double[] column(Column column) {
+      return snapshot.columns[column.ordinal()];
+    }
+
+    /** The selected movies from `skip` on, at most `limit` of them. */
+    public Selection page(int skip, int limit) {
+      int from = Math.min(skip, ordinals.length);
+      int to = (int) Math.min((long) from + limit, ordinals.length);
+      return new Selection(snapshot, Arrays.copyOfRange(ordinals, from, to));
+    }
+
+    public List<ObjectId> ids() {
+      List<ObjectId> ids = new ArrayList<>(ordinals.length);
+      for (int ordinal : ordinals) {
+        ids.add(snapshot.ranks[ordinal].id);
+      }
+      return ids;
+    }
+  }
+
+  /** Listing position of a movie. */
+  private static class Rank {
+
+    /** See {@link PageToken#compareSortValues}. */
+    final Object sortValue;
+
+    final ObjectId id;
+
+    Rank(Object sortValue, ObjectId id) {
+      this.sortValue = sortValue;
+      this.id = id;
+    }
+  }
+
+  /** Indexed fields of a movie. */
+  private static class Entry extends Rank {
+
+    final Map<Field, List<String>> values = new EnumMap<>(Field.class);
+
+    final double[] numbers = new double[Column.values().length];
+
+    Entry(Object sortValue, ObjectId id) {
+      super(sortValue, id);
+    }
+  }
+
+  /** What queries read: ranks and columns by ordinal, and the posting lists of every value. */
+  private static class Snapshot {
+
+    final Rank[] ranks;
+
+    final Map<Field, Map<String, PostingList>> postings;
+
+    final double[][] columns;
+
+    Snapshot(Rank[] ranks, Map<Field, Map<String, PostingList>> postings, double[][] columns) {
+      this.ranks = ranks;
+      this.postings = postings;
+      this.columns = columns;
+    }
+  }
+
+  /**
+   * Listing order: numReviews descending, legacy string values first and missing values last, then
+   * `_id` descending.
+   */
+  private static final Comparator<Rank> LISTING_ORDER =
+      (a, b) -> {
+        int order = PageToken.compareSortValues(a.sortValue, b.sortValue);
+        return order != 0 ? order : b.id.compareTo(a.id);
+      };
+
+  private static final Logger log = LoggerFactory.getLogger(MovieFilterIndex.class);
+
+  @Value("${api.movies.filter_index.enabled:false}")
+  private boolean enabled;
+
+  @Value("${api.movies.filter_index.rebuild_delay_ms:1000}")
+  private long rebuildDelayMs = 1000;
+
+  @Value("${api.movies.filter_index.reload_interval_ms:0}")
+  private long reloadIntervalMs;
+
+  private final Timer rebuildTimer;
+
+  /** Current fields of every movie, only touched on the index thread. */
+  private final Map<ObjectId, Entry> entries = new HashMap<>();
+
+  private volatile Snapshot snapshot;
+
+  @Autowired
+  public MovieFilterIndex(
+      MongoClient mongoClient,
+      @Value("${spring.mongodb.database}") String databaseName,
+      MeterRegistry meterRegistry) {
+    super(mongoClient, databaseName, "movie-filter-index", indexedKeys());
+    this.rebuildTimer = Timer.builder("mflix.movie_filter_index.rebuild").register(meterRegistry);
+    Gauge.builder("mflix.movie_filter_index.movies", this, MovieFilterIndex::size)
+        .register(meterRegistry);
+  }
+
+  @PostConstruct
+  public void start() {
+    if (!enabled) {
+      return;
+    }
+    ScheduledExecutorService scheduler = startIndexThread();
+    if (reloadIntervalMs > 0) {
+      scheduler.scheduleWithFixedDelay(
+          this::reload, reloadIntervalMs, reloadIntervalMs, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Override
+  protected boolean isEnabled() {
+    return enabled;
+  }
+
+  /** Whether the index was built and can answer queries. */
+  public boolean isLoaded() {
+    return snapshot != null;
+  }
+
+  private double size() {
+    Snapshot current = snapshot;
+    return current == null ? 0 : current.ranks.length;
+  }
+
+  /**
+   * Counts the movies holding any of the values.
+   *
+   * @param field - filtered field.
+   * @param values - `$in` selector.
+   * @return number of matching movies.
+   */
+  public long count(Field field, String... values) {
+    return matching(loaded(), field, values).cardinality();
+  }
+
+  /**
+   * Returns the `_id`s of a page of movies holding any of the values, in listing order.
+   *
+   * @param field - filtered field.
+   * @param skip - number of matching movies to be skipped.
+   * @param limit - max number of returned ids.
+   * @param values - `$in` selector.
+   * @return list of movie ids.
+   */
+  public List<ObjectId> page(Field field, int skip, int limit, String... values) {
+    Snapshot current = loaded();
+    PostingList matches = matching(current, field, values);
+    int ordinal = matches.next(0);
+    for (int skipped = 0; skipped < skip && ordinal >= 0; skipped++) {
+      ordinal = matches.next(ordinal + 1);
+    }
+    return collect(current, matches, ordinal, limit);
+  }
+
+  /**
+   * Keyset variant of {@link #page(Field, int, int, String...)}.
+   *
+   * @param field - filtered field.
+   * @param after - token of the previous page, or null for the first page.
+   * @param limit - max number of returned ids.
+   * @param values - `$in` selector.
+   * @return list of movie ids.
+   */
+  public List<ObjectId> page(Field field, PageToken after, int limit, String... values) {
+    Snapshot current = loaded();
+    PostingList matches = matching(current, field, values);
+    int from = 0;
+    if (after != null) {
+      from = firstAfter(current, new Rank(after.sortValue(), after.getId()));
+    }
+    return collect(current, matches, matches.next(from), limit);
+  }
+
+  /**
+   * Selects every movie holding any of the values.
+   *
+   * @param field - filtered field.
+   * @param values - `$in` selector.
+   * @return Selection object.
+   */
+  public Selection select(Field field, String... values) {
+    Snapshot current = loaded();
+    return new Selection(current, matching(current, field, values).toArray());
+  }
+
+  private Snapshot loaded() {
+    Snapshot current = snapshot;
+    if (current == null) {
+      throw new IllegalStateException("movie filter index is not loaded");
+    }
+    return current;
+  }
+
+  private static PostingList matching(Snapshot current, Field field, String... values) {
+    Map<String, PostingList> postings = current.postings.get(field);
+    List<PostingList> lists = new ArrayList<>();
+    if (values != null) {
+      for (String value : new LinkedHashSet<>(Arrays.asList(values))) {
+        PostingList list = value == null ? null : postings.get(value);
+        if (list != null) {
+          lists.add(list);
+        }
+      }
+    }
+    if (lists.isEmpty()) {
+      return PostingList.EMPTY;
+    }
+    if (lists.size() == 1) {
+      return lists.get(0);
+    }
+    BitSet union = new BitSet(current.ranks.length);
+    for (PostingList list : lists) {
+      list.addTo(union);
+    }
+    return PostingList.of(union);
+  }
+
+  private static List<ObjectId> collect(
+      Snapshot current, PostingList matches, int ordinal, int limit) {
+    List<ObjectId> ids = new ArrayList<>(Math.min(limit, matches.cardinality()));
+    while (ordinal >= 0 && ids.size() < limit) {
+      ids.add(current.ranks[ordinal].id);
+      ordinal = matches.next(ordinal + 1);
+    }
+    return ids;
+  }
+
+  /** First ordinal that sorts after `rank`. */
+  private static int firstAfter(Snapshot current, Rank rank) {
+    int low = 0;
+    int high = current.ranks.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (LISTING_ORDER.compare(current.ranks[middle], rank) <= 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /** Reads the indexed fields of every movie again, and rebuilds the snapshot right away. */
+  @Override
+  protected void reload() {
+    try {
+      List<Document> movies = new ArrayList<>();
+      db.getCollection(MovieDao.MOVIES_COLLECTION)
+          .find()
+          .projection(Projections.include(indexedKeys()))
+          .into(movies);
+      entries.clear();
+      movies.forEach(this::put);
+      rebuild();
+    } catch (MongoException ex) {
+      log.warn("Could not load the movie filter index: {}", ex.getMessage());
+    }
+  }
+
+  /** Adds or replaces the entry of a movie. Package-private for tests. */
+  void put(Document movie) {
+    ObjectId id = movie.getObjectId("_id");
+    Entry entry = new Entry(PageToken.after(movie, MovieDao.KEYSET_SORT_KEY).sortValue(), id);
+    for (Field field : Field.values()) {
+      List<String> values = new ArrayList<>();
+      Object array = movie.get(field.key);
+      if (array instanceof List) {
+        for (Object value : (List<?>) array) {
+          if (value instanceof String) {
+            values.add((String) value);
+          }
+        }
+      }
+      entry.values.put(field, values);
+    }
+    for (Column column : Column.values()) {
+      Object value = movie;
+      for (String part : column.key.split("\\.")) {
+        value = value instanceof Document ? ((Document) value).get(part) : null;
+      }
+      entry.numbers[column.ordinal()] =
+          value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+    }
+    entries.put(id, entry);
+  }
+
+  /** Removes the entry of a movie. Package-private for tests. */
+  void remove(ObjectId id) {
+    entries.remove(id);
+  }
+
+  @Override
+  protected void apply(ObjectId id, Document movie) {
+    if (movie != null) {
+      put(movie);
+    } else {
+      remove(id);
+    }
+    scheduleRebuild(rebuildDelayMs);
+  }
+
+  /** Sorts the entries into ordinals and builds the posting lists. Package-private for tests. */
+  @Override
+  void rebuild() {
+    rebuildTimer.record(
+        () -> {
+          List<Entry> sorted = new ArrayList<>(entries.values());
+          sorted.sort(LISTING_ORDER);
+          Map<Field, Map<String, PostingList.Builder>> builders = new EnumMap<>(Field.class);
+          for (Field field : Field.values()) {
+            builders.put(field, new HashMap<>());
+          }
+          Rank[] ranks = new Rank[sorted.size()];
+          double[][] columns = new double[Column.values().length][ranks.length];
+          for (int ordinal = 0; ordinal < ranks.length; ordinal++) {
+            Entry entry = sorted.get(ordinal);
+            ranks[ordinal] = new Rank(entry.sortValue, entry.id);
+            for (int column = 0; column < columns.length; column++) {
+              columns[column][ordinal] = entry.numbers[column];
+            }
+            for (Field field : Field.values()) {
+              Map<String, PostingList.Builder> fieldBuilders = builders.get(field);
+              for (String value : entry.values.get(field)) {
+                fieldBuilders.computeIfAbsent(value, key -> new PostingList.Builder()).add(ordinal);
+              }
+            }
+          }
+          Map<Field, Map<String, PostingList>> postings = new EnumMap<>(Field.class);
+          for (Field field : Field.values()) {
+            Map<String, PostingList> lists = new HashMap<>();
+            builders
+                .get(field)
+                .forEach((value, builder) -> lists.put(value, builder.build(ranks.length)));
+            postings.put(field, Collections.unmodifiableMap(lists));
+          }
+          snapshot = new Snapshot(ranks, postings, columns);
+        });
+  }
+
+  private static List<String> indexedKeys() {
+    List<String> keys = new ArrayList<>();
+    for (Field field : Field.values()) {
+      keys.add(field.key);
+    }
+    for (Column column : Column.values()) {
+      keys.add(column.key);
+    }
+    return keys;
+  }
+}
@@ -0,0 +1,202 @@
+package mflix.api.daos;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.model.Projections;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * In-process full-text search over the `title`, `plot`, `fullplot`, `cast` and `directors` of
+ * every movie, ranked with BM25 by an {@link InvertedIndex}. It replaces the `$text` query and its
+ * separate `countDocuments` when `api.movies.text.engine` is `bm25`: one pass scores every
+ * matching movie, counts them and keeps the best `skip + limit` in a heap.
+ *
+ * <p>The index is loaded at startup and updated movie by movie from the `movies` change stream
+ * (see `api.change_streams.enabled`). Events and reloads are applied on the index thread.
+ * Searches are timed under `mflix.movies.text_index.search`.
+ */
+@Component
+public class MovieTextIndex extends MovieChangeIndex {
+
+  /** Text search implementations of the movie text search endpoint. */
+  public enum Engine {
+    /** The server `$text` index. */
+    MONGO,
+    /** This index. */
+    BM25
+  }
+
+  /** Matching movie and its score. */
+  public static final class Hit {
+
+    private final ObjectId id;
+
+    private final double score;
+
+    Hit(ObjectId id, double score) {
+      this.id = id;
+      this.score = score;
+    }
+
+    public ObjectId getId() {
+      return id;
+    }
+
+    public double getScore() {
+      return score;
+    }
+  }
+
+  /** Page of hits, best first, and the number of matching movies. */
+  public static final class SearchResult {
+
+    private final List<Hit> hits;
+
+    private final long total;
+
+    SearchResult(List<Hit> hits, long total) {
+      this.hits = hits;
+      this.total = total;
+    }
+
+    public List<Hit> getHits() {
+      return hits;
+    }
+
+    public List<ObjectId> getIds() {
+      List<ObjectId> ids = new ArrayList<>(hits.size());
+      hits.forEach(hit -> ids.add(hit.getId()));
+      return ids;
+    }
+
+    public long getTotal() {
+      return total;
+    }
+  }
+
+  static final List<String> TEXT_FIELDS =
+      Arrays.asList("title", "plot", "fullplot", "cast", "directors");
+
+  private static final Logger log = LoggerFactory.getLogger(MovieTextIndex.class);
+
+  private final Engine engine;
+
+  private final double k1;
+
+  private final double b;
+
+  private final Timer searchTimer;
+
+  private volatile InvertedIndex index;
+
+  @Autowired
+  public MovieTextIndex(
+      MongoClient mongoClient,
+      @Value("${spring.mongodb.database}") String databaseName,
+      MeterRegistry meterRegistry,
+      @Value("${api.movies.text.engine:mongo}") String engine,
+      @Value("${api.movies.text.bm25.k1:1.2}") double k1,
+      @Value("${api.movies.text.bm25.b:0.75}") double b) {
+    super(mongoClient, databaseName, "movie-text-index", TEXT_FIELDS);
+    this.engine = Engine.valueOf(engine.trim().toUpperCase(Locale.ROOT));
+    this.k1 = k1;
+    this.b = b;
+    this.searchTimer = Timer.builder("mflix.movies.text_index.search").register(meterRegistry);
+  }
+
+  @PostConstruct
+  public void start() {
+    if (engine == Engine.BM25) {
+      startIndexThread();
+    }
+  }
+
+  @Override
+  protected boolean isEnabled() {
+    return engine == Engine.BM25;
+  }
+
+  /** Whether text searches should be answered by this index: it is configured and loaded. */
+  public boolean isActive() {
+    return engine == Engine.BM25 && index != null;
+  }
+
+  /**
+   * Searches the movies, with the `$search` syntax of `$text`.
+   *
+   * @param keywords - terms, `"phrases"` and `-excluded` terms.
+   * @param skip - number of best matches to be skipped.
+   * @param limit - max number of returned matches.
+   * @return SearchResult object.
+   */
+  public SearchResult search(String keywords, int skip, int limit) {
+    InvertedIndex current = index;
+    if (current == null) {
+      throw new IllegalStateException("movie text index is not loaded");
+    }
+    return searchTimer.record(() -> current.search(keywords, skip, limit));
+  }
+
+  /** Text of the indexed fields of a movie, every array element on its own. */
+  static List<String> texts(Document movie) {
+    List<String> texts = new ArrayList<>();
+    for (String field : TEXT_FIELDS) {
+      Object value = movie.get(field);
+      if (value instanceof String) {
+        texts.add((String) value);
+      } else if (value instanceof List) {
+        for (Object element : (List<?>) value) {
+          if (element instanceof String) {
+            texts.add((String) element);
+          }
+        }
+      }
+    }
+    return texts;
+  }
+
+  @Override
+  protected void reload() {
+    try {
+      InvertedIndex loaded = new InvertedIndex(k1, b);
+      for (Document movie :
+          db.getCollection(MovieDao.MOVIES_COLLECTION)
+              .find()
+              .projection(Projections.include(TEXT_FIELDS))) {
+        loaded.put(movie.getObjectId("_id"), texts(movie));
+      }
+      index = loaded;
+      log.info("Movie text index loaded with {} movies", loaded.size());
+    } catch (MongoException ex) {
+      log.warn("Could not load the movie text index: {}", ex.getMessage());
+    }
+  }
+
+  @Override
+  protected void apply(ObjectId id, Document movie) {
+    InvertedIndex current = index;
+    if (current == null || id == null) {
+      // the pending load reads the change
+      return;
+    }
+    if (movie != null) {
+      current.put(id, texts(movie));
+    } else {
+      current.remove(id);
+    }
+  }
+}
@@ -0,0 +1,174 @@
+package mflix.api.daos;
+
+import com.mongodb.client.model.Filters;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque continuation token for keyset (seek) pagination over movies sorted by `{sortKey: -1, _id:
+ * -1}`. It carries the sort key value and `_id` of the last movie of a page, and turns them into a
+ * range predicate that the next page starts from, so no documents have to be skipped.
+ *
+ * <p>The sort key is expected to be numeric, but legacy documents may hold strings there, which
+ * MongoDB sorts above every number in descending order. The token records whether its value is a
+ * number or a string, and {@link #compareSortValues} mirrors that order for in-memory listings.
+ * Limitations: numbers are compared as longs, so fractions are truncated, and any other BSON type
+ * (arrays, documents, booleans) is treated as missing, so pages around such documents may repeat
+ * or skip them.
+ */
+public final class PageToken {
+
+  private static final String NULL_KEY = "~";
+
+  /** Prefix of string sort values, which can never start a number. */
+  private static final String STRING_PREFIX = "'";
+
+  /** Sort key value: a Long, a String, or null when missing or of another type. */
+  private final Object sortValue;
+
+  private final ObjectId id;
+
+  public PageToken(Long sortValue, ObjectId id) {
+    this((Object) sortValue, id);
+  }
+
+  private PageToken(Object sortValue, ObjectId id) {
+    if (id == null) {
+      throw new IllegalArgumentException("page token requires an _id");
+    }
+    this.sortValue = sortValue;
+    this.id = id;
+  }
+
+  /**
+   * Builds the token that continues after the given movie document.
+   *
+   * @param lastMovie - last document of the current page.
+   * @param sortKey - dotted path of the numeric sort key, e.g. `tomatoes.viewer.numReviews`.
+   * @return PageToken object.
+   */
+  public static PageToken after(Document lastMovie, String sortKey) {
+    Object value = lastMovie;
+    for (String part : sortKey.split("\\.")) {
+      value = value instanceof Document ? ((Document) value).get(part) : null;
+    }
+    Object sortValue = null;
+    if (value instanceof Number) {
+      sortValue = ((Number) value).longValue();
+    } else if (value instanceof String) {
+      sortValue = value;
+    }
+    return new PageToken(sortValue, lastMovie.getObjectId("_id"));
+  }
+
+  /**
+   * Decodes a token produced by {@link #encode()}.
+   *
+   * @param token - url safe token string.
+   * @return PageToken object.
+   * @throws IllegalArgumentException if the token is malformed.
+   */
+  public static PageToken decode(String token) {
+    String raw;
+    try {
+      raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+    } catch (IllegalArgumentException ex) {
+      throw new IllegalArgumentException("malformed page token", ex);
+    }
+    // string values may hold a `:`, the _id never does
+    int separator = raw.lastIndexOf(':');
+    if (separator < 1 || !ObjectId.isValid(raw.substring(separator + 1))) {
+      throw new IllegalArgumentException("malformed page token");
+    }
+    String sortPart = raw.substring(0, separator);
+    try {
+      Object sortValue;
+      if (NULL_KEY.equals(sortPart)) {
+        sortValue = null;
+      } else if (sortPart.startsWith(STRING_PREFIX)) {
+        sortValue = sortPart.substring(STRING_PREFIX.length());
+      } else {
+        sortValue = Long.valueOf(sortPart);
+      }
+      return new PageToken(sortValue, new ObjectId(raw.substring(separator + 1)));
+    } catch (NumberFormatException ex) {
+      throw new IllegalArgumentException("malformed page token", ex);
+    }
+  }
+
+  public String encode() {
+    String sortPart;
+    if (sortValue == null) {
+      sortPart = NULL_KEY;
+    } else if (sortValue instanceof String) {
+      sortPart = STRING_PREFIX + sortValue;
+    } else {
+      sortPart = sortValue.toString();
+    }
+    String raw = sortPart + ":" + id.toHexString();
+    return Base64.getUrlEncoder()
+        .withoutPadding()
+        .encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Range predicate selecting the documents that follow this token in `{sortKey: -1, _id: -1}`
+   * order. Strings sort first, then numbers, and documents missing the sort key sort last.
+   *
+   * @param sortKey - dotted path of the sort key.
+   * @return Bson filter.
+   */
+  public Bson toFilter(String sortKey) {
+    Bson sameKeyLowerId = Filters.and(Filters.eq(sortKey, sortValue), Filters.lt("_id", id));
+    if (sortValue == null) {
+      return sameKeyLowerId;
+    }
+    // $lt only matches values of the same type, so the types sorting after need their own clause
+    Bson lowerKey = Filters.lt(sortKey, sortValue);
+    Bson missingKey = Filters.eq(sortKey, null);
+    if (sortValue instanceof String) {
+      return Filters.or(lowerKey, sameKeyLowerId, Filters.type(sortKey, "number"), missingKey);
+    }
+    return Filters.or(lowerKey, sameKeyLowerId, missingKey);
+  }
+
+  /**
+   * Compares sort values of {@link #after} in `{sortKey: -1}` order, as MongoDB does: strings
+   * first, then numbers, each descending, then missing values.
+   */
+  static int compareSortValues(Object a, Object b) {
+    int typeOrder = Integer.compare(typeRank(a), typeRank(b));
+    if (typeOrder != 0 || a == null) {
+      return typeOrder;
+    }
+    if (a instanceof String) {
+      return ((String) b).compareTo((String) a);
+    }
+    return Long.compare((Long) b, (Long) a);
+  }
+
+  private static int typeRank(Object sortValue) {
+    if (sortValue instanceof String) {
+      return 0;
+    }
+    return sortValue == null ? 2 : 1;
+  }
+
+  /** Numeric sort value, or null when it is missing or a string. */
+  public Long getSortValue() {
+    return sortValue instanceof Long ? (Long) sortValue : null;
+  }
+
+  /** Sort value of any type, see {@link #compareSortValues}. */
+  Object sortValue() {
+    return sortValue;
+  }
+
+  public ObjectId getId() {
+    return id;
+  }
+}
@@ -0,0 +1,116 @@
+package mflix.api.daos;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Immutable set of movie ordinals, stored the way a roaring bitmap stores a container: a sorted
+ * `int[]` while the set is sparse, a bitmap once it gets dense enough for the bitmap to be the
+ * smaller of the two. Most cast members appear in a handful of movies, while a few genres cover a
+ * large share of the catalog.
+ */
+final class PostingList {
+
+  static final PostingList EMPTY = new PostingList(new int[0], null, 0);
+
+  private final int[] ordinals;
+
+  private final BitSet bits;
+
+  private final int cardinality;
+
+  private PostingList(int[] ordinals, BitSet bits, int cardinality) {
+    this.ordinals = ordinals;
+    this.bits = bits;
+    this.cardinality = cardinality;
+  }
+
+  /**
+   * Builds the posting list of the given ordinals.
+   *
+   * @param sorted - strictly increasing ordinals. The first `size` entries are used.
+   * @param size - number of ordinals.
+   * @param universe - number of ordinals of the whole catalog.
+   * @return PostingList object.
+   */
+  static PostingList of(int[] sorted, int size, int universe) {
+    // 32 bits per array entry against one bit per movie of the catalog
+    if ((long) size * Integer.SIZE <= universe) {
+      return new PostingList(Arrays.copyOf(sorted, size), null, size);
+    }
+    BitSet bits = new BitSet(universe);
+    for (int i = 0; i < size; i++) {
+      bits.set(sorted[i]);
+    }
+    return new PostingList(null, bits, size);
+  }
+
+  /** Wraps a bitmap, e.g. the union of several lists. */
+  static PostingList of(BitSet bits) {
+    return new PostingList(null, bits, bits.cardinality());
+  }
+
+  int cardinality() {
+    return cardinality;
+  }
+
+  boolean isBitmap() {
+    return bits != null;
+  }
+
+  /** The ordinals of this list, in increasing order. */
+  int[] toArray() {
+    return bits != null ? bits.stream().toArray() : ordinals.clone();
+  }
+
+  /** Adds the ordinals of this list to `union`. */
+  void addTo(BitSet union) {
+    if (bits != null) {
+      union.or(bits);
+      return;
+    }
+    for (int ordinal : ordinals) {
+      union.set(ordinal);
+    }
+  }
+
+  /**
+   * Returns the first ordinal of this list that is greater than or equal to `from`.
+   *
+   * @param from - lowest ordinal.
+   * @return ordinal, or -1 if there is none.
+   */
+  int next(int from) {
+    if (bits != null) {
+      return bits.nextSetBit(from);
+    }
+    int index = Arrays.binarySearch(ordinals, from);
+    if (index < 0) {
+      index = -index - 1;
+    }
+    return index < ordinals.length ? ordinals[index] : -1;
+  }
+
+  /** Growable int array the lists are built from. */
+  static final class Builder {
+
+    private int[] ordinals = new int[4];
+
+    private int size;
+
+    /** Adds an ordinal, at least as high as the previous one. */
+    void add(int ordinal) {
+      if (size > 0 && ordinals[size - 1] == ordinal) {
+        return;
+      }
+      if (size == ordinals.length) {
+        ordinals = Arrays.copyOf(ordinals, size * 2);
+      }
+      ordinals[size++] = ordinal;
+    }
+
+    PostingList build(int universe) {
+      return PostingList.of(ordinals, size, universe);
+    }
+  }
+}
@@ -0,0 +1,247 @@
+package mflix.api.daos;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable, weighted prefix index answering "the `k` heaviest values with a word starting with
+ * this prefix". Keys are normalized: lower-cased, accents stripped and every run of other
+ * characters than letters and digits turned into one space, so `spider-m` finds `Spider-Man` and
+ * `bjork` finds `Björk`.
+ *
+ * <p>The keys are held in one `char[]`, and every word start of every key is a suffix in one
+ * sorted `int[]`, so a prefix maps to a contiguous range of suffixes found by two binary searches.
+ * A max segment tree over the weight of the suffixes yields the heaviest ones of a range
+ * best-first, in `O(k log n)` whatever the size of the range.
+ *
+ * @param <T> - value returned for a key.
+ */
+final class PrefixIndex<T> {
+
+  private static final Pattern ACCENTS = Pattern.compile("\\p{M}+");
+
+  private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+  /** Collects the keys, weights and values of an index. */
+  static final class Builder<T> {
+
+    private final StringBuilder chars = new StringBuilder();
+
+    private final List<Integer> offsets = new ArrayList<>();
+
+    private final List<Long> weights = new ArrayList<>();
+
+    private final List<T> values = new ArrayList<>();
+
+    /**
+     * Adds a key. Keys that normalize to nothing are ignored.
+     *
+     * @param key - text to be matched.
+     * @param weight - rank of the key, the higher the better.
+     * @param value - value returned when the key matches.
+     * @return this builder.
+     */
+    Builder<T> add(String key, long weight, T value) {
+      String normalized = normalize(key).trim();
+      if (!normalized.isEmpty()) {
+        offsets.add(chars.length());
+        chars.append(normalized);
+        weights.add(weight);
+        values.add(value);
+      }
+      return this;
+    }
+
+    PrefixIndex<T> build() {
+      return new PrefixIndex<>(this);
+    }
+  }
+
+  private final char[] chars;
+
+  /** Start of every key in `chars`, and its end as the start of the next one. */
+  private final int[] offsets;
+
+  private final long[] weights;
+
+  private final List<T> values;
+
+  /** Word starts in `chars`, sorted by the suffix from there to the end of their key. */
+  private final int[] suffixes;
+
+  /** Key of every suffix. */
+  private final int[] suffixKeys;
+
+  /** Max segment tree of suffix indexes by weight: leaves from `suffixes.length` on. */
+  private final int[] tree;
+
+  private PrefixIndex(Builder<T> builder) {
+    chars = builder.chars.toString().toCharArray();
+    offsets = new int[builder.offsets.size() + 1];
+    weights = new long[builder.weights.size()];
+    for (int key = 0; key < weights.length; key++) {
+      offsets[key] = builder.offsets.get(key);
+      weights[key] = builder.weights.get(key);
+    }
+    offsets[weights.length] = chars.length;
+    values = new ArrayList<>(builder.values);
+
+    List<int[]> starts = new ArrayList<>();
+    for (int key = 0; key < weights.length; key++) {
+      for (int start = offsets[key]; start < offsets[key + 1]; start++) {
+        if (start == offsets[key] || chars[start - 1] == ' ') {
+          starts.add(new int[] {start, key});
+        }
+      }
+    }
+    starts.sort((left, right) -> compareSuffixes(left[0], left[1], right[0], right[1]));
+    suffixes = new int[starts.size()];
+    suffixKeys = new int[starts.size()];
+    for (int i = 0; i < suffixes.length; i++) {
+      suffixes[i] = starts.get(i)[0];
+      suffixKeys[i] = starts.get(i)[1];
+    }
+
+    tree = new int[Math.max(2, 2 * suffixes.length)];
+    for (int i = 0; i < suffixes.length; i++) {
+      tree[suffixes.length + i] = i;
+    }
+    for (int node = suffixes.length - 1; node > 0; node--) {
+      tree[node] = heavier(tree[2 * node], tree[2 * node + 1]);
+    }
+  }
+
+  /**
+   * Lower-cases a text, strips its accents and replaces separators by single spaces.
+   *
+   * @param text - text to normalize.
+   * @return normalized text, with its leading and trailing spaces.
+   */
+  static String normalize(String text) {
+    String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+    String stripped = ACCENTS.matcher(decomposed).replaceAll("");
+    return SEPARATORS.matcher(stripped.toLowerCase(Locale.ROOT)).replaceAll(" ");
+  }
+
+  int size() {
+    return weights.length;
+  }
+
+  /**
+   * Finds the heaviest keys with a word starting with a prefix. A trailing separator in the prefix
+   * is kept, so `the ` does not match `Thelma`.
+   *
+   * @param prefix - prefix typed so far.
+   * @param limit - max number of returned values.
+   * @return values of the matching keys, heaviest first, each key once.
+   */
+  List<T> top(String prefix, int limit) {
+    char[] normalized = normalize(prefix).replaceFirst("^ ", "").toCharArray();
+    List<T> found = new ArrayList<>();
+    if (normalized.length == 0 || limit <= 0 || suffixes.length == 0) {
+      return found;
+    }
+    int from = bound(normalized, false);
+    int to = bound(normalized, true);
+
+    // ranges of suffixes, by their heaviest one
+    PriorityQueue<int[]> ranges =
+        new PriorityQueue<>((left, right) -> heavier(left[2], right[2]) == left[2] ? -1 : 1);
+    if (from < to) {
+      ranges.add(new int[] {from, to, heaviest(from, to)});
+    }
+    BitSet returned = new BitSet(weights.length);
+    while (!ranges.isEmpty() && found.size() < limit) {
+      int[] range = ranges.poll();
+      int best = range[2];
+      int key = suffixKeys[best];
+      if (!returned.get(key)) {
+        returned.set(key);
+        found.add(values.get(key));
+      }
+      if (range[0] < best) {
+        ranges.add(new int[] {range[0], best, heaviest(range[0], best)});
+      }
+      if (best + 1 < range[1]) {
+        ranges.add(new int[] {best + 1, range[1], heaviest(best + 1, range[1])});
+      }
+    }
+    return found;
+  }
+
+  /** The heavier of two suffixes, or the one of the first added key on a tie. */
+  private int heavier(int left, int right) {
+    int byWeight = Long.compare(weights[suffixKeys[left]], weights[suffixKeys[right]]);
+    if (byWeight != 0) {
+      return byWeight > 0 ? left : right;
+    }
+    return suffixKeys[left] <= suffixKeys[right] ? left : right;
+  }
+
+  /** Heaviest suffix of `[from, to)`. */
+  private int heaviest(int from, int to) {
+    int best = -1;
+    for (int low = from + suffixes.length, high = to + suffixes.length;
+        low < high;
+        low >>= 1, high >>= 1) {
+      if ((low & 1) == 1) {
+        best = best < 0 ? tree[low] : heavier(best, tree[low]);
+        low++;
+      }
+      if ((high & 1) == 1) {
+        high--;
+        best = best < 0 ? tree[high] : heavier(best, tree[high]);
+      }
+    }
+    return best;
+  }
+
+  /** First suffix not below the prefix or, when `after`, first suffix not starting with it. */
+  private int bound(char[] prefix, boolean after) {
+    int low = 0;
+    int high = suffixes.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      int comparison = comparePrefix(middle, prefix);
+      if (comparison < 0 || (after && comparison == 0)) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /** Compares the start of a suffix with a prefix: 0 when the suffix starts with it. */
+  private int comparePrefix(int suffix, char[] prefix) {
+    int start = suffixes[suffix];
+    int end = offsets[suffixKeys[suffix] + 1];
+    for (int i = 0; i < prefix.length; i++) {
+      if (start + i == end) {
+        return -1;
+      }
+      int byChar = Character.compare(chars[start + i], prefix[i]);
+      if (byChar != 0) {
+        return byChar;
+      }
+    }
+    return 0;
+  }
+
+  private int compareSuffixes(int left, int leftKey, int right, int rightKey) {
+    int leftEnd = offsets[leftKey + 1];
+    int rightEnd = offsets[rightKey + 1];
+    while (left < leftEnd && right < rightEnd) {
+      int byChar = Character.compare(chars[left++], chars[right++]);
+      if (byChar != 0) {
+        return byChar;
+      }
+    }
+    return Integer.compare(leftEnd - left, rightEnd - right);
+  }
+}
@@ -0,0 +1,376 @@
+package mflix.api.daos;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.PushOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.result.UpdateResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Filters.ne;
+import static com.mongodb.client.model.Filters.nin;
+
+/**
+ * Subset pattern for movie comments: with `api.movies.recent_comments.enabled`, every movie
+ * document carries its newest comments under `recent_comments`, at most
+ * `api.movies.recent_comments.size` of them, and its number of comments under `num_comments`. The
+ * movie detail view is then a single point read instead of a `$lookup` over `comments`.
+ *
+ * <p>{@link CommentDao} keeps both fields up to date after every acknowledged comment write, with
+ * updates that can be replayed safely: pushes are guarded on the comment not being embedded yet and
+ * pulls are no-ops once applied. Only movies that were backfilled, i.e. that have `num_comments`,
+ * are maintained. A maintenance update that fails after its comment was stored is logged, counted
+ * in `mflix.recent_comments.failures`, and left to the consistency check.
+ *
+ * <p>{@link #backfill()} computes both fields for every movie from the `comments` collection.
+ * {@link #check(int, boolean)} compares a sample of movies with the `comments` collection, counts
+ * the mismatches in `mflix.recent_comments.mismatches` and optionally repairs them. It runs every
+ * `api.movies.recent_comments.check_interval_ms` if set.
+ */
+@Component
+public class RecentCommentsSubset extends AbstractMFlixDao {
+
+  public static final String RECENT_COMMENTS = "recent_comments";
+
+  public static final String NUM_COMMENTS = "num_comments";
+
+  private static final Logger log = LoggerFactory.getLogger(RecentCommentsSubset.class);
+
+  private final MongoCollection<Document> movies;
+
+  private final MongoCollection<Document> comments;
+
+  @Value("${api.movies.recent_comments.enabled:false}")
+  private boolean enabled;
+
+  @Value("${api.movies.recent_comments.size:10}")
+  private int size = 10;
+
+  @Value("${api.movies.recent_comments.check_interval_ms:0}")
+  private long checkIntervalMs;
+
+  @Value("${api.movies.recent_comments.check_sample_size:100}")
+  private int checkSampleSize = 100;
+
+  @Autowired(required = false)
+  private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private Counter failures;
+
+  private Counter mismatches;
+
+  private ScheduledExecutorService checker;
+
+  @Autowired
+  public RecentCommentsSubset(
+      MongoClient mongoClient, @Value("${spring.mongodb.database}") String databaseName) {
+    super(mongoClient, databaseName);
+    this.movies = db.getCollection(MovieDao.MOVIES_COLLECTION);
+    this.comments = db.getCollection(CommentDao.COMMENT_COLLECTION);
+  }
+
+  @PostConstruct
+  public void start() {
+    failures = Counter.builder("mflix.recent_comments.failures").register(meterRegistry);
+    mismatches = Counter.builder("mflix.recent_comments.mismatches").register(meterRegistry);
+    if (!enabled || checkIntervalMs <= 0) {
+      return;
+    }
+    checker =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "recent-comments-check");
+              thread.setDaemon(true);
+              return thread;
+            });
+    checker.scheduleWithFixedDelay(
+        () -> {
+          try {
+            check(checkSampleSize, true);
+          } catch (MongoException ex) {
+            log.warn("Recent comments check failed: {}", ex.getMessage());
+          }
+        },
+        checkIntervalMs,
+        checkIntervalMs,
+        TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (checker != null) {
+      checker.shutdownNow();
+    }
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Embeds a new comment in its movie and counts it.
+   *
+   * @param comment - comment document, as stored in the `comments` collection.
+   */
+  public void commentAdded(Document comment) {
+    if (!enabled) {
+      return;
+    }
+    Bson notEmbedded =
+        and(maintained(comment.get("movie_id")), ne(RECENT_COMMENTS + "._id", comment.get("_id")));
+    maintain(
+        "add",
+        () ->
+            movies.updateOne(
+                notEmbedded,
+                Updates.combine(
+                    pushNewest(Collections.singletonList(comment)), Updates.inc(NUM_COMMENTS, 1))));
+  }
+
+  /**
+   * Replaces the embedded version of an edited comment. An edited comment that was not embedded
+   * becomes one of the newest comments, so it is embedded as well.
+   *
+   * @param comment - comment document, as stored in the `comments` collection.
+   */
+  public void commentUpdated(Document comment) {
+    if (!enabled) {
+      return;
+    }
+    Object movieId = comment.get("movie_id");
+    Object commentId = comment.get("_id");
+    maintain(
+        "update",
+        () -> {
+          // a single update cannot both pull and push `recent_comments`
+          movies.updateOne(maintained(movieId), pullComment(commentId));
+          movies.updateOne(
+              and(maintained(movieId), ne(RECENT_COMMENTS + "._id", commentId)),
+              pushNewest(Collections.singletonList(comment)));
+        });
+  }
+
+  /**
+   * Removes a deleted comment from its movie and uncounts it. If older comments exist, the next
+   * newest one is embedded in its place.
+   *
+   * @param movieId - movie identifier.
+   * @param commentId - deleted comment identifier.
+   */
+  public void commentDeleted(ObjectId movieId, ObjectId commentId) {
+    if (!enabled) {
+      return;
+    }
+    maintain(
+        "delete",
+        () -> {
+          Document movie =
+              movies.findOneAndUpdate(
+                  and(maintained(movieId), eq(RECENT_COMMENTS + "._id", commentId)),
+                  Updates.combine(pullComment(commentId), Updates.inc(NUM_COMMENTS, -1)),
+                  new FindOneAndUpdateOptions()
+                      .projection(Projections.include(NUM_COMMENTS, RECENT_COMMENTS + "._id"))
+                      .returnDocument(ReturnDocument.AFTER));
+          if (movie == null) {
+            // not embedded: only the count changes
+            movies.updateOne(maintained(movieId), Updates.inc(NUM_COMMENTS, -1));
+            return;
+          }
+          List<Document> embedded = embedded(movie);
+          if (embedded.size() < size && numComments(movie) > embedded.size()) {
+            refill(movieId, embedded);
+          }
+        });
+  }
+
+  private void refill(ObjectId movieId, List<Document> embedded) {
+    Set<Object> embeddedIds = new HashSet<>();
+    embedded.forEach(comment -> embeddedIds.add(comment.get("_id")));
+    List<Document> missing = new ArrayList<>();
+    List<Object> missingIds = new ArrayList<>();
+    for (Document comment : newestComments(movieId)) {
+      if (!embeddedIds.contains(comment.get("_id"))) {
+        missing.add(comment);
+        missingIds.add(comment.get("_id"));
+      }
+    }
+    if (!missing.isEmpty()) {
+      movies.updateOne(
+          and(maintained(movieId), nin(RECENT_COMMENTS + "._id", missingIds)),
+          pushNewest(missing));
+    }
+  }
+
+  /**
+   * Computes `recent_comments` and `num_comments` of every movie from the `comments` collection,
+   * server side with `$merge` (MongoDB 4.2+). Comment writes racing with the backfill may be
+   * missed, run {@link #check} after it.
+   *
+   * @return number of movies without comments that were initialized.
+   */
+  public long backfill() {
+    List<Bson> pipeline =
+        Arrays.asList(
+            Aggregates.sort(Sorts.descending("date", "_id")),
+            Aggregates.group(
+                "$movie_id", Accumulators.sum("count", 1), Accumulators.push("newest", "$$ROOT")),
+            Aggregates.project(
+                new Document(NUM_COMMENTS, "$count")
+                    .append(
+                        RECENT_COMMENTS, new Document("$slice", Arrays.asList("$newest", size)))),
+            new Document(
+                "$merge",
+                new Document("into", MovieDao.MOVIES_COLLECTION)
+                    .append("on", "_id")
+                    .append("whenMatched", "merge")
+                    .append("whenNotMatched", "discard")));
+    // the driver only runs $out pipelines through toCollection(), iterating runs $merge as well
+    comments.aggregate(pipeline).allowDiskUse(true).into(new ArrayList<>());
+    UpdateResult withoutComments =
+        movies.updateMany(
+            exists(NUM_COMMENTS, false),
+            Updates.combine(
+                Updates.set(NUM_COMMENTS, 0),
+                Updates.set(RECENT_COMMENTS, Collections.emptyList())));
+    log.info(
+        "Backfilled recent comments, {} movies without comments",
+        withoutComments.getModifiedCount());
+    return withoutComments.getModifiedCount();
+  }
+
+  /**
+   * Compares the embedded comments and count of a random sample of maintained movies with the
+   * `comments` collection. Repairs only apply if the movie did not change since it was checked.
+   *
+   * @param sampleSize - number of movies to check.
+   * @param repair - whether to rewrite the mismatching movies.
+   * @return Map with the `checked`, `mismatched` and `repaired` movie counts.
+   */
+  public Map<String, Long> check(int sampleSize, boolean repair) {
+    long checked = 0;
+    long mismatched = 0;
+    long repaired = 0;
+    List<Bson> sample =
+        Arrays.asList(
+            Aggregates.match(exists(NUM_COMMENTS)),
+            Aggregates.sample(sampleSize),
+            Aggregates.project(Projections.include(NUM_COMMENTS, RECENT_COMMENTS)));
+    for (Document movie : movies.aggregate(sample)) {
+      checked++;
+      ObjectId movieId = movie.getObjectId("_id");
+      List<Document> newest = newestComments(movieId);
+      long count = comments.countDocuments(eq("movie_id", movieId));
+      if (count == numComments(movie) && ids(newest).equals(ids(embedded(movie)))) {
+        continue;
+      }
+      mismatched++;
+      mismatches.increment();
+      log.warn("Recent comments of movie {} do not match the comments collection", movieId);
+      if (repair) {
+        Bson unchanged =
+            and(
+                eq("_id", movieId),
+                eq(NUM_COMMENTS, movie.get(NUM_COMMENTS)),
+                eq(RECENT_COMMENTS, movie.get(RECENT_COMMENTS)));
+        UpdateResult result =
+            movies.updateOne(
+                unchanged,
+                Updates.combine(
+                    Updates.set(NUM_COMMENTS, (int) count), Updates.set(RECENT_COMMENTS, newest)));
+        repaired += result.getModifiedCount();
+      }
+    }
+    Map<String, Long> report = new HashMap<>();
+    report.put("checked", checked);
+    report.put("mismatched", mismatched);
+    report.put("repaired", repaired);
+    return report;
+  }
+
+  private List<Document> newestComments(ObjectId movieId) {
+    return comments
+        .find(eq("movie_id", movieId))
+        .sort(Sorts.descending("date", "_id"))
+        .limit(size)
+        .into(new ArrayList<>());
+  }
+
+  private static Bson maintained(Object movieId) {
+    return and(eq("_id", movieId), exists(NUM_COMMENTS));
+  }
+
+  private Bson pushNewest(List<Document> newComments) {
+    return Updates.pushEach(
+        RECENT_COMMENTS,
+        newComments,
+        new PushOptions().sortDocument(Sorts.descending("date", "_id")).slice(size));
+  }
+
+  private static Bson pullComment(Object commentId) {
+    return Updates.pullByFilter(new Document(RECENT_COMMENTS, new Document("_id", commentId)));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<Document> embedded(Document movie) {
+    Object embedded = movie.get(RECENT_COMMENTS);
+    return embedded instanceof List ? (List<Document>) embedded : Collections.emptyList();
+  }
+
+  private static long numComments(Document movie) {
+    Object numComments = movie.get(NUM_COMMENTS);
+    return numComments instanceof Number ? ((Number) numComments).longValue() : 0;
+  }
+
+  private static List<Object> ids(List<Document> comments) {
+    List<Object> ids = new ArrayList<>(comments.size());
+    comments.forEach(comment -> ids.add(comment.get("_id")));
+    return ids;
+  }
+
+  /** Runs a maintenance update. The comment write already succeeded, so failures are not thrown. */
+  private void maintain(String operation, Runnable update) {
+    try {
+      update.run();
+    } catch (MongoException ex) {
+      failures.increment();
+      log.warn(
+          "Could not {} recent comment, left to the consistency check: {}",
+          operation,
+          ex.getMessage());
+    }
+  }
+}
@@ -0,0 +1,32 @@
+package mflix.api.daos;
+
+import mflix.api.models.Session;
+
+/** Keeps the session, i.e. the last issued jwt, of each logged in user. */
+public interface SessionStore {
+
+  /**
+   * Creates or replaces the session of a user.
+   *
+   * @param userId - user string identifier.
+   * @param jwt - jwt string token.
+   * @return true if successful.
+   */
+  boolean put(String userId, String jwt);
+
+  /**
+   * Returns the session of a user.
+   *
+   * @param userId - user string identifier.
+   * @return Session object or null.
+   */
+  Session get(String userId);
+
+  /**
+   * Removes every session of a user.
+   *
+   * @param userId - user string identifier.
+   * @return true if successful.
+   */
+  boolean remove(String userId);
+}
@@ -0,0 +1,248 @@
+package mflix.api.daos;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable index finding the keys within a few edits of a misspelled query. Keys are normalized
+ * like the {@link PrefixIndex} ones, padded with spaces and split into trigrams, and every trigram
+ * maps to the sorted keys holding it.
+ *
+ * <p>A lookup counts the trigrams every key shares with the query. One edit changes at most three
+ * trigrams, so a key within `k` edits shares at least `trigrams(query) - 3k` of them and differs in
+ * length by at most `k`: only those candidates are verified, with a Levenshtein distance computed
+ * in a band of `2k + 1` diagonals that gives up as soon as `k` is exceeded. Keys are numbered by
+ * length, so the length filter is a range of every posting list, found by binary search, and
+ * common trigrams cost only the keys of about the right length.
+ *
+ * @param <T> - value returned for a key.
+ */
+final class TrigramIndex<T> {
+
+  /** Value of a key within the allowed edits of a query. */
+  static final class Match<T> {
+
+    private final T value;
+
+    private final int distance;
+
+    Match(T value, int distance) {
+      this.value = value;
+      this.distance = distance;
+    }
+
+    T getValue() {
+      return value;
+    }
+
+    int getDistance() {
+      return distance;
+    }
+  }
+
+  /** Collects the keys, weights and values of an index. */
+  static final class Builder<T> {
+
+    private final List<String> keys = new ArrayList<>();
+
+    private final List<Long> weights = new ArrayList<>();
+
+    private final List<T> values = new ArrayList<>();
+
+    /**
+     * Adds a key. Keys that normalize to nothing are ignored.
+     *
+     * @param key - text to be matched.
+     * @param weight - rank of the key among equally distant ones, the higher the better.
+     * @param value - value returned when the key matches.
+     * @return this builder.
+     */
+    Builder<T> add(String key, long weight, T value) {
+      String normalized = PrefixIndex.normalize(key).trim();
+      if (!normalized.isEmpty()) {
+        keys.add(normalized);
+        weights.add(weight);
+        values.add(value);
+      }
+      return this;
+    }
+
+    TrigramIndex<T> build() {
+      return new TrigramIndex<>(this);
+    }
+  }
+
+  private final char[][] keys;
+
+  private final long[] weights;
+
+  private final List<T> values;
+
+  /** First key of every length, and the number of keys as the last element. */
+  private final int[] lengthStarts;
+
+  private final Map<Long, int[]> postings = new HashMap<>();
+
+  private TrigramIndex(Builder<T> builder) {
+    Integer[] order = new Integer[builder.keys.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, Comparator.comparingInt(i -> builder.keys.get(i).length()));
+    keys = new char[order.length][];
+    weights = new long[order.length];
+    values = new ArrayList<>(order.length);
+    int maxLength = order.length == 0 ? 0 : builder.keys.get(order[order.length - 1]).length();
+    lengthStarts = new int[maxLength + 2];
+    Map<Long, List<Integer>> lists = new HashMap<>();
+    for (int key = 0; key < keys.length; key++) {
+      keys[key] = builder.keys.get(order[key]).toCharArray();
+      weights[key] = builder.weights.get(order[key]);
+      values.add(builder.values.get(order[key]));
+      lengthStarts[keys[key].length + 1]++;
+      for (long trigram : trigrams(keys[key])) {
+        List<Integer> list = lists.computeIfAbsent(trigram, gram -> new ArrayList<>());
+        // trigrams repeated in a key are posted once
+        if (list.isEmpty() || list.get(list.size() - 1) != key) {
+          list.add(key);
+        }
+      }
+    }
+    for (int length = 1; length < lengthStarts.length; length++) {
+      lengthStarts[length] += lengthStarts[length - 1];
+    }
+    lists.forEach(
+        (trigram, list) ->
+            postings.put(trigram, list.stream().mapToInt(Integer::intValue).toArray()));
+  }
+
+  int size() {
+    return keys.length;
+  }
+
+  /** First key at least that long. */
+  private int lengthStart(int length) {
+    return lengthStarts[Math.max(0, Math.min(length, lengthStarts.length - 1))];
+  }
+
+  /** Trigrams of `"  key "`, packed three chars to a long. Repeated ones are kept. */
+  private static long[] trigrams(char[] key) {
+    char[] padded = new char[key.length + 3];
+    Arrays.fill(padded, ' ');
+    System.arraycopy(key, 0, padded, 2, key.length);
+    long[] trigrams = new long[key.length + 1];
+    for (int i = 0; i < trigrams.length; i++) {
+      trigrams[i] = ((long) padded[i] << 32) | ((long) padded[i + 1] << 16) | padded[i + 2];
+    }
+    return trigrams;
+  }
+
+  /**
+   * Finds the keys within `maxEdits` insertions, deletions or substitutions of a query.
+   *
+   * @param query - text to match.
+   * @param maxEdits - max edit distance.
+   * @param limit - max number of returned matches.
+   * @return matches, closest first and heaviest first among equally close ones, each key once.
+   */
+  List<Match<T>> match(String query, int maxEdits, int limit) {
+    char[] normalized = PrefixIndex.normalize(query).trim().toCharArray();
+    List<Match<T>> matches = new ArrayList<>();
+    if (normalized.length == 0 || limit <= 0) {
+      return matches;
+    }
+    // keys of length within the allowed edits
+    int first = lengthStart(normalized.length - maxEdits);
+    int last = lengthStart(normalized.length + maxEdits + 1);
+    long[] queryTrigrams = trigrams(normalized);
+    Arrays.sort(queryTrigrams);
+    int[] shared = new int[Math.max(0, last - first)];
+    List<Integer> candidates = new ArrayList<>();
+    int distinct = 0;
+    for (int i = 0; i < queryTrigrams.length; i++) {
+      if (i > 0 && queryTrigrams[i] == queryTrigrams[i - 1]) {
+        continue;
+      }
+      distinct++;
+      int[] list = postings.get(queryTrigrams[i]);
+      if (list == null) {
+        continue;
+      }
+      int to = Arrays.binarySearch(list, last);
+      to = to < 0 ? -to - 1 : to;
+      int from = Arrays.binarySearch(list, 0, to, first);
+      for (int posting = from < 0 ? -from - 1 : from; posting < to; posting++) {
+        if (shared[list[posting] - first]++ == 0) {
+          candidates.add(list[posting]);
+        }
+      }
+    }
+
+    int minShared = Math.max(1, distinct - 3 * maxEdits);
+    List<int[]> verified = new ArrayList<>();
+    for (int key : candidates) {
+      if (shared[key - first] >= minShared) {
+        int distance = distance(keys[key], normalized, maxEdits);
+        if (distance <= maxEdits) {
+          verified.add(new int[] {key, distance});
+        }
+      }
+    }
+    verified.sort(
+        (left, right) -> {
+          if (left[1] != right[1]) {
+            return Integer.compare(left[1], right[1]);
+          }
+          int byWeight = Long.compare(weights[right[0]], weights[left[0]]);
+          return byWeight != 0 ? byWeight : Integer.compare(left[0], right[0]);
+        });
+    for (int i = 0; i < verified.size() && i < limit; i++) {
+      matches.add(new Match<>(values.get(verified.get(i)[0]), verified.get(i)[1]));
+    }
+    return matches;
+  }
+
+  /**
+   * Levenshtein distance of two texts, computed only within `max` diagonals.
+   *
+   * @return the distance, or `max + 1` if it is larger than `max`.
+   */
+  static int distance(char[] left, char[] right, int max) {
+    int outside = max + 1;
+    int[] previous = new int[right.length + 1];
+    int[] current = new int[right.length + 1];
+    for (int j = 0; j <= right.length; j++) {
+      previous[j] = j <= max ? j : outside;
+    }
+    for (int i = 1; i <= left.length; i++) {
+      int from = Math.max(1, i - max);
+      int to = Math.min(right.length, i + max);
+      current[0] = i <= max ? i : outside;
+      if (from > 1) {
+        current[from - 1] = outside;
+      }
+      int rowMin = current[0];
+      for (int j = from; j <= to; j++) {
+        int substitution = previous[j - 1] + (left[i - 1] == right[j - 1] ? 0 : 1);
+        int deletion = previous[j] + 1;
+        int insertion = current[j - 1] + 1;
+        current[j] = Math.min(outside, Math.min(substitution, Math.min(deletion, insertion)));
+        rowMin = Math.min(rowMin, current[j]);
+      }
+      if (to < right.length) {
+        current[to + 1] = outside;
+      }
+      if (rowMin > max) {
+        return outside;
+      }
+      int[] swap = previous;
+      previous = current;
+      current = swap;
+    }
+    return Math.min(outside, previous[right.length]);
+  }
+}
@@ -0,0 +1,87 @@
+package mflix.api.daos;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import mflix.api.models.User;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read-through cache in front of {@link UserDao#getUser(String)}, keyed by email. Callers that
+ * write a user must {@link #invalidate(String)} it. Unknown emails are not cached.
+ *
+ * <p>Every read answered from the cache increments `mflix.users.reads_saved`, tagged with the
+ * request type given by the caller, e.g. `login` or `report`.
+ *
+ * <p>Cached users are shared between requests and must be treated as read-only.
+ */
+@Component
+public class UserCache {
+
+  private final UserDao userDao;
+
+  private final MeterRegistry meterRegistry;
+
+  private final boolean enabled;
+
+  private final Cache<String, User> cache;
+
+  @Autowired
+  public UserCache(
+      UserDao userDao,
+      MeterRegistry meterRegistry,
+      @Value("${api.users.cache.enabled:true}") boolean enabled,
+      @Value("${api.users.cache.max_entries:10000}") long maxEntries,
+      @Value("${api.users.cache.expire_after_write_seconds:300}") long expireAfterWriteSeconds) {
+    this.userDao = userDao;
+    this.meterRegistry = meterRegistry;
+    this.enabled = enabled;
+    this.cache =
+        Caffeine.newBuilder()
+            .maximumSize(maxEntries)
+            .expireAfterWrite(expireAfterWriteSeconds, TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, cache, "users");
+  }
+
+  /**
+   * Returns the user from the cache or from the database on a miss.
+   *
+   * @param email - email string to be matched.
+   * @param request - request type the saved reads are counted under.
+   * @return User object or null.
+   */
+  public User getUser(String email, String request) {
+    if (!enabled || email == null) {
+      return userDao.getUser(email);
+    }
+    boolean[] loaded = {false};
+    User user =
+        cache.get(
+            email,
+            key -> {
+              loaded[0] = true;
+              return userDao.getUser(key);
+            });
+    if (user != null && !loaded[0]) {
+      Counter.builder("mflix.users.reads_saved")
+          .tag("request", request)
+          .register(meterRegistry)
+          .increment();
+    }
+    return user;
+  }
+
+  public void invalidate(String email) {
+    if (email != null) {
+      cache.invalidate(email);
+    }
+  }
+}
@@ -4,19 +4,15 @@ import java.util.Map;
 
 import com.mongodb.MongoClientSettings;
 import com.mongodb.MongoException;
-import com.mongodb.MongoWriteException;
 import com.mongodb.WriteConcern;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
-import com.mongodb.client.model.UpdateOptions;
-import com.mongodb.client.model.Updates;
 import com.mongodb.client.result.DeleteResult;
 import mflix.api.models.Session;
 import mflix.api.models.User;
 import org.bson.Document;
 import org.bson.codecs.configuration.CodecRegistry;
 import org.bson.codecs.pojo.PojoCodecProvider;
-import org.bson.conversions.Bson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,7 +29,7 @@ import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
 public class UserDao extends AbstractMFlixDao {
 
     private final MongoCollection<User> usersCollection;
-    private final MongoCollection<Session> sessionsCollection;
+    private SessionStore sessionStore;
 
     private final Logger log;
 
@@ -49,7 +45,17 @@ public class UserDao extends AbstractMFlixDao {
         usersCollection = db.getCollection("users", User.class)
                 .withCodecRegistry(pojoCodecRegistry);
         log = LoggerFactory.getLogger(this.getClass());
-        sessionsCollection = db.getCollection("sessions", Session.class).withCodecRegistry(pojoCodecRegistry);
+        sessionStore = new MongoSessionStore(db);
+    }
+
+    /**
+     * Replaces the default store, which reads and writes the `sessions` collection on every call.
+     *
+     * @param sessionStore - SessionStore to use for user sessions.
+     */
+    @Autowired(required = false)
+    public void setSessionStore(SessionStore sessionStore) {
+        this.sessionStore = sessionStore;
     }
 
     /**
@@ -77,22 +83,7 @@ public class UserDao extends AbstractMFlixDao {
      * @return true if successful
      */
     public boolean createUserSession(String userId, String jwt) {
-        try {
-            Session newUserSession = new Session();
-            newUserSession.setUserId(userId);
-            newUserSession.setJwt(jwt);
-
-            Bson query = eq("user_id", userId);
-            Bson update = Updates.combine(Updates.set("jwt", jwt),
-                    Updates.setOnInsert("user_id", userId));
-
-            UpdateOptions options = new UpdateOptions().upsert(true);
-            this.sessionsCollection.updateOne(query, update, options);
-        } catch (MongoWriteException ex) {
-            System.out.println(ex.getMessage());
-            return false;
-        }
-        return true;
+        return sessionStore.put(userId, jwt);
         //TODO > Ticket: Handling Errors - implement a safeguard against
         // creating a session with the same jwt token.
     }
@@ -116,11 +107,11 @@ public class UserDao extends AbstractMFlixDao {
      * @return Session object or null.
      */
     public Session getUserSession(String userId) {
-        return sessionsCollection.find(eq("user_id", userId)).first();
+        return sessionStore.get(userId);
     }
 
     public boolean deleteUserSessions(String userId) {
-        return sessionsCollection.deleteMany(eq("user_id", userId)).wasAcknowledged();
+        return sessionStore.remove(userId);
     }
 
     /**
@@ -137,6 +128,23 @@ public class UserDao extends AbstractMFlixDao {
         return deleteResult.wasAcknowledged();
     }
 
+    /**
+     * Replaces the password hash of an user, e.g. after the hashing work factor changed.
+     *
+     * @param email    - user to be updated email
+     * @param hashedpw - new password hash
+     * @return true if the user was found and updated.
+     */
+    public boolean updateUserPassword(String email, String hashedpw) {
+        try {
+            return this.usersCollection
+                    .updateOne(eq("email", email), set("hashedpw", hashedpw))
+                    .getMatchedCount() == 1;
+        } catch (MongoException ex) {
+            throw new IncorrectDaoOperation(ex.getMessage(), ex);
+        }
+    }
+
     /**
      * Updates the preferences of an user identified by `email` parameter.
      *
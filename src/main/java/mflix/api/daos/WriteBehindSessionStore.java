@@ -0,0 +1,342 @@
+package mflix.api.daos;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.model.WriteModel;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.impl.TextCodec;
+import mflix.api.models.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SessionStore} whose primary copy lives in memory, with the `sessions` collection as its
+ * backup. Sessions expire from memory at the `exp` of their jwt, and at most
+ * `api.sessions.max_entries` of them are kept. The memory copy is rehydrated from Mongo on startup,
+ * skipping expired tokens, and a missing session is looked up in Mongo before giving up.
+ *
+ * <p>With `api.sessions.durability=async`, logins and logouts only touch memory. The last pending
+ * write of each user is persisted by a background thread in unordered `bulkWrite` batches, so a
+ * crash loses at most `api.sessions.flush_interval_ms` worth of sessions. With `sync`, writes go to
+ * Mongo before returning, as they did without this store.
+ */
+@Component
+public class WriteBehindSessionStore extends AbstractMFlixDao implements SessionStore {
+
+  public enum Durability {
+    /** Write-behind: persisted in batches by the flush thread. */
+    ASYNC,
+    /** Write-through: persisted before the call returns. */
+    SYNC
+  }
+
+  private static final Logger log = LoggerFactory.getLogger(WriteBehindSessionStore.class);
+
+  /** Pending write of one user. A null jwt removes the user sessions. */
+  private static final class PendingWrite {
+
+    private final String jwt;
+
+    private PendingWrite(String jwt) {
+      this.jwt = jwt;
+    }
+  }
+
+  private final MongoSessionStore mongoStore;
+
+  private final Durability durability;
+
+  private final long flushIntervalMs;
+
+  private final int batchSize;
+
+  private final boolean rehydrate;
+
+  private final JwtParser jwtParser;
+
+  private final long jwtExpirationInMs;
+
+  private final Cache<String, String> sessions;
+
+  /** Last not yet persisted write per user, so repeated logins of a user cost one write. */
+  private final Map<String, PendingWrite> pending = new ConcurrentHashMap<>();
+
+  @Autowired(required = false)
+  private MeterRegistry meterRegistry;
+
+  private Timer flushTimer;
+
+  private ScheduledExecutorService flusher;
+
+  @Autowired
+  public WriteBehindSessionStore(
+      MongoClient mongoClient,
+      @Value("${spring.mongodb.database}") String databaseName,
+      @Value("${jwtSecret}") String jwtSecret,
+      @Value("${jwtExpirationInMs}") long jwtExpirationInMs,
+      @Value("${api.sessions.durability:async}") String durability,
+      @Value("${api.sessions.flush_interval_ms:200}") long flushIntervalMs,
+      @Value("${api.sessions.batch_size:500}") int batchSize,
+      @Value("${api.sessions.rehydrate:true}") boolean rehydrate,
+      @Value("${api.sessions.max_entries:100000}") long maxEntries) {
+    super(mongoClient, databaseName);
+    this.mongoStore = new MongoSessionStore(db);
+    this.durability = Durability.valueOf(durability.trim().toUpperCase(Locale.ROOT));
+    this.flushIntervalMs = flushIntervalMs;
+    this.batchSize = batchSize;
+    this.rehydrate = rehydrate;
+    this.jwtExpirationInMs = jwtExpirationInMs;
+    this.jwtParser =
+        Jwts.parser()
+            .setSigningKey(
+                new SecretKeySpec(
+                    TextCodec.BASE64.decode(jwtSecret), SignatureAlgorithm.HS512.getJcaName()));
+    this.sessions =
+        Caffeine.newBuilder()
+            .maximumSize(maxEntries)
+            .expireAfter(
+                new Expiry<String, String>() {
+                  @Override
+                  public long expireAfterCreate(String userId, String jwt, long now) {
+                    return untilExpiration(jwt);
+                  }
+
+                  @Override
+                  public long expireAfterUpdate(
+                      String userId, String jwt, long now, long currentDuration) {
+                    return untilExpiration(jwt);
+                  }
+
+                  @Override
+                  public long expireAfterRead(
+                      String userId, String jwt, long now, long currentDuration) {
+                    return currentDuration;
+                  }
+                })
+            .recordStats()
+            .build();
+  }
+
+  /**
+   * Epoch millis of the `exp` of a jwt, or 0 if it is expired or not one of ours. Tokens without
+   * `exp` live for `jwtExpirationInMs` from now.
+   */
+  long expiresAtMillis(String jwt) {
+    try {
+      Claims claims = jwtParser.parseClaimsJws(jwt).getBody();
+      Date expiration = claims.getExpiration();
+      return expiration == null
+          ? System.currentTimeMillis() + jwtExpirationInMs
+          : expiration.getTime();
+    } catch (ExpiredJwtException ex) {
+      return 0;
+    } catch (JwtException | IllegalArgumentException ex) {
+      log.debug("Not caching the session of an unreadable jwt: {}", ex.getMessage());
+      return 0;
+    }
+  }
+
+  /** Nanoseconds left until the `exp` of a jwt, the Caffeine {@link Expiry} unit. */
+  private long untilExpiration(String jwt) {
+    long untilExp = expiresAtMillis(jwt) - System.currentTimeMillis();
+    return TimeUnit.MILLISECONDS.toNanos(Math.max(0, untilExp));
+  }
+
+  @PostConstruct
+  public void start() {
+    if (meterRegistry != null) {
+      CaffeineCacheMetrics.monitor(meterRegistry, sessions, "sessions");
+      Gauge.builder("mflix.sessions.pending", pending, Map::size).register(meterRegistry);
+      flushTimer = Timer.builder("mflix.sessions.flush").register(meterRegistry);
+    }
+    if (rehydrate) {
+      rehydrate();
+    }
+    if (durability == Durability.ASYNC) {
+      flusher =
+          Executors.newSingleThreadScheduledExecutor(
+              runnable -> {
+                Thread thread = new Thread(runnable, "session-write-behind");
+                thread.setDaemon(true);
+                return thread;
+              });
+      flusher.scheduleWithFixedDelay(
+          this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (flusher != null) {
+      flusher.shutdown();
+      try {
+        flusher.awaitTermination(flushIntervalMs * 10, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    flushQuietly();
+  }
+
+  private void rehydrate() {
+    try {
+      List<Session> stored = mongoStore.findAll();
+      log.info("Rehydrated {} of {} sessions", rehydrate(stored), stored.size());
+    } catch (MongoException ex) {
+      log.warn("Cannot rehydrate sessions, they will be loaded on demand: {}", ex.getMessage());
+    }
+  }
+
+  /**
+   * Puts stored sessions in memory, skipping the ones whose jwt expired.
+   *
+   * @return number of sessions put.
+   */
+  int rehydrate(List<Session> stored) {
+    int count = 0;
+    long now = System.currentTimeMillis();
+    for (Session session : stored) {
+      if (session.getUserId() != null
+          && session.getJwt() != null
+          && expiresAtMillis(session.getJwt()) > now) {
+        sessions.put(session.getUserId(), session.getJwt());
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public boolean put(String userId, String jwt) {
+    if (durability == Durability.SYNC) {
+      if (!mongoStore.put(userId, jwt)) {
+        return false;
+      }
+      sessions.put(userId, jwt);
+      return true;
+    }
+    sessions.put(userId, jwt);
+    pending.put(userId, new PendingWrite(jwt));
+    return true;
+  }
+
+  @Override
+  public Session get(String userId) {
+    PendingWrite write = pending.get(userId);
+    if (write != null) {
+      // newer than Mongo, and may have been evicted from memory
+      return write.jwt == null ? null : session(userId, write.jwt);
+    }
+    String jwt = sessions.getIfPresent(userId);
+    if (jwt != null) {
+      return session(userId, jwt);
+    }
+    Session session = mongoStore.get(userId);
+    if (session != null && session.getJwt() != null && !pending.containsKey(userId)) {
+      sessions.put(userId, session.getJwt());
+    }
+    return session;
+  }
+
+  @Override
+  public boolean remove(String userId) {
+    if (durability == Durability.SYNC) {
+      sessions.invalidate(userId);
+      return mongoStore.remove(userId);
+    }
+    pending.put(userId, new PendingWrite(null));
+    sessions.invalidate(userId);
+    return true;
+  }
+
+  private static Session session(String userId, String jwt) {
+    Session session = new Session();
+    session.setUserId(userId);
+    session.setJwt(jwt);
+    return session;
+  }
+
+  /** Number of writes not yet persisted. */
+  public int pendingWrites() {
+    return pending.size();
+  }
+
+  private void flushQuietly() {
+    try {
+      if (flushTimer != null) {
+        flushTimer.record(this::flush);
+      } else {
+        flush();
+      }
+    } catch (RuntimeException ex) {
+      log.warn("Session write-behind flush failed, will retry: {}", ex.getMessage());
+    }
+  }
+
+  /**
+   * Persists the pending writes in batches of `api.sessions.batch_size`. Writes leave the pending
+   * map only once persisted, so reads never fall through to a Mongo copy older than memory, and a
+   * write replaced by a newer one while its batch is in flight stays pending for the next round.
+   */
+  void flush() {
+    List<String> userIds = new ArrayList<>(batchSize);
+    List<PendingWrite> writes = new ArrayList<>(batchSize);
+    List<WriteModel<Session>> models = new ArrayList<>(batchSize);
+    for (Map.Entry<String, PendingWrite> entry : pending.entrySet()) {
+      String userId = entry.getKey();
+      PendingWrite write = entry.getValue();
+      userIds.add(userId);
+      writes.add(write);
+      models.add(
+          write.jwt == null
+              ? MongoSessionStore.removeModel(userId)
+              : MongoSessionStore.upsertModel(userId, write.jwt));
+      if (models.size() == batchSize) {
+        writeBatch(userIds, writes, models);
+      }
+    }
+    writeBatch(userIds, writes, models);
+  }
+
+  private void writeBatch(
+      List<String> userIds, List<PendingWrite> writes, List<WriteModel<Session>> models) {
+    try {
+      mongoStore.bulkWrite(models);
+      for (int i = 0; i < userIds.size(); i++) {
+        pending.remove(userIds.get(i), writes.get(i));
+      }
+    } finally {
+      userIds.clear();
+      writes.clear();
+      models.clear();
+    }
+  }
+}
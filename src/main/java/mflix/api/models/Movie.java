@@ -23,6 +23,8 @@ public class Movie extends AbstractMovie {
 
   private List<Comment> comments;
 
+  private Integer numComments;
+
   public Movie() {
     super();
   }
@@ -138,4 +140,13 @@ public class Movie extends AbstractMovie {
   public void setComments(List<Comment> comments) {
     this.comments = comments;
   }
+
+  /** Total number of comments of the movie, of which `comments` holds the newest ones. */
+  public Integer getNumComments() {
+    return numComments;
+  }
+
+  public void setNumComments(Integer numComments) {
+    this.numComments = numComments;
+  }
 }
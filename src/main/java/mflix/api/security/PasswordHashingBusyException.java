@@ -0,0 +1,9 @@
+package mflix.api.security;
+
+/** Thrown when the password hashing pool cannot take or finish a hash in time. */
+public class PasswordHashingBusyException extends RuntimeException {
+
+  public PasswordHashingBusyException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
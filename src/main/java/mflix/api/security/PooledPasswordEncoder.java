@@ -0,0 +1,175 @@
+package mflix.api.security;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * BCrypt {@link PasswordEncoder} that runs every hash on a small dedicated pool, so a burst of
+ * logins or registrations cannot take the request threads' CPU away from cheap reads. The pool
+ * queue is bounded: when it is full, or a hash waited longer than `maxWaitMs`, the call fails fast
+ * with {@link PasswordHashingBusyException}, answered with a 503.
+ *
+ * <p>`mflix.bcrypt.wait` times how long hashes sat in the queue and `mflix.bcrypt.hash` how long
+ * they ran, both tagged by operation.
+ */
+public class PooledPasswordEncoder implements PasswordEncoder {
+
+  private static final Logger log = LoggerFactory.getLogger(PooledPasswordEncoder.class);
+
+  private static final Pattern BCRYPT_COST = Pattern.compile("\\A\\$2[aby]?\\$(\\d\\d)\\$");
+
+  private final BCryptPasswordEncoder bcrypt;
+
+  private final int strength;
+
+  private final long maxWaitMs;
+
+  private final ThreadPoolExecutor executor;
+
+  private final MeterRegistry meterRegistry;
+
+  public PooledPasswordEncoder(
+      MeterRegistry meterRegistry, int strength, int threads, int queueSize, long maxWaitMs) {
+    this.meterRegistry = meterRegistry;
+    this.strength = strength;
+    this.maxWaitMs = maxWaitMs;
+    this.bcrypt = new BCryptPasswordEncoder(strength);
+    AtomicInteger threadCount = new AtomicInteger();
+    this.executor =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            60,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueSize),
+            runnable -> {
+              Thread thread = new Thread(runnable, "bcrypt-" + threadCount.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+    ExecutorServiceMetrics.monitor(meterRegistry, executor, "mflix.bcrypt", Tags.empty());
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  @Override
+  public String encode(CharSequence rawPassword) {
+    return run("encode", () -> bcrypt.encode(rawPassword));
+  }
+
+  @Override
+  public boolean matches(CharSequence rawPassword, String encodedPassword) {
+    return run("matches", () -> bcrypt.matches(rawPassword, encodedPassword));
+  }
+
+  /**
+   * Whether a stored hash was computed with a different work factor than the configured one, and
+   * should be replaced by a new hash of the password on the next successful login.
+   *
+   * @param encodedPassword - stored BCrypt hash.
+   * @return true if the hash should be recomputed.
+   */
+  public boolean upgradeEncoding(String encodedPassword) {
+    if (encodedPassword == null) {
+      return false;
+    }
+    Matcher matcher = BCRYPT_COST.matcher(encodedPassword);
+    return matcher.find() && Integer.parseInt(matcher.group(1)) != strength;
+  }
+
+  /**
+   * Hashes a password in the background. Rehashing is best effort: when the pool is saturated the
+   * work is dropped and tried again on a later login.
+   *
+   * @param rawPassword - password to hash.
+   * @param onEncoded - receives the new hash, on a pool thread.
+   */
+  public void encodeAsync(CharSequence rawPassword, Consumer<String> onEncoded) {
+    Callable<Void> rehash =
+        timed(
+            "rehash",
+            System.nanoTime(),
+            () -> {
+              onEncoded.accept(bcrypt.encode(rawPassword));
+              return null;
+            });
+    try {
+      executor.execute(
+          () -> {
+            try {
+              rehash.call();
+            } catch (Exception ex) {
+              log.warn("Password rehash failed: {}", ex.getMessage());
+            }
+          });
+    } catch (RejectedExecutionException ex) {
+      log.debug("Password rehash skipped, hashing pool is saturated");
+    }
+  }
+
+  private <T> T run(String operation, Callable<T> hash) {
+    Future<T> future;
+    try {
+      future = executor.submit(timed(operation, System.nanoTime(), hash));
+    } catch (RejectedExecutionException ex) {
+      throw new PasswordHashingBusyException("password hashing queue is full", ex);
+    }
+    try {
+      return future.get(maxWaitMs, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException ex) {
+      future.cancel(false);
+      throw new PasswordHashingBusyException("password hashing took longer than allowed", ex);
+    } catch (InterruptedException ex) {
+      future.cancel(false);
+      Thread.currentThread().interrupt();
+      throw new PasswordHashingBusyException("password hashing was interrupted", ex);
+    } catch (ExecutionException ex) {
+      if (ex.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ex.getCause();
+      }
+      throw new IllegalStateException(ex.getCause());
+    }
+  }
+
+  private <T> Callable<T> timed(String operation, long submittedNanos, Callable<T> hash) {
+    return () -> {
+      long startNanos = System.nanoTime();
+      Timer.builder("mflix.bcrypt.wait")
+          .tag("operation", operation)
+          .register(meterRegistry)
+          .record(startNanos - submittedNanos, TimeUnit.NANOSECONDS);
+      try {
+        return hash.call();
+      } finally {
+        Timer.builder("mflix.bcrypt.hash")
+            .tag("operation", operation)
+            .register(meterRegistry)
+            .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+      }
+    };
+  }
+}
@@ -0,0 +1,213 @@
+package mflix.api.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import mflix.api.daos.MovieDao;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Computes the `total_results` of the movie listing and search endpoints. Each endpoint is
+ * configured with one of the {@link Mode} values under `api.movies.count.{endpoint}`, and every
+ * count is timed under the `mflix.movies.count` timer tagged by endpoint and mode.
+ */
+@Service
+public class MovieCountEngine {
+
+  /** Listing and search endpoints that report a total. */
+  public enum Endpoint {
+    LIST,
+    TEXT,
+    CAST,
+    GENRE
+  }
+
+  public enum Mode {
+    /** A separate `countDocuments` query, as the API always did. */
+    EXACT,
+    /** Page and `$count` in one `$facet` aggregation. Other calls fall back to EXACT. */
+    FACET,
+    /** EXACT totals kept in a TTL/LRU cache keyed by the normalized filter. */
+    CACHED,
+    /** Collection metadata count. Only meaningful for the unfiltered LIST endpoint. */
+    ESTIMATED
+  }
+
+  /** Page of movie documents together with the total number of matching movies. */
+  public static class CountedPage {
+
+    private final List<Document> movies;
+
+    private final long count;
+
+    public CountedPage(List<Document> movies, long count) {
+      this.movies = movies;
+      this.count = count;
+    }
+
+    public List<Document> getMovies() {
+      return movies;
+    }
+
+    public long getCount() {
+      return count;
+    }
+  }
+
+  private static final Logger log = LoggerFactory.getLogger(MovieCountEngine.class);
+
+  private final MovieDao movieDao;
+
+  private final MeterRegistry meterRegistry;
+
+  private final Map<Endpoint, Mode> modes = new EnumMap<>(Endpoint.class);
+
+  private final Cache<String, Long> totals;
+
+  @Autowired
+  public MovieCountEngine(
+      MovieDao movieDao,
+      MeterRegistry meterRegistry,
+      @Value("${api.movies.count.list:EXACT}") String listMode,
+      @Value("${api.movies.count.text:EXACT}") String textMode,
+      @Value("${api.movies.count.cast:EXACT}") String castMode,
+      @Value("${api.movies.count.genre:EXACT}") String genreMode,
+      @Value("${api.movies.count.cache.max_entries:10000}") long cacheMaxEntries,
+      @Value("${api.movies.count.cache.ttl_seconds:300}") long cacheTtlSeconds) {
+    this.movieDao = movieDao;
+    this.meterRegistry = meterRegistry;
+    modes.put(Endpoint.LIST, parseMode(Endpoint.LIST, listMode));
+    modes.put(Endpoint.TEXT, parseMode(Endpoint.TEXT, textMode));
+    modes.put(Endpoint.CAST, parseMode(Endpoint.CAST, castMode));
+    modes.put(Endpoint.GENRE, parseMode(Endpoint.GENRE, genreMode));
+    this.totals =
+        Caffeine.newBuilder()
+            .maximumSize(cacheMaxEntries)
+            .expireAfterWrite(cacheTtlSeconds, TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, totals, "movie_counts");
+  }
+
+  private static Mode parseMode(Endpoint endpoint, String value) {
+    Mode mode = Mode.valueOf(value.trim().toUpperCase(Locale.ROOT));
+    if (mode == Mode.ESTIMATED && endpoint != Endpoint.LIST) {
+      log.warn("ESTIMATED count only applies to the unfiltered listing, {} uses EXACT", endpoint);
+      return Mode.EXACT;
+    }
+    return mode;
+  }
+
+  public Mode mode(Endpoint endpoint) {
+    return modes.get(endpoint);
+  }
+
+  /**
+   * Counts the movies matching `values` for the given endpoint, using its configured mode.
+   *
+   * @param endpoint - endpoint whose filter the values belong to.
+   * @param values - keywords, cast members or genres. Ignored for LIST.
+   * @return number of matching movies.
+   */
+  public long count(Endpoint endpoint, String... values) {
+    Mode mode = mode(endpoint);
+    switch (mode) {
+      case ESTIMATED:
+        return timed(endpoint, mode, movieDao::getEstimatedMoviesCount);
+      case CACHED:
+        return timed(
+            endpoint,
+            mode,
+            () -> totals.get(normalizedKey(endpoint, values), key -> exactCount(endpoint, values)));
+      default:
+        return timed(endpoint, Mode.EXACT, () -> exactCount(endpoint, values));
+    }
+  }
+
+  /**
+   * Fetches a page of movies and their total in one `$facet` aggregation.
+   *
+   * @param endpoint - endpoint whose filter the values belong to.
+   * @param limit - max number of movies in the page.
+   * @param skip - number of documents to be skipped.
+   * @param values - keywords, cast members or genres. Ignored for LIST.
+   * @return CountedPage object.
+   */
+  public CountedPage pageAndCount(Endpoint endpoint, int limit, int skip, String... values) {
+    return timed(endpoint, Mode.FACET, () -> facetQuery(endpoint, limit, skip, values));
+  }
+
+  private CountedPage facetQuery(Endpoint endpoint, int limit, int skip, String... values) {
+    Document result;
+    switch (endpoint) {
+      case TEXT:
+        result = movieDao.getMoviesByTextWithCount(limit, skip, String.join(" ", values));
+        break;
+      case CAST:
+        result = movieDao.getMoviesByCastWithCount(limit, skip, values);
+        break;
+      case GENRE:
+        result = movieDao.getMoviesByGenreWithCount(limit, skip, values);
+        break;
+      default:
+        result = movieDao.getMoviesWithCount(limit, skip);
+    }
+    @SuppressWarnings("unchecked")
+    List<Document> movies = (List<Document>) result.get("movies");
+    return new CountedPage(movies, result.getLong("count"));
+  }
+
+  private long exactCount(Endpoint endpoint, String... values) {
+    switch (endpoint) {
+      case TEXT:
+        return movieDao.getTextSearchCount(String.join(" ", values));
+      case CAST:
+        return movieDao.getCastSearchCount(values);
+      case GENRE:
+        return movieDao.getGenresSearchCount(values);
+      default:
+        return movieDao.getMoviesCount();
+    }
+  }
+
+  /**
+   * Cache key that is identical for filters matching the same movies: cast and genre selectors
+   * are `$in` sets, so order and duplicates do not matter. `$text` matching is case insensitive.
+   */
+  static String normalizedKey(Endpoint endpoint, String... values) {
+    if (endpoint == Endpoint.LIST || values == null) {
+      return endpoint.name();
+    }
+    if (endpoint == Endpoint.TEXT) {
+      String keywords = String.join(" ", values).trim().replaceAll("\\s+", " ");
+      return endpoint.name() + ":" + keywords.toLowerCase(Locale.ROOT);
+    }
+    TreeSet<String> selectors = new TreeSet<>(Arrays.asList(values));
+    return endpoint.name() + ":" + String.join("\u0000", selectors);
+  }
+
+  private <T> T timed(Endpoint endpoint, Mode mode, Supplier<T> count) {
+    Timer timer =
+        Timer.builder("mflix.movies.count")
+            .tag("endpoint", endpoint.name().toLowerCase(Locale.ROOT))
+            .tag("mode", mode.name().toLowerCase(Locale.ROOT))
+            .register(meterRegistry);
+    return timer.record(count);
+  }
+}
@@ -0,0 +1,259 @@
+package mflix.api.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import mflix.api.daos.MovieFilterIndex;
+import mflix.api.daos.MovieFilterIndex.Column;
+import mflix.api.daos.MovieFilterIndex.Selection;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Computes the facets of `/facet-search` from the columns of the {@link MovieFilterIndex} instead
+ * of `$bucket` stages. A facet is configured under `api.movies.facets.{name}` as the comma
+ * separated boundaries of its buckets, and behaves like `{$bucket: {boundaries: ..., default:
+ * "other"}}`: a bucket is named after its lower boundary and includes it, and missing,
+ * non-numeric or out of range values are counted in `other`. Empty buckets are left out. Facets
+ * with no boundaries are disabled.
+ *
+ * <p>Histograms are computed over the page (`api.movies.facets.scope=page`), like the aggregation
+ * always did, or over every matching movie (`results`). Large selections are split into chunks of
+ * `split_threshold` ordinals, counted in parallel on a fork/join pool and merged. Every call is
+ * timed under `mflix.movies.facets`.
+ */
+@Service
+public class MovieFacetEngine {
+
+  /** Movies the histograms are computed over. */
+  public enum Scope {
+    PAGE,
+    RESULTS
+  }
+
+  /** Buckets of one column. */
+  static final class Facet {
+
+    private final String name;
+
+    private final Column column;
+
+    private final double[] boundaries;
+
+    private final Object[] labels;
+
+    Facet(String name, Column column, String boundaries) {
+      this.name = name;
+      this.column = column;
+      String[] values = boundaries.split(",");
+      this.boundaries = new double[values.length];
+      this.labels = new Object[values.length];
+      for (int i = 0; i < values.length; i++) {
+        double boundary = Double.parseDouble(values[i].trim());
+        if (i > 0 && boundary <= this.boundaries[i - 1]) {
+          throw new IllegalArgumentException(
+              MessageFormat.format("facet `{0}` boundaries must be increasing", name));
+        }
+        this.boundaries[i] = boundary;
+        // integral boundaries are reported as integers, like the `$bucket` ones
+        this.labels[i] =
+            boundary == Math.rint(boundary) && Math.abs(boundary) <= Integer.MAX_VALUE
+                ? (Object) (int) boundary
+                : (Object) boundary;
+      }
+      if (values.length < 2) {
+        throw new IllegalArgumentException(
+            MessageFormat.format("facet `{0}` needs at least two boundaries", name));
+      }
+    }
+
+    /** Index of the bucket of a value. The last index is the `other` bucket. */
+    int bucket(double value) {
+      int other = boundaries.length - 1;
+      int index = Arrays.binarySearch(boundaries, value);
+      if (index >= 0) {
+        return index == other ? other : index;
+      }
+      int insertion = -index - 1;
+      return insertion == 0 || insertion > other ? other : insertion - 1;
+    }
+
+    List<Document> toBuckets(long[] counts) {
+      List<Document> buckets = new ArrayList<>();
+      for (int i = 0; i < counts.length; i++) {
+        if (counts[i] > 0) {
+          Object id = i == counts.length - 1 ? "other" : labels[i];
+          buckets.add(new Document("_id", id).append("count", (int) counts[i]));
+        }
+      }
+      return buckets;
+    }
+  }
+
+  /** Counts a range of ordinals, splitting it while it is larger than the threshold. */
+  private static final class HistogramTask extends RecursiveTask<long[][]> {
+
+    private final List<Facet> facets;
+
+    private final double[][] columns;
+
+    private final int[] ordinals;
+
+    private final int from;
+
+    private final int to;
+
+    private final int threshold;
+
+    HistogramTask(
+        List<Facet> facets, double[][] columns, int[] ordinals, int from, int to, int threshold) {
+      this.facets = facets;
+      this.columns = columns;
+      this.ordinals = ordinals;
+      this.from = from;
+      this.to = to;
+      this.threshold = threshold;
+    }
+
+    @Override
+    protected long[][] compute() {
+      if (to - from <= threshold) {
+        return count();
+      }
+      int middle = (from + to) >>> 1;
+      HistogramTask left = new HistogramTask(facets, columns, ordinals, from, middle, threshold);
+      left.fork();
+      long[][] counts =
+          new HistogramTask(facets, columns, ordinals, middle, to, threshold).compute();
+      long[][] leftCounts = left.join();
+      for (int facet = 0; facet < counts.length; facet++) {
+        for (int bucket = 0; bucket < counts[facet].length; bucket++) {
+          counts[facet][bucket] += leftCounts[facet][bucket];
+        }
+      }
+      return counts;
+    }
+
+    long[][] count() {
+      long[][] counts = new long[facets.size()][];
+      for (int facet = 0; facet < counts.length; facet++) {
+        Facet definition = facets.get(facet);
+        double[] column = columns[facet];
+        long[] buckets = new long[definition.boundaries.length];
+        for (int i = from; i < to; i++) {
+          buckets[definition.bucket(column[ordinals[i]])]++;
+        }
+        counts[facet] = buckets;
+      }
+      return counts;
+    }
+  }
+
+  private final List<Facet> facets = new ArrayList<>();
+
+  private final boolean inMemory;
+
+  private final Scope scope;
+
+  private final int splitThreshold;
+
+  private final ForkJoinPool pool;
+
+  private final Timer timer;
+
+  @Autowired(required = false)
+  private MovieFilterIndex filterIndex;
+
+  @Autowired
+  public MovieFacetEngine(
+      MeterRegistry meterRegistry,
+      @Value("${api.movies.facets.in_memory:true}") boolean inMemory,
+      @Value("${api.movies.facets.scope:page}") String scope,
+      @Value("${api.movies.facets.parallelism:0}") int parallelism,
+      @Value("${api.movies.facets.split_threshold:4096}") int splitThreshold,
+      @Value("${api.movies.facets.runtime:0,60,90,120,180}") String runtime,
+      @Value("${api.movies.facets.rating:0,50,70,90,100}") String rating,
+      @Value("${api.movies.facets.year:}") String year,
+      @Value("${api.movies.facets.imdb_rating:}") String imdbRating,
+      @Value("${api.movies.facets.num_reviews:}") String numReviews) {
+    this.inMemory = inMemory;
+    this.scope = Scope.valueOf(scope.trim().toUpperCase(Locale.ROOT));
+    this.splitThreshold = Math.max(1, splitThreshold);
+    addFacet("runtime", Column.RUNTIME, runtime);
+    addFacet("rating", Column.METACRITIC, rating);
+    addFacet("year", Column.YEAR, year);
+    addFacet("imdb_rating", Column.IMDB_RATING, imdbRating);
+    addFacet("num_reviews", Column.NUM_REVIEWS, numReviews);
+    this.pool =
+        new ForkJoinPool(
+            parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    this.timer =
+        Timer.builder("mflix.movies.facets")
+            .tag("scope", this.scope.name().toLowerCase(Locale.ROOT))
+            .register(meterRegistry);
+  }
+
+  private void addFacet(String name, Column column, String boundaries) {
+    if (boundaries != null && !boundaries.trim().isEmpty()) {
+      facets.add(new Facet(name, column, boundaries));
+    }
+  }
+
+  @PreDestroy
+  public void stop() {
+    pool.shutdownNow();
+  }
+
+  /** Whether facets can be computed in memory, i.e. the filter index is loaded. */
+  public boolean isAvailable() {
+    return inMemory && filterIndex != null && filterIndex.isLoaded();
+  }
+
+  public Scope getScope() {
+    return scope;
+  }
+
+  /**
+   * Computes every configured facet over the selected movies.
+   *
+   * @param selection - movies to count.
+   * @return Map of facet name to its list of `{_id, count}` buckets.
+   */
+  public Map<String, List<Document>> facets(Selection selection) {
+    double[][] columns = new double[facets.size()][];
+    for (int facet = 0; facet < columns.length; facet++) {
+      columns[facet] = selection.column(facets.get(facet).column);
+    }
+    return timer.record(() -> facets(columns, selection.ordinals()));
+  }
+
+  /**
+   * Computes every configured facet over the given ordinals.
+   *
+   * @param columns - column of every configured facet, in configuration order.
+   * @param ordinals - ordinals of the movies to count.
+   * @return Map of facet name to its list of `{_id, count}` buckets.
+   */
+  Map<String, List<Document>> facets(double[][] columns, int[] ordinals) {
+    HistogramTask task =
+        new HistogramTask(facets, columns, ordinals, 0, ordinals.length, splitThreshold);
+    long[][] counts = ordinals.length <= splitThreshold ? task.count() : pool.invoke(task);
+    Map<String, List<Document>> results = new LinkedHashMap<>();
+    for (int facet = 0; facet < counts.length; facet++) {
+      results.put(facets.get(facet).name, facets.get(facet).toBuckets(counts[facet]));
+    }
+    return results;
+  }
+}
@@ -1,19 +1,34 @@
 package mflix.api.services;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import mflix.api.daos.CommentDao;
+import mflix.api.daos.MovieAutocomplete;
 import mflix.api.daos.MovieDao;
+import mflix.api.daos.MovieDetailCache;
 import mflix.api.daos.MovieDocumentMapper;
+import mflix.api.daos.MovieFilterIndex;
+import mflix.api.daos.MovieTextIndex;
+import mflix.api.daos.PageToken;
 import mflix.api.models.Comment;
 import mflix.api.models.Critic;
 import mflix.api.models.Movie;
+import mflix.api.services.MovieCountEngine.CountedPage;
+import mflix.api.services.MovieCountEngine.Endpoint;
+import mflix.api.services.MovieCountEngine.Mode;
 import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Service
@@ -22,6 +37,16 @@ public class MoviesService {
 
   @Autowired private MovieDao movieDao;
   @Autowired private CommentDao commentDao;
+  @Autowired private MovieDetailCache movieDetailCache;
+  @Autowired private MovieCountEngine countEngine;
+  @Autowired private QueryFanOut fanOut;
+  @Autowired private MovieFacetEngine facetEngine;
+  @Autowired private MovieFilterIndex filterIndex;
+  @Autowired private MovieTextIndex textIndex;
+  @Autowired private MovieAutocomplete autocomplete;
+
+  @Value("${api.movies.streaming.batch_size:1000}")
+  private int streamingBatchSize = 1000;
 
   public MoviesService() {
     super();
@@ -35,7 +60,7 @@ public class MoviesService {
    */
   public Movie getMovie(String id) {
 
-    Movie movie = MovieDocumentMapper.mapToMovie(movieDao.getMovie(id));
+    Movie movie = MovieDocumentMapper.mapToMovie(movieDetailCache.getMovie(id));
     if (movie.getId() == null || movie.getId().isEmpty()) {
       return null;
     }
@@ -51,7 +76,7 @@ public class MoviesService {
    */
   public String getMovieDocumentFieldType(String movieId, String fieldKey) {
 
-    Object fieldValue = movieDao.getMovie(movieId).get(fieldKey);
+    Object fieldValue = movieDetailCache.getMovie(movieId).get(fieldKey);
     return fieldValue == null ? "" : fieldValue.getClass().getName();
   }
 
@@ -65,19 +90,22 @@ public class MoviesService {
    */
   public Map<String, ?> getMovies(int resultsPerPage, int page) {
     int skip = resultsPerPage * page;
+    return countedPage(
+        Endpoint.LIST, resultsPerPage, page, () -> movieDao.getMovies(resultsPerPage, skip));
+  }
 
-    List<Movie> movies =
-        movieDao
-            .getMovies(resultsPerPage, skip)
-            .stream()
-            .map(MovieDocumentMapper::mapToMovie)
-            .collect(Collectors.toList());
-    Map<String, Object> result = new HashMap<>();
-    result.put("movies_list", movies);
-    if (page == 0) {
-      result.put("movies_count", movieDao.getMoviesCount());
-    }
-    return result;
+  /**
+   * Lists all movies using keyset pagination instead of skipping documents.
+   *
+   * @param resultsPerPage - number of results per page
+   * @param pageToken - continuation token of the previous page, null for the first page.
+   * @return Map with list of results under `movies_list` key, total count under `movies_count` key
+   *     for the first page, and the continuation token under `next` if more results may follow.
+   */
+  public Map<String, ?> getMovies(int resultsPerPage, String pageToken) {
+    PageToken after = pageToken == null ? null : PageToken.decode(pageToken);
+    return keysetPage(
+        Endpoint.LIST, resultsPerPage, after, () -> movieDao.getMovies(resultsPerPage, after));
   }
 
   /**
@@ -100,6 +128,33 @@ public class MoviesService {
     return results;
   }
 
+  /**
+   * Streaming variant of {@link #getMoviesByCountry}: writes the titles as a JSON array while they
+   * are read from the cursor, transcoded from raw BSON, so the list is never held in memory.
+   *
+   * @param json - generator the array is written to.
+   * @param countries - countries to be matched.
+   * @throws IOException if the generator cannot write.
+   */
+  public void streamMoviesByCountry(JsonGenerator json, String... countries) throws IOException {
+    json.writeStartArray();
+    try {
+      movieDao.streamMoviesByCountry(
+          streamingBatchSize,
+          movie -> {
+            try {
+              MovieDocumentMapper.writeMovieTitle(movie, json);
+            } catch (IOException ex) {
+              throw new UncheckedIOException(ex);
+            }
+          },
+          countries);
+    } catch (UncheckedIOException ex) {
+      throw ex.getCause();
+    }
+    json.writeEndArray();
+  }
+
   /**
    * Collects the list of movies that match the Text search for the provided filter.
    *
@@ -111,20 +166,56 @@ public class MoviesService {
   public Map<String, ?> getMoviesByText(int resultsPerPage, int page, ArrayList<String> filter) {
     int skip = resultsPerPage * page;
     String keywords = String.join(" ", filter);
+    if (textIndex.isActive()) {
+      MovieTextIndex.SearchResult matches = textIndex.search(keywords, skip, resultsPerPage);
+      Map<String, Object> result = new HashMap<>();
+      result.put("movies_list", mapToMovies(movieDao.getMoviesByIds(matches.getIds())));
+      if (page == 0) {
+        result.put("movies_count", matches.getTotal());
+      }
+      return result;
+    }
+    return countedPage(
+        Endpoint.TEXT,
+        resultsPerPage,
+        page,
+        () -> movieDao.getMoviesByText(resultsPerPage, skip, keywords),
+        keywords);
+  }
 
-    List<Movie> movieList =
-        movieDao
-            .getMoviesByText(resultsPerPage, skip, keywords)
-            .stream()
-            .map(MovieDocumentMapper::mapToMovie)
-            .collect(Collectors.toList());
-    Map<String, Object> result = new HashMap<>();
-    result.put("movies_list", movieList);
+  /**
+   * Suggests movie titles and cast members for what was typed in the search box so far.
+   *
+   * @param prefix - text typed so far.
+   * @param limit - max number of titles, and of cast members.
+   * @return Map with `titles` and `cast` suggestions, or null if autocomplete is not available.
+   */
+  public Map<String, ?> getSuggestions(String prefix, int limit) {
+    if (!autocomplete.isLoaded()) {
+      return null;
+    }
+    return autocomplete.suggest(prefix, limit);
+  }
 
-    if (page == 0) {
-      result.put("movies_count", movieDao.getTextSearchCount(keywords));
+  /**
+   * Resolves misspelled cast members to the cast members of the catalog, when fuzzy matching is
+   * enabled, so the exact `$in` filters still find their movies.
+   *
+   * @param cast - cast members as typed.
+   * @return resolved cast members, or `cast` itself without fuzzy matching.
+   */
+  public ArrayList<String> resolveCast(ArrayList<String> cast) {
+    if (cast == null || !autocomplete.isFuzzy()) {
+      return cast;
     }
-    return result;
+    ArrayList<String> resolved = new ArrayList<>(cast.size());
+    for (String name : cast) {
+      String canonical = autocomplete.resolveCast(name);
+      if (!resolved.contains(canonical)) {
+        resolved.add(canonical);
+      }
+    }
+    return resolved;
   }
 
   /**
@@ -141,20 +232,33 @@ public class MoviesService {
 
     String[] cast = castFilter.toArray(new String[0]);
     String sortKey = "tomatoes.viewer.numReviews";
-    List<Movie> movieList =
-        movieDao
-            .getMoviesByCast(sortKey, resultsPerPage, skip, cast)
-            .stream()
-            .map(MovieDocumentMapper::mapToMovie)
-            .collect(Collectors.toList());
-
-    Map<String, Object> result = new HashMap<>();
-    result.put("movies_list", movieList);
+    return countedPage(
+        Endpoint.CAST,
+        resultsPerPage,
+        page,
+        () -> movieDao.getMoviesByCast(sortKey, resultsPerPage, skip, cast),
+        cast);
+  }
 
-    if (page == 0) {
-      result.put("movies_count", movieDao.getCastSearchCount(cast));
-    }
-    return result;
+  /**
+   * Finds all movies that match the expected cast members, using keyset pagination.
+   *
+   * @param resultsPerPage - max number of movies per page
+   * @param pageToken - continuation token of the previous page, null for the first page.
+   * @param castFilter - cast to be matched
+   * @return Map containing the movies array, the total results matching filter criteria for the
+   *     first page, and the `next` continuation token.
+   */
+  public Map<String, ?> getMoviesByCast(
+      int resultsPerPage, String pageToken, ArrayList<String> castFilter) {
+    PageToken after = pageToken == null ? null : PageToken.decode(pageToken);
+    String[] cast = castFilter.toArray(new String[0]);
+    return keysetPage(
+        Endpoint.CAST,
+        resultsPerPage,
+        after,
+        () -> movieDao.getMoviesByCast(resultsPerPage, after, cast),
+        cast);
   }
 
   /**
@@ -171,22 +275,109 @@ public class MoviesService {
 
     String[] genres = genreFilters.toArray(new String[0]);
     String sortKey = "tomatoes.viewer.numReviews";
-    List<Movie> movieList =
-        movieDao
-            .getMoviesByGenre(sortKey, resultsPerPage, skip, genres)
-            .stream()
-            .map(MovieDocumentMapper::mapToMovie)
-            .collect(Collectors.toList());
+    return countedPage(
+        Endpoint.GENRE,
+        resultsPerPage,
+        page,
+        () -> movieDao.getMoviesByGenre(sortKey, resultsPerPage, skip, genres),
+        genres);
+  }
+
+  /**
+   * Finds all movies that match the wanted genre, using keyset pagination.
+   *
+   * @param resultsPerPage - number of results per page.
+   * @param pageToken - continuation token of the previous page, null for the first page.
+   * @param genreFilters - genres filter.
+   * @return Map containing the movies array, the total results matching filter criteria for the
+   *     first page, and the `next` continuation token.
+   */
+  public Map<String, ?> getMoviesByGenre(
+      int resultsPerPage, String pageToken, ArrayList<String> genreFilters) {
+    PageToken after = pageToken == null ? null : PageToken.decode(pageToken);
+    String[] genres = genreFilters.toArray(new String[0]);
+    return keysetPage(
+        Endpoint.GENRE,
+        resultsPerPage,
+        after,
+        () -> movieDao.getMoviesByGenre(resultsPerPage, after, genres),
+        genres);
+  }
 
+  /**
+   * Runs a skip based page query. The first page also reports `movies_count`, either from the same
+   * `$facet` aggregation or from the count engine, depending on the endpoint count mode.
+   */
+  private Map<String, Object> countedPage(
+      Endpoint endpoint,
+      int resultsPerPage,
+      int page,
+      Supplier<List<Document>> pageQuery,
+      String... filter) {
     Map<String, Object> result = new HashMap<>();
-    result.put("movies_list", movieList);
+    List<Document> documents =
+        fetchPage(endpoint, resultsPerPage, page == 0, pageQuery, result, filter);
+    result.put("movies_list", mapToMovies(documents));
+    return result;
+  }
 
-    if (page == 0) {
-      result.put("movies_count", movieDao.getCastSearchCount(genres));
+  /**
+   * Keyset variant of {@link #countedPage}. The first page of a keyset listing is the first page of
+   * the skip based one, so it can be served by the same `$facet` aggregation.
+   */
+  private Map<String, Object> keysetPage(
+      Endpoint endpoint,
+      int resultsPerPage,
+      PageToken after,
+      Supplier<List<Document>> pageQuery,
+      String... filter) {
+    Map<String, Object> result = new HashMap<>();
+    List<Document> documents =
+        fetchPage(endpoint, resultsPerPage, after == null, pageQuery, result, filter);
+    result.put("movies_list", mapToMovies(documents));
+    if (!documents.isEmpty() && documents.size() == resultsPerPage) {
+      Document last = documents.get(documents.size() - 1);
+      result.put("next", PageToken.after(last, MovieDao.KEYSET_SORT_KEY).encode());
     }
     return result;
   }
 
+  private List<Document> fetchPage(
+      Endpoint endpoint,
+      int resultsPerPage,
+      boolean firstPage,
+      Supplier<List<Document>> pageQuery,
+      Map<String, Object> result,
+      String... filter) {
+    if (firstPage && countEngine.mode(endpoint) == Mode.FACET) {
+      CountedPage counted = countEngine.pageAndCount(endpoint, resultsPerPage, 0, filter);
+      result.put("movies_count", counted.getCount());
+      return counted.getMovies();
+    }
+    if (!firstPage) {
+      return pageQuery.get();
+    }
+    QueryFanOut.Batch batch = fanOut.batch(endpoint.name().toLowerCase(Locale.ROOT));
+    Future<List<Document>> documents = batch.fork(pageQuery::get);
+    Future<Long> count = batch.fork(() -> countEngine.count(endpoint, filter));
+    batch.join();
+    result.put("movies_count", getNow(count));
+    return getNow(documents);
+  }
+
+  private static <T> T getNow(Future<T> joined) {
+    try {
+      return joined.get();
+    } catch (InterruptedException | ExecutionException ex) {
+      // only called on futures of a batch that joined successfully
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  private static List<Movie> mapToMovies(List<Document> documents) {
+    return documents.stream().map(MovieDocumentMapper::mapToMovie).collect(Collectors.toList());
+  }
+
   /**
    * Counts all movies in the database.
    *
@@ -202,16 +393,33 @@ public class MoviesService {
    * @param cast - cast members to be matched
    * @param page - page number
    * @param moviesPerPage - max number of movies per page
-   * @return Map containing the movies array, rating buckets, runtime bucket and total count of
-   *     results matching filter criteria.
+   * @return Map containing the movies array, the map of facet buckets under `facets` and total
+   *     count of results matching filter criteria.
    */
   public Map<String, ?> getMovieFacetedSearch(ArrayList<String> cast, int page, int moviesPerPage) {
     int skip = page * moviesPerPage;
     Map<String, Object> results = new HashMap<>();
 
     List<Movie> movies = new ArrayList<>();
-    Document facetResult =
-        movieDao.getMoviesCastFaceted(moviesPerPage, skip, cast.toArray(new String[0])).get(0);
+    String[] castMembers = cast.toArray(new String[0]);
+    if (facetEngine.isAvailable()) {
+      MovieFilterIndex.Selection matches =
+          filterIndex.select(MovieFilterIndex.Field.CAST, castMembers);
+      MovieFilterIndex.Selection pageMatches = matches.page(skip, moviesPerPage);
+      results.put("movies", mapToMovies(movieDao.getMoviesByIds(pageMatches.ids())));
+      results.put(
+          "facets",
+          facetEngine.facets(
+              facetEngine.getScope() == MovieFacetEngine.Scope.RESULTS ? matches : pageMatches));
+      results.put("count", (long) matches.size());
+      return results;
+    }
+    QueryFanOut.Batch batch = fanOut.batch("facet");
+    Future<List<Document>> faceted =
+        batch.fork(() -> movieDao.getMoviesCastFaceted(moviesPerPage, skip, castMembers));
+    Future<Long> count = batch.fork(() -> countEngine.count(Endpoint.CAST, castMembers));
+    batch.join();
+    Document facetResult = getNow(faceted).get(0);
 
     if (facetResult != null) {
       ArrayList<Document> moviesArray = (ArrayList<Document>) facetResult.get("movies");
@@ -220,13 +428,39 @@ public class MoviesService {
         moviesArray.iterator().forEachRemaining(x -> movies.add(MovieDocumentMapper.mapToMovie(x)));
       }
       results.put("movies", movies);
-      results.put("rating", facetResult.get("rating"));
-      results.put("runtime", facetResult.get("runtime"));
-      results.put("count", movieDao.getCastSearchCount(cast.toArray(new String[0])));
+      Map<String, Object> facets = new HashMap<>();
+      facets.put("runtime", facetResult.get("runtime"));
+      facets.put("rating", facetResult.get("rating"));
+      results.put("facets", facets);
+      results.put("count", getNow(count));
     }
     return results;
   }
 
+  /**
+   * Lists the comments of a movie, newest first, using keyset pagination.
+   *
+   * @param movieId - movie identifier.
+   * @param limit - max number of comments per page.
+   * @param pageToken - continuation token of the previous page, null for the first page.
+   * @return Map with the comments under `comments` and the continuation token under `next` if more
+   *     comments may follow.
+   * @throws IllegalArgumentException if the movie id or the token are malformed.
+   */
+  public Map<String, ?> getMovieComments(String movieId, int limit, String pageToken) {
+    if (!ObjectId.isValid(movieId)) {
+      throw new IllegalArgumentException(MessageFormat.format("invalid movie id `{0}`", movieId));
+    }
+    PageToken after = pageToken == null ? null : PageToken.decode(pageToken);
+    List<Comment> comments = commentDao.getMovieComments(movieId, limit, after);
+    Map<String, Object> result = new HashMap<>();
+    result.put("comments", comments);
+    if (!comments.isEmpty() && comments.size() == limit) {
+      result.put("next", CommentDao.pageTokenAfter(comments.get(comments.size() - 1)).encode());
+    }
+    return result;
+  }
+
   /**
    * Updates an existing movie comment.
    *
@@ -244,7 +478,8 @@ public class MoviesService {
     updateComment.setId(commentBody.get("comment_id"));
     updateComment.setDate(new Date());
     updateComment.setText(commentBody.get("updated_comment"));
-    if (!commentDao.updateComment(updateComment.getId(), updateComment.getText(), email)) {
+    if (!commentDao.updateComment(
+        updateComment.getId(), updateComment.getText(), email, updateComment.getDate())) {
       // check if the email matches the current user
       Comment currentComment = commentDao.getComment(updateComment.getId());
       if (currentComment == null) {
@@ -259,8 +494,13 @@ public class MoviesService {
       }
     }
 
-    Movie movie = MovieDocumentMapper.mapToMovie(movieDao.getMovie(updateComment.getMovieId()));
-    results.put("comments", movie.getComments());
+    List<Document> comments =
+        movieDetailCache.updateComment(
+            updateComment.getMovieId(),
+            new ObjectId(updateComment.getId()),
+            updateComment.getText(),
+            updateComment.getDate());
+    results.put("comments", MovieDocumentMapper.mapToComments(comments));
     return true;
   }
 
@@ -289,8 +529,9 @@ public class MoviesService {
       return false;
     }
 
-    Movie movie = MovieDocumentMapper.mapToMovie(movieDao.getMovie(movieId));
-    results.put("comments", movie.getComments());
+    List<Document> comments =
+        movieDetailCache.putComment(movieId, MovieDocumentMapper.mapToCommentDocument(newComment));
+    results.put("comments", MovieDocumentMapper.mapToComments(comments));
     return true;
   }
 
@@ -313,8 +554,8 @@ public class MoviesService {
       return false;
     }
 
-    Movie movie = MovieDocumentMapper.mapToMovie(movieDao.getMovie(movieId));
-    results.put("comments", movie.getComments());
+    List<Document> comments = movieDetailCache.removeComment(movieId, new ObjectId(commentId));
+    results.put("comments", MovieDocumentMapper.mapToComments(comments));
     return true;
   }
 
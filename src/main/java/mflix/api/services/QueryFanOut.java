@@ -0,0 +1,217 @@
+package mflix.api.services;
+
+import com.mongodb.ConnectionString;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import mflix.api.daos.IncorrectDaoOperation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs independent DAO calls of one request concurrently, on a bounded pool sized as a share of the
+ * driver `maxPoolSize` so fan-out can never take every connection away from the request threads.
+ * The last call of a batch runs on the caller thread while it would wait anyway. When the pool
+ * queue is full the caller runs the call itself, which degrades to the sequential behaviour instead
+ * of failing. Calls still queued at shutdown are cancelled, so their batch fails right away.
+ *
+ * <p>Per endpoint, `mflix.fanout.wall` times the batch as the client sees it and
+ * `mflix.fanout.saved` records how many milliseconds running sequentially would have added.
+ */
+@Service
+public class QueryFanOut {
+
+  private static final int DEFAULT_DRIVER_POOL_SIZE = 100;
+
+  private final MeterRegistry meterRegistry;
+
+  private final boolean enabled;
+
+  private final long timeoutMs;
+
+  private final ThreadPoolExecutor executor;
+
+  @Autowired
+  public QueryFanOut(
+      MeterRegistry meterRegistry,
+      @Value("${spring.mongodb.uri}") String connectionString,
+      @Value("${api.fanout.enabled:true}") boolean enabled,
+      @Value("${api.fanout.pool_share:0.5}") double poolShare,
+      @Value("${api.fanout.queue_size:256}") int queueSize,
+      @Value("${api.fanout.timeout_ms:5000}") long timeoutMs) {
+    this.meterRegistry = meterRegistry;
+    this.enabled = enabled;
+    this.timeoutMs = timeoutMs;
+
+    Integer driverPoolSize = new ConnectionString(connectionString).getMaxConnectionPoolSize();
+    int threads =
+        Math.max(
+            1,
+            (int) (poolShare * (driverPoolSize == null ? DEFAULT_DRIVER_POOL_SIZE : driverPoolSize)));
+    AtomicInteger threadCount = new AtomicInteger();
+    this.executor =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            60,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueSize),
+            runnable -> {
+              Thread thread = new Thread(runnable, "query-fanout-" + threadCount.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            },
+            (runnable, pool) -> {
+              if (pool.isShutdown()) {
+                // only batch tasks are submitted
+                ((Future<?>) runnable).cancel(false);
+              } else {
+                runnable.run();
+              }
+            });
+    this.executor.allowCoreThreadTimeOut(true);
+    ExecutorServiceMetrics.monitor(meterRegistry, executor, "mflix.fanout", Tags.empty());
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    for (Runnable queued : executor.shutdownNow()) {
+      ((Future<?>) queued).cancel(false);
+    }
+  }
+
+  /**
+   * Starts a new set of concurrent calls.
+   *
+   * @param endpoint - name the batch metrics are tagged with.
+   * @return Batch object.
+   */
+  public Batch batch(String endpoint) {
+    return new Batch(endpoint);
+  }
+
+  /** Calls forked for one request. {@link #join()} must be called before reading the results. */
+  public class Batch {
+
+    private final String endpoint;
+
+    private final long startNanos = System.nanoTime();
+
+    private final AtomicLong serialNanos = new AtomicLong();
+
+    private final List<Future<?>> futures = new ArrayList<>();
+
+    /** Last forked call, not submitted yet as {@link #join()} may run it itself. */
+    private FutureTask<?> held;
+
+    private Batch(String endpoint) {
+      this.endpoint = endpoint;
+    }
+
+    /**
+     * Submits a call. The last call of the batch is held back and runs on the calling thread in
+     * {@link #join()}. With fan-out disabled it runs right away on the calling thread.
+     *
+     * @param call - DAO call.
+     * @param <T> - call result type.
+     * @return Future completed by the time {@link #join()} returns.
+     */
+    public <T> Future<T> fork(Callable<T> call) {
+      FutureTask<T> task =
+          new FutureTask<>(
+              () -> {
+                long start = System.nanoTime();
+                try {
+                  return call.call();
+                } finally {
+                  serialNanos.addAndGet(System.nanoTime() - start);
+                }
+              });
+      futures.add(task);
+      if (enabled) {
+        if (held != null) {
+          executor.execute(held);
+        }
+        held = task;
+      } else {
+        task.run();
+      }
+      return task;
+    }
+
+    /**
+     * Waits for every forked call within the configured timeout. On timeout or failure the calls
+     * still running are cancelled.
+     *
+     * @throws IncorrectDaoOperation if a call failed with a checked exception or timed out.
+     */
+    public void join() {
+      long deadline = startNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+      if (held != null) {
+        held.run();
+        held = null;
+      }
+      try {
+        for (Future<?> future : futures) {
+          future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+      } catch (TimeoutException ex) {
+        cancelAll();
+        throw new IncorrectDaoOperation(
+            MessageFormat.format("{0} queries did not complete in {1} ms", endpoint, timeoutMs), ex);
+      } catch (ExecutionException ex) {
+        cancelAll();
+        if (ex.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) ex.getCause();
+        }
+        throw new IncorrectDaoOperation(ex.getCause().getMessage(), ex.getCause());
+      } catch (CancellationException ex) {
+        cancelAll();
+        throw new IncorrectDaoOperation(endpoint + " queries were cancelled by shutdown", ex);
+      } catch (InterruptedException ex) {
+        cancelAll();
+        Thread.currentThread().interrupt();
+        throw new IncorrectDaoOperation(endpoint + " queries were interrupted", ex);
+      }
+      record();
+    }
+
+    private void cancelAll() {
+      for (Future<?> future : futures) {
+        future.cancel(true);
+      }
+    }
+
+    private void record() {
+      long wallNanos = System.nanoTime() - startNanos;
+      Timer.builder("mflix.fanout.wall")
+          .tag("endpoint", endpoint)
+          .register(meterRegistry)
+          .record(wallNanos, TimeUnit.NANOSECONDS);
+      DistributionSummary.builder("mflix.fanout.saved")
+          .baseUnit("milliseconds")
+          .tag("endpoint", endpoint)
+          .register(meterRegistry)
+          .record(Math.max(0, serialNanos.get() - wallNanos) / 1_000_000.0);
+    }
+  }
+}
@@ -1,19 +1,36 @@
 package mflix.api.services;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.impl.TextCodec;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import mflix.api.models.UserPrincipal;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.crypto.spec.SecretKeySpec;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 import static java.util.Collections.emptyList;
 
@@ -27,6 +44,33 @@ public class TokenAuthenticationService {
   @Value("${jwtSecret}")
   private String jwtSecret;
 
+  @Value("${api.auth.refresh_window_ms:86400000}")
+  private long refreshWindowInMs = 86400000;
+
+  @Value("${api.auth.token_cache.enabled:true}")
+  private boolean tokenCacheEnabled = true;
+
+  @Value("${api.auth.token_cache.max_entries:10000}")
+  private long tokenCacheMaxEntries = 10000;
+
+  @Value("${api.auth.token_cache.max_ttl_seconds:3600}")
+  private long tokenCacheMaxTtlSeconds = 3600;
+
+  @Autowired(required = false)
+  private MeterRegistry meterRegistry;
+
+  /**
+   * Tokens whose signature was already verified, keyed by the SHA-256 digest of the token so the
+   * bearer credentials themselves are not kept in memory. Null when the cache is disabled.
+   */
+  private Cache<String, VerifiedToken> verifiedTokens;
+
+  /** HMAC key decoded once from `jwtSecret`, instead of on every signature. */
+  private Key signingKey;
+
+  /** Configured parser, it keeps no state between parse calls and is shared by all requests. */
+  private JwtParser jwtParser;
+
   private final String TOKEN_PREFIX = "Bearer";
   private final String HEADER_STRING = "Authorization";
 
@@ -37,16 +81,88 @@ public class TokenAuthenticationService {
     log = LoggerFactory.getLogger(this.getClass());
   }
 
+  /** Subject and expiration of a token whose signature was verified. */
+  private static class VerifiedToken {
+
+    private final String subject;
+
+    private final long expiresAtMillis;
+
+    private VerifiedToken(String subject, long expiresAtMillis) {
+      this.subject = subject;
+      this.expiresAtMillis = expiresAtMillis;
+    }
+  }
+
+  @PostConstruct
+  public void init() {
+    signingKey =
+        new SecretKeySpec(
+            TextCodec.BASE64.decode(jwtSecret), SignatureAlgorithm.HS512.getJcaName());
+    jwtParser = Jwts.parser().setSigningKey(signingKey);
+    if (!tokenCacheEnabled) {
+      return;
+    }
+    verifiedTokens =
+        Caffeine.newBuilder()
+            .maximumSize(tokenCacheMaxEntries)
+            .expireAfter(
+                new Expiry<String, VerifiedToken>() {
+                  @Override
+                  public long expireAfterCreate(String digest, VerifiedToken token, long now) {
+                    long untilExp = token.expiresAtMillis - System.currentTimeMillis();
+                    long maxTtl = TimeUnit.SECONDS.toMillis(tokenCacheMaxTtlSeconds);
+                    return TimeUnit.MILLISECONDS.toNanos(Math.max(0, Math.min(untilExp, maxTtl)));
+                  }
+
+                  @Override
+                  public long expireAfterUpdate(
+                      String digest, VerifiedToken token, long now, long currentDuration) {
+                    return currentDuration;
+                  }
+
+                  @Override
+                  public long expireAfterRead(
+                      String digest, VerifiedToken token, long now, long currentDuration) {
+                    return currentDuration;
+                  }
+                })
+            .recordStats()
+            .build();
+    if (meterRegistry != null) {
+      CaffeineCacheMetrics.monitor(meterRegistry, verifiedTokens, "jwt_verified");
+    }
+  }
+
   public String mintJWTHeader(String username) {
     String JWT =
         Jwts.builder()
             .setSubject(username)
             .setExpiration(new Date(System.currentTimeMillis() + jwtExpirationInMs))
-            .signWith(SignatureAlgorithm.HS512, jwtSecret)
+            .signWith(SignatureAlgorithm.HS512, signingKey)
             .compact();
     return TOKEN_PREFIX + " " + JWT;
   }
 
+  /**
+   * Sliding refresh of the token presented with a request. A new token is only minted when the
+   * presented one expires within the refresh window, otherwise it is handed back unchanged.
+   *
+   * @param presentedToken - `Authorization` header value of the request.
+   * @param username - user the token is issued for.
+   * @return `Authorization` header value the client should use from now on.
+   */
+  public String refreshJWTHeader(String presentedToken, String username) {
+    String jwt = trimToken(presentedToken);
+    VerifiedToken verified = verifiedToken(jwt);
+    if (verified != null
+        && verified.subject.equals(username)
+        && verified.expiresAtMillis - System.currentTimeMillis() > refreshWindowInMs) {
+      return TOKEN_PREFIX + " " + jwt;
+    }
+    return mintJWTHeader(username);
+  }
+
   public void addAuthentication(HttpServletResponse res, String username) {
     String headerValue = mintJWTHeader(username);
     res.addHeader(HEADER_STRING, headerValue);
@@ -56,19 +172,82 @@ public class TokenAuthenticationService {
     return token.replace(TOKEN_PREFIX, "").trim();
   }
 
+  /**
+   * Returns the subject of a valid token. The signature of a given token is verified once, later
+   * calls are answered from the verified token cache until the token expires or is evicted.
+   *
+   * @param token - JWT, with or without the `Bearer` prefix.
+   * @return user email or null if the token is not valid.
+   */
   public String getAuthenticationUser(String token) {
+    VerifiedToken verified = verifiedToken(trimToken(token));
+    return verified == null ? null : verified.subject;
+  }
+
+  private VerifiedToken verifiedToken(String jwt) {
+    if (verifiedTokens == null) {
+      return verify(jwt);
+    }
+    String digest = digest(jwt);
+    VerifiedToken verified = verifiedTokens.getIfPresent(digest);
+    if (verified != null && verified.expiresAtMillis > System.currentTimeMillis()) {
+      return verified;
+    }
+    verified = verify(jwt);
+    if (verified != null) {
+      verifiedTokens.put(digest, verified);
+    }
+    return verified;
+  }
+
+  private VerifiedToken verify(String jwt) {
     try {
-      return Jwts.parser()
-          .setSigningKey(jwtSecret)
-          .parseClaimsJws(trimToken(token))
-          .getBody()
-          .getSubject();
+      Claims claims = jwtParser.parseClaimsJws(jwt).getBody();
+      if (claims.getSubject() == null) {
+        return null;
+      }
+      Date expiration = claims.getExpiration();
+      long expiresAtMillis = expiration == null ? Long.MAX_VALUE : expiration.getTime();
+      return new VerifiedToken(claims.getSubject(), expiresAtMillis);
     } catch (Exception e) {
-      log.error("Cannot validate user token `{}`: error thrown - {}", token, e.getMessage());
+      log.error("Cannot validate user token `{}`: error thrown - {}", jwt, e.getMessage());
     }
     return null;
   }
 
+  private static String digest(String jwt) {
+    try {
+      byte[] hash =
+          MessageDigest.getInstance("SHA-256").digest(jwt.getBytes(StandardCharsets.US_ASCII));
+      return Base64.getEncoder().encodeToString(hash);
+    } catch (NoSuchAlgorithmException e) {
+      // every Java platform is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Removes a token from the verified token cache, its signature is checked again on next use.
+   *
+   * @param token - JWT, with or without the `Bearer` prefix.
+   */
+  public void evictToken(String token) {
+    if (verifiedTokens != null) {
+      verifiedTokens.invalidate(digest(trimToken(token)));
+    }
+  }
+
+  /**
+   * Removes every cached token of a user, e.g. on logout or when the user is deleted.
+   *
+   * @param email - token subject.
+   */
+  public void evictUser(String email) {
+    if (verifiedTokens != null && email != null) {
+      verifiedTokens.asMap().values().removeIf(verified -> email.equals(verified.subject));
+    }
+  }
+
   public Authentication getAuthentication(HttpServletRequest request) {
     String token = request.getHeader(HEADER_STRING);
     if (token != null) {
@@ -90,7 +269,7 @@ public class TokenAuthenticationService {
         .setSubject(userPrincipal.getEmail())
         .setIssuedAt(new Date())
         .setExpiration(expiryDate)
-        .signWith(SignatureAlgorithm.HS512, jwtSecret)
+        .signWith(SignatureAlgorithm.HS512, signingKey)
         .compact();
   }
 }
@@ -1,10 +1,12 @@
 package mflix.api.services;
 
 import mflix.api.daos.IncorrectDaoOperation;
+import mflix.api.daos.UserCache;
 import mflix.api.daos.UserDao;
 import mflix.api.models.User;
 import mflix.api.models.UserPrincipal;
 import mflix.api.models.UserRegistry;
+import mflix.api.security.PooledPasswordEncoder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.authentication.AuthenticationManager;
@@ -31,6 +33,8 @@ public class UserService implements UserDetailsService {
 
   @Autowired private UserDao userDao;
 
+  @Autowired private UserCache userCache;
+
   public UserService() {
     super();
   }
@@ -73,7 +77,11 @@ public class UserService implements UserDetailsService {
 
   private User createUser(User user, Map<String, String> errors) {
     try {
-      return userDao.addUser(user) ? user : null;
+      if (!userDao.addUser(user)) {
+        return null;
+      }
+      userCache.invalidate(user.getEmail());
+      return user;
     } catch (IncorrectDaoOperation ex) {
       errors.put("msg", ex.getMessage());
     }
@@ -81,7 +89,18 @@ public class UserService implements UserDetailsService {
   }
 
   public User loadUser(String email) {
-    return userDao.getUser(email);
+    return loadUser(email, "principal");
+  }
+
+  /**
+   * Returns the user matching the email, from the user cache when possible.
+   *
+   * @param email - identifies the user
+   * @param request - request type the cache metrics are tagged with
+   * @return User object or null.
+   */
+  public User loadUser(String email, String request) {
+    return userCache.getUser(email, request);
   }
 
   private String generateUserToken(String email, String password) {
@@ -107,7 +126,29 @@ public class UserService implements UserDetailsService {
       return null;
     }
     results.put("auth_token", jwt);
-    return userDao.getUser(email);
+    User user = loadUser(email, "login");
+    rehashIfNeeded(user, password);
+    return user;
+  }
+
+  /**
+   * Replaces the password hash of a user that just logged in when it was computed with another
+   * work factor than `api.auth.bcrypt.strength`. Runs in the background, off the login latency.
+   */
+  private void rehashIfNeeded(User user, String password) {
+    if (user == null || !(passwordEncoder instanceof PooledPasswordEncoder)) {
+      return;
+    }
+    PooledPasswordEncoder encoder = (PooledPasswordEncoder) passwordEncoder;
+    if (encoder.upgradeEncoding(user.getHashedpw())) {
+      String email = user.getEmail();
+      encoder.encodeAsync(
+          password,
+          hashedpw -> {
+            userDao.updateUserPassword(email, hashedpw);
+            userCache.invalidate(email);
+          });
+    }
   }
 
   /**
@@ -117,6 +158,7 @@ public class UserService implements UserDetailsService {
    * @return true if no more sessions are found for this user
    */
   public boolean logoutUser(String email) {
+    authService.evictUser(email);
     return userDao.deleteUserSessions(email);
   }
 
@@ -129,19 +171,24 @@ public class UserService implements UserDetailsService {
    * @return true if successful deletes the user from mflix
    */
   public boolean deleteUser(String email, String password, Map<String, String> results) {
-    // check if hashed password matches
-    String hpwd = passwordEncoder.encode(password);
-    if (userDao.getUser(email) == null) {
+    User user = loadUser(email, "delete");
+    if (user == null) {
       results.put("msg", "user does not exist");
       return false;
     }
 
-    if (!passwordEncoder.matches(password, hpwd)) {
+    // check if the password matches the stored hash
+    if (!passwordEncoder.matches(password, user.getHashedpw())) {
       results.put("msg", "passwords do not match");
       return false;
     }
 
-    return userDao.deleteUser(email);
+    if (!userDao.deleteUser(email)) {
+      return false;
+    }
+    userCache.invalidate(email);
+    authService.evictUser(email);
+    return true;
   }
 
   /**
@@ -158,7 +205,8 @@ public class UserService implements UserDetailsService {
     Map<String, String> preferences =
         (Map<String, String>) userPreferences.get("preferences");
     if (userDao.updateUserPreferences(email, preferences)) {
-      User user = userDao.getUser(email);
+      userCache.invalidate(email);
+      User user = loadUser(email, "preferences");
       if(user == null){
 
         throw new UsernameNotFoundException("Cannot find username.");
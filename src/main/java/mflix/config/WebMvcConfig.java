@@ -1,14 +1,45 @@
 package mflix.config;
 
+import com.mongodb.ConnectionString;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import javax.annotation.PreDestroy;
+
 @Configuration
 public class WebMvcConfig implements WebMvcConfigurer {
 
   private final long MAX_AGE_SECS = 3600;
 
+  private static final int DEFAULT_DRIVER_POOL_SIZE = 100;
+
+  @Autowired private MeterRegistry meterRegistry;
+
+  @Value("${spring.mongodb.uri}")
+  private String connectionString;
+
+  @Value("${api.async.enabled:false}")
+  private boolean async;
+
+  @Value("${api.async.threads:0}")
+  private int asyncThreads;
+
+  @Value("${api.async.queue_size:10000}")
+  private int asyncQueueSize;
+
+  @Value("${api.async.timeout_ms:30000}")
+  private long asyncTimeoutMs;
+
+  private ThreadPoolTaskExecutor asyncExecutor;
+
   @Override
   public void addCorsMappings(CorsRegistry registry) {
     registry
@@ -17,4 +48,44 @@ public class WebMvcConfig implements WebMvcConfigurer {
         .allowedMethods("HEAD", "OPTIONS", "GET", "POST", "PUT", "PATCH", "DELETE")
         .maxAge(MAX_AGE_SECS);
   }
+
+  /**
+   * Runs the handlers of `api.async.enabled` requests on a pool as large as the driver connection
+   * pool, unless `api.async.threads` says otherwise, so the requests blocked on MongoDB never
+   * outnumber the connections while Tomcat threads stay free to accept more. Requests waiting for
+   * a thread queue up to `api.async.queue_size` and are turned away with a 503 beyond it, and
+   * requests still unanswered after `api.async.timeout_ms` get a 503 too. The pool is monitored
+   * under `mflix.async`.
+   */
+  @Override
+  public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+    if (!async) {
+      return;
+    }
+    int threads = asyncThreads;
+    if (threads <= 0) {
+      Integer driverPoolSize = new ConnectionString(connectionString).getMaxConnectionPoolSize();
+      threads = driverPoolSize == null ? DEFAULT_DRIVER_POOL_SIZE : driverPoolSize;
+    }
+    asyncExecutor = new ThreadPoolTaskExecutor();
+    asyncExecutor.setCorePoolSize(threads);
+    asyncExecutor.setMaxPoolSize(threads);
+    asyncExecutor.setQueueCapacity(asyncQueueSize);
+    asyncExecutor.setAllowCoreThreadTimeOut(true);
+    asyncExecutor.setThreadNamePrefix("mongo-request-");
+    asyncExecutor.setDaemon(true);
+    asyncExecutor.initialize();
+    ExecutorServiceMetrics.monitor(
+        meterRegistry, asyncExecutor.getThreadPoolExecutor(), "mflix.async", Tags.empty());
+
+    configurer.setTaskExecutor(asyncExecutor);
+    configurer.setDefaultTimeout(asyncTimeoutMs);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (asyncExecutor != null) {
+      asyncExecutor.shutdown();
+    }
+  }
 }
@@ -1,9 +1,12 @@
 package mflix.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import mflix.api.security.JWTAuthEntryPoint;
 import mflix.api.security.JWTAuthenticationFilter;
+import mflix.api.security.PooledPasswordEncoder;
 import mflix.api.services.TokenAuthenticationService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
@@ -13,7 +16,6 @@ import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
 import org.springframework.security.config.http.SessionCreationPolicy;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 
@@ -22,8 +24,13 @@ import org.springframework.security.web.authentication.UsernamePasswordAuthentic
 public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
 
   @Bean
-  public PasswordEncoder passwordEncoder() {
-    return new BCryptPasswordEncoder();
+  public PasswordEncoder passwordEncoder(
+      MeterRegistry meterRegistry,
+      @Value("${api.auth.bcrypt.strength:10}") int strength,
+      @Value("${api.auth.bcrypt.threads:2}") int threads,
+      @Value("${api.auth.bcrypt.queue_size:32}") int queueSize,
+      @Value("${api.auth.bcrypt.max_wait_ms:2000}") long maxWaitMs) {
+    return new PooledPasswordEncoder(meterRegistry, strength, threads, queueSize, maxWaitMs);
   }
 
   @Autowired private JWTAuthEntryPoint unauthorizedHandler;
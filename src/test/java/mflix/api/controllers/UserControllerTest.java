@@ -0,0 +1,126 @@
+package mflix.api.controllers;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import mflix.api.daos.UserCache;
+import mflix.api.daos.UserDao;
+import mflix.api.models.User;
+import mflix.api.services.TokenAuthenticationService;
+import mflix.api.services.UserService;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.MediaType;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+public class UserControllerTest {
+
+  private static final String EMAIL = "user@fakegmail.com";
+
+  private static final String PASSWORD = "some-long-password";
+
+  private MongoClient mongoClient;
+
+  private final List<String> deleted = new ArrayList<>();
+
+  private MockMvc mvc;
+
+  private String authorization;
+
+  @Before
+  public void setUp() {
+    BCryptPasswordEncoder passwordEncoder = new BCryptPasswordEncoder(4);
+    User user = new User();
+    user.setEmail(EMAIL);
+    user.setHashedpw(passwordEncoder.encode(PASSWORD));
+
+    // never connects, the dao calls are answered here
+    mongoClient = MongoClients.create("mongodb://localhost:1");
+    UserDao userDao =
+        new UserDao(mongoClient, "mflix") {
+          @Override
+          public User getUser(String email) {
+            return EMAIL.equals(email) && !deleted.contains(email) ? user : null;
+          }
+
+          @Override
+          public boolean deleteUser(String email) {
+            return deleted.add(email);
+          }
+        };
+
+    TokenAuthenticationService tokenProvider = new TokenAuthenticationService();
+    ReflectionTestUtils.setField(
+        tokenProvider, "jwtSecret", "c2VjcmV0LXVzZWQtb25seS1ieS10aGlzLXRlc3Q");
+    ReflectionTestUtils.setField(tokenProvider, "jwtExpirationInMs", 60_000L);
+    ReflectionTestUtils.setField(tokenProvider, "refreshWindowInMs", 10_000L);
+    tokenProvider.init();
+    authorization = tokenProvider.mintJWTHeader(EMAIL);
+
+    UserService userService = new UserService();
+    ReflectionTestUtils.setField(userService, "passwordEncoder", passwordEncoder);
+    ReflectionTestUtils.setField(userService, "authService", tokenProvider);
+    ReflectionTestUtils.setField(userService, "userDao", userDao);
+    ReflectionTestUtils.setField(
+        userService,
+        "userCache",
+        new UserCache(userDao, new SimpleMeterRegistry(), true, 100, 300));
+
+    UserController controller = new UserController();
+    ReflectionTestUtils.setField(controller, "userService", userService);
+    ReflectionTestUtils.setField(controller, "tokenProvider", tokenProvider);
+    mvc = MockMvcBuilders.standaloneSetup(controller).build();
+  }
+
+  @After
+  public void tearDown() {
+    mongoClient.close();
+  }
+
+  /** Same request as the account page of the frontend. */
+  private ResultActions deleteAccount(String password) throws Exception {
+    return mvc.perform(
+        delete("/api/v1/user/delete")
+            .header("Authorization", authorization)
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("{\"password\":\"" + password + "\"}"));
+  }
+
+  @Test
+  public void testDeletesWithPasswordFromJsonBody() throws Exception {
+    deleteAccount(PASSWORD)
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.success").value("deleted"));
+
+    Assert.assertEquals(1, deleted.size());
+  }
+
+  @Test
+  public void testRejectsWrongPassword() throws Exception {
+    deleteAccount("not-the-password")
+        .andExpect(status().isBadRequest())
+        .andExpect(jsonPath("$.msg").value("passwords do not match"));
+
+    Assert.assertTrue(deleted.isEmpty());
+  }
+
+  @Test
+  public void testRejectsShortPassword() throws Exception {
+    deleteAccount("short").andExpect(status().isBadRequest());
+
+    Assert.assertTrue(deleted.isEmpty());
+  }
+}
@@ -0,0 +1,73 @@
+package mflix.api.daos;
+
+import mflix.api.models.Critic;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class CommenterRankingTest {
+
+  private CommenterRanking ranking;
+
+  @Before
+  public void setUp() {
+    ranking = new CommenterRanking(3);
+    ranking.reset(
+        Arrays.asList(new Critic("a", 10), new Critic("b", 8), new Critic("c", 6)), 4);
+  }
+
+  private static List<String> emails(List<Critic> critics) {
+    List<String> emails = new ArrayList<>();
+    critics.forEach(critic -> emails.add(critic.getId()));
+    return emails;
+  }
+
+  @Test
+  public void testRanksByCount() {
+    ranking.record("c", 11);
+
+    Assert.assertEquals(Arrays.asList("c", "a"), emails(ranking.top(2)));
+  }
+
+  @Test
+  public void testAdmitsCommenterAboveFloor() {
+    ranking.record("d", 7);
+
+    Assert.assertEquals(Arrays.asList("a", "b", "d"), emails(ranking.top(3)));
+  }
+
+  @Test
+  public void testIgnoresCommenterAtFloor() {
+    ranking.record("d", 4);
+
+    Assert.assertEquals(Arrays.asList("a", "b", "c"), emails(ranking.top(3)));
+  }
+
+  @Test
+  public void testUnknownWhenCandidateDropsBelowFloor() {
+    ranking.record("c", 3);
+
+    Assert.assertEquals(Arrays.asList("a", "b"), emails(ranking.top(2)));
+    Assert.assertNull(ranking.top(3));
+  }
+
+  @Test
+  public void testUnknownWhenCandidatesRunOut() {
+    ranking.record("c", 0);
+
+    Assert.assertNull(ranking.top(3));
+  }
+
+  @Test
+  public void testExactWithoutFloor() {
+    ranking.reset(Arrays.asList(new Critic("a", 2), new Critic("b", 1)), 0);
+
+    ranking.record("b", 0);
+
+    Assert.assertEquals(Arrays.asList("a"), emails(ranking.top(3)));
+  }
+}
@@ -0,0 +1,135 @@
+package mflix.api.daos;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoCollection;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class GroupCommitterTest {
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+
+  private GroupCommitter<Document> committer;
+
+  @After
+  public void tearDown() {
+    if (committer != null) {
+      committer.stop();
+    }
+  }
+
+  private MongoCollection<Document> collection(String failingValue) {
+    return collection(failingValue, new CountDownLatch(0));
+  }
+
+  private MongoCollection<Document> blockingCollection(CountDownLatch release) {
+    return collection(null, release);
+  }
+
+  /**
+   * Collection whose insertMany waits for the release latch, records the batch sizes and rejects
+   * documents by value.
+   */
+  @SuppressWarnings("unchecked")
+  private MongoCollection<Document> collection(String failingValue, CountDownLatch release) {
+    return (MongoCollection<Document>)
+        Proxy.newProxyInstance(
+            getClass().getClassLoader(),
+            new Class<?>[] {MongoCollection.class},
+            (proxy, method, args) -> {
+              if (!method.getName().equals("insertMany")) {
+                throw new UnsupportedOperationException(method.getName());
+              }
+              release.await();
+              List<Document> documents = (List<Document>) args[0];
+              batchSizes.add(documents.size());
+              List<BulkWriteError> errors = new ArrayList<>();
+              for (int i = 0; i < documents.size(); i++) {
+                if (documents.get(i).get("value").equals(failingValue)) {
+                  errors.add(new BulkWriteError(11000, "duplicate key", new BsonDocument(), i));
+                }
+              }
+              if (!errors.isEmpty()) {
+                throw new MongoBulkWriteException(
+                    BulkWriteResult.unacknowledged(), errors, null, new ServerAddress());
+              }
+              return null;
+            });
+  }
+
+  private List<CompletableFuture<Document>> submitAll(int count) {
+    List<CompletableFuture<Document>> futures = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      futures.add(committer.submit(new Document("value", "doc" + i), 1000));
+    }
+    return futures;
+  }
+
+  @Test
+  public void testBatchesConcurrentInserts() throws Exception {
+    committer =
+        new GroupCommitter<>("test.group_commit", collection(null), 10, 200, 100, meterRegistry);
+    List<CompletableFuture<Document>> futures = submitAll(25);
+    for (CompletableFuture<Document> future : futures) {
+      Assert.assertNotNull(future.get(5, TimeUnit.SECONDS));
+    }
+
+    Assert.assertEquals(25, batchSizes.stream().mapToInt(Integer::intValue).sum());
+    Assert.assertTrue("expected batched inserts, got " + batchSizes, batchSizes.size() <= 5);
+    Assert.assertEquals(
+        batchSizes.size(), meterRegistry.get("test.group_commit.batch_size").summary().count());
+    Assert.assertEquals(25, meterRegistry.get("test.group_commit.latency").timer().count());
+  }
+
+  @Test
+  public void testFailsOnlyTheRejectedDocument() throws Exception {
+    committer =
+        new GroupCommitter<>("test.group_commit", collection("doc3"), 10, 200, 100, meterRegistry);
+    List<CompletableFuture<Document>> futures = submitAll(6);
+    for (int i = 0; i < futures.size(); i++) {
+      try {
+        futures.get(i).get(5, TimeUnit.SECONDS);
+        Assert.assertNotEquals(3, i);
+      } catch (ExecutionException ex) {
+        Assert.assertEquals(3, i);
+        Assert.assertTrue(ex.getCause() instanceof IncorrectDaoOperation);
+      }
+    }
+  }
+
+  @Test
+  public void testRejectsWhenQueueIsFull() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    committer =
+        new GroupCommitter<>(
+            "test.group_commit", blockingCollection(release), 1, 0, 2, meterRegistry);
+    // one document stuck in insertMany and two queued behind it fill the committer
+    List<CompletableFuture<Document>> futures = submitAll(3);
+    TimeUnit.MILLISECONDS.sleep(100);
+    CompletableFuture<Document> rejected = committer.submit(new Document("value", "late"), 10);
+    release.countDown();
+
+    Assert.assertTrue(rejected.isCompletedExceptionally());
+    for (CompletableFuture<Document> future : futures) {
+      Assert.assertNotNull(future.get(5, TimeUnit.SECONDS));
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package mflix.api.daos;
+
+import org.bson.types.ObjectId;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class InvertedIndexTest {
+
+  private InvertedIndex index;
+
+  private final ObjectId heat = new ObjectId();
+  private final ObjectId ronin = new ObjectId();
+  private final ObjectId alien = new ObjectId();
+
+  @Before
+  public void setUp() {
+    index = new InvertedIndex(1.2, 0.75);
+    index.put(
+        heat,
+        Arrays.asList(
+            "Heat",
+            "A group of professional bank robbers start to feel the heat from police.",
+            "Al Pacino",
+            "Robert De Niro"));
+    index.put(
+        ronin,
+        Arrays.asList(
+            "Ronin",
+            "A freelancing former US intelligence agent tries to track down a briefcase.",
+            "Robert De Niro",
+            "Jean Reno"));
+    index.put(
+        alien,
+        Arrays.asList(
+            "Alien",
+            "The crew of a commercial spacecraft encounter a deadly lifeform.",
+            "Sigourney Weaver"));
+  }
+
+  @Test
+  public void testRanksByBm25() {
+    MovieTextIndex.SearchResult result = index.search("heat niro", 0, 10);
+
+    Assert.assertEquals(2, result.getTotal());
+    Assert.assertEquals(Arrays.asList(heat, ronin), result.getIds());
+    Assert.assertTrue(result.getHits().get(0).getScore() > result.getHits().get(1).getScore());
+  }
+
+  @Test
+  public void testIgnoresCaseAndStopWords() {
+    Assert.assertEquals(
+        Collections.singletonList(alien), index.search("THE Crew", 0, 10).getIds());
+    Assert.assertEquals(0, index.search("the of a", 0, 10).getTotal());
+  }
+
+  @Test
+  public void testMatchesPhrases() {
+    Assert.assertEquals(2, index.search("\"robert de niro\"", 0, 10).getTotal());
+    Assert.assertEquals(
+        Collections.singletonList(heat), index.search("\"feel the heat\"", 0, 10).getIds());
+    Assert.assertEquals(0, index.search("\"heat feel\"", 0, 10).getTotal());
+    // fields are apart, so a phrase never spans two of them
+    Assert.assertEquals(0, index.search("\"niro jean\"", 0, 10).getTotal());
+  }
+
+  @Test
+  public void testExcludesTerms() {
+    Assert.assertEquals(
+        Collections.singletonList(ronin), index.search("niro -pacino", 0, 10).getIds());
+  }
+
+  @Test
+  public void testPagesBestMatches() {
+    MovieTextIndex.SearchResult page = index.search("niro weaver", 1, 1);
+
+    Assert.assertEquals(3, page.getTotal());
+    Assert.assertEquals(1, page.getHits().size());
+    Assert.assertEquals(index.search("niro weaver", 0, 3).getIds().get(1), page.getIds().get(0));
+    Assert.assertTrue(index.search("niro weaver", 3, 10).getHits().isEmpty());
+  }
+
+  @Test
+  public void testReplacesAndRemovesMovies() {
+    index.put(alien, Collections.singletonList("Aliens, with Robert De Niro"));
+    Assert.assertEquals(0, index.search("spacecraft", 0, 10).getTotal());
+    Assert.assertEquals(3, index.search("niro", 0, 10).getTotal());
+
+    Assert.assertTrue(index.remove(heat));
+    Assert.assertTrue(index.remove(ronin));
+    Assert.assertFalse(index.remove(ronin));
+    List<ObjectId> ids = index.search("niro", 0, 10).getIds();
+
+    Assert.assertEquals(1, index.size());
+    Assert.assertEquals(Collections.singletonList(alien), ids);
+    Assert.assertEquals(
+        Collections.singletonList(alien), index.search("\"robert de niro\"", 0, 10).getIds());
+  }
+}
@@ -0,0 +1,121 @@
+package mflix.api.daos;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import mflix.api.models.Movie;
+import org.bson.BsonReader;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.ObjectId;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+
+public class MovieCodecTest {
+
+  private static final String LEGACY_DATE = "2015-08-13 00:27:59.177000000";
+
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  private static Movie decode(Document document) {
+    try (BsonReader reader = new RawBsonDocument(document, new DocumentCodec()).asBsonReader()) {
+      return new MovieCodec().decode(reader, DecoderContext.builder().build());
+    }
+  }
+
+  /**
+   * Decodes `document` with the codec and the mapper, and checks both serialize the same. The
+   * fixtures leave out `year`, which only the codec reads.
+   */
+  private Movie assertDecodesLikeMapper(Document document) {
+    Movie decoded = decode(document);
+    ObjectNode expected = mapper.valueToTree(MovieDocumentMapper.mapToMovie(document));
+    ObjectNode actual = mapper.valueToTree(decoded);
+
+    Assert.assertEquals(expected, actual);
+    return decoded;
+  }
+
+  private static Document comment(String text, long date) {
+    return new Document("_id", new ObjectId())
+        .append("name", "Mercedes Tyler")
+        .append("email", "mercedes_tyler@fakegmail.com")
+        .append("movie_id", new ObjectId())
+        .append("text", text)
+        .append("date", new Date(date));
+  }
+
+  @Test
+  public void testLegacyNumbersAndTitle() {
+    Document document =
+        new Document("_id", new ObjectId())
+            .append("title", 1984)
+            .append("imdb", new Document("rating", "").append("votes", "").append("id", 3))
+            .append(
+                "tomatoes",
+                new Document("viewer", new Document("numReviews", 12L).append("rating", 3)));
+
+    Movie movie = assertDecodesLikeMapper(document);
+
+    Assert.assertEquals("1984", movie.getTitle());
+    Assert.assertEquals(0.0, movie.getImdb().getRating(), 0);
+    Assert.assertEquals(0, movie.getImdb().getVotes());
+    Assert.assertEquals(12, movie.getTomatoes().getViewer().getNumReviews());
+  }
+
+  @Test
+  public void testStringRatings() {
+    Document document =
+        new Document("_id", new ObjectId())
+            .append("title", "The Great Train Robbery")
+            .append("imdb", new Document("rating", "7.4").append("votes", "9847").append("id", 439))
+            .append(
+                "tomatoes",
+                new Document("viewer", new Document("numReviews", "2559").append("rating", "3.7")));
+
+    Movie movie = assertDecodesLikeMapper(document);
+
+    Assert.assertEquals(7.4, movie.getImdb().getRating(), 0);
+    Assert.assertEquals(9847, movie.getImdb().getVotes());
+    Assert.assertEquals(3.7, movie.getTomatoes().getViewer().getRating(), 0);
+  }
+
+  @Test
+  public void testBothLastUpdatedSpellings() {
+    Date lastUpdated = new Date(1439425679000L);
+    Document camelCase =
+        new Document("_id", new ObjectId())
+            .append("lastupdated", LEGACY_DATE)
+            .append("tomatoes", new Document("lastUpdated", lastUpdated));
+    Document lowerCase =
+        new Document("_id", new ObjectId())
+            .append("lastupdated", new Date(1439425679177L))
+            .append("tomatoes", new Document("lastupdated", LEGACY_DATE));
+
+    Assert.assertEquals(
+        lastUpdated, assertDecodesLikeMapper(camelCase).getTomatoes().getLastUpdated());
+    Assert.assertEquals(
+        MovieDocumentMapper.parseDate(LEGACY_DATE),
+        assertDecodesLikeMapper(lowerCase).getTomatoes().getLastUpdated());
+  }
+
+  @Test
+  public void testEmbeddedComments() {
+    Document document =
+        new Document("_id", new ObjectId())
+            .append("title", "Blacksmith Scene")
+            .append("cast", Arrays.asList("Charles Kayser", "John Ott"))
+            .append("comments", Arrays.asList(comment("newer", 2000), comment("older", 1000)))
+            .append("num_comments", 2);
+
+    Movie movie = assertDecodesLikeMapper(document);
+
+    Assert.assertEquals(2, movie.getComments().size());
+    Assert.assertEquals("newer", movie.getComments().get(0).getText());
+    Assert.assertEquals(Integer.valueOf(2), movie.getNumComments());
+  }
+}
@@ -0,0 +1,202 @@
+package mflix.api.daos;
+
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import com.mongodb.client.model.changestream.UpdateDescription;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.BsonDocument;
+import org.bson.BsonObjectId;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MovieDetailCacheTest {
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private final ObjectId movieId = new ObjectId();
+
+  private final Document older = comment(new Date(1000), "older");
+
+  private final Document newer = comment(new Date(2000), "newer");
+
+  private final AtomicInteger loads = new AtomicInteger();
+
+  private MongoClient mongoClient;
+
+  private MovieDao movieDao;
+
+  private MovieDetailCache cache;
+
+  @Before
+  public void setUp() {
+    // never connects, every lookup is answered by the stubbed getMovie
+    mongoClient = MongoClients.create("mongodb://localhost:1");
+    movieDao =
+        new MovieDao(mongoClient, "mflix") {
+          @Override
+          public Document getMovie(String id) {
+            loads.incrementAndGet();
+            return new Document("_id", movieId)
+                .append("title", "Movie")
+                .append("comments", new ArrayList<>(Arrays.asList(newer, older)));
+          }
+        };
+    cache = new MovieDetailCache(movieDao, meterRegistry, true, 1 << 20, 600);
+  }
+
+  @After
+  public void tearDown() {
+    mongoClient.close();
+  }
+
+  private Document comment(Date date, String text) {
+    return new Document("_id", new ObjectId())
+        .append("movie_id", movieId)
+        .append("text", text)
+        .append("date", date);
+  }
+
+  private static List<Object> texts(List<Document> comments) {
+    List<Object> texts = new ArrayList<>();
+    comments.forEach(comment -> texts.add(comment.get("text")));
+    return texts;
+  }
+
+  @Test
+  public void testPatchesCachedMovieWithoutLoading() {
+    cache.getMovie(movieId.toHexString());
+    Document newest = comment(new Date(3000), "newest");
+
+    List<Document> added = cache.putComment(movieId.toHexString(), newest);
+    Assert.assertEquals(Arrays.asList("newest", "newer", "older"), texts(added));
+
+    List<Document> updated =
+        cache.updateComment(
+            movieId.toHexString(), older.getObjectId("_id"), "edited", new Date(4000));
+    Assert.assertEquals(Arrays.asList("edited", "newest", "newer"), texts(updated));
+
+    List<Document> removed = cache.removeComment(movieId.toHexString(), newer.getObjectId("_id"));
+    Assert.assertEquals(Arrays.asList("edited", "newest"), texts(removed));
+
+    Assert.assertEquals(removed, cache.getMovie(movieId.toHexString()).get("comments"));
+    Assert.assertEquals(1, loads.get());
+    Assert.assertEquals(
+        3.0,
+        meterRegistry
+            .get("mflix.movie_detail.comment_patches")
+            .tag("result", "patched")
+            .counter()
+            .count(),
+        0.0);
+  }
+
+  @Test
+  public void testPatchesAreIdempotent() {
+    cache.getMovie(movieId.toHexString());
+
+    cache.putComment(movieId.toHexString(), newer);
+    List<Document> comments = cache.removeComment(movieId.toHexString(), new ObjectId());
+
+    Assert.assertEquals(Arrays.asList("newer", "older"), texts(comments));
+  }
+
+  @Test
+  public void testLoadsOnMiss() {
+    List<Document> comments = cache.removeComment(movieId.toHexString(), older.getObjectId("_id"));
+
+    Assert.assertEquals(Arrays.asList("newer", "older"), texts(comments));
+    Assert.assertEquals(1, loads.get());
+  }
+
+  @Test
+  public void testReloadsWhenUpdatedCommentIsNotCached() {
+    cache.getMovie(movieId.toHexString());
+
+    cache.updateComment(movieId.toHexString(), new ObjectId(), "edited", new Date());
+
+    Assert.assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void testCachedDocumentIsNotMutated() {
+    Document cached = cache.getMovie(movieId.toHexString());
+
+    cache.putComment(movieId.toHexString(), comment(new Date(3000), "newest"));
+
+    Assert.assertEquals(2, ((List<?>) cached.get("comments")).size());
+  }
+
+  @Test
+  public void testKeepsNewestCommentsAndCount() {
+    ReflectionTestUtils.setField(movieDao, "commentsLimit", 2);
+    cache.getMovie(movieId.toHexString());
+
+    List<Document> comments =
+        cache.putComment(movieId.toHexString(), comment(new Date(3000), "newest"));
+
+    Assert.assertEquals(Arrays.asList("newest", "newer"), texts(comments));
+    Assert.assertEquals(3, cache.getMovie(movieId.toHexString()).get("num_comments"));
+    Assert.assertEquals(1, loads.get());
+  }
+
+  @Test
+  public void testReloadsWhenDeleteNeedsOlderComment() {
+    ReflectionTestUtils.setField(movieDao, "commentsLimit", 2);
+    cache.getMovie(movieId.toHexString());
+    cache.putComment(movieId.toHexString(), comment(new Date(3000), "newest"));
+
+    cache.removeComment(movieId.toHexString(), newer.getObjectId("_id"));
+
+    Assert.assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void testUppercaseIdSharesTheInvalidatedEntry() {
+    String upperCase = movieId.toHexString().toUpperCase();
+    cache.getMovie(upperCase);
+    cache.putComment(upperCase, comment(new Date(3000), "newest"));
+    Assert.assertEquals(1, loads.get());
+
+    UpdateDescription update =
+        new UpdateDescription(null, BsonDocument.parse("{title: 'Renamed'}"));
+    cache.onChange(
+        MovieDao.MOVIES_COLLECTION,
+        new ChangeStreamDocument<>(
+            new BsonDocument(),
+            new MongoNamespace("mflix", MovieDao.MOVIES_COLLECTION),
+            null,
+            new BsonDocument("_id", new BsonObjectId(movieId)),
+            OperationType.UPDATE,
+            update));
+
+    Assert.assertEquals(Arrays.asList("newer", "older"), texts(comments(upperCase)));
+    Assert.assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void testInvalidIdIsNotCached() {
+    Assert.assertNull(cache.getMovie("not-an-id"));
+    Assert.assertEquals(Collections.emptyList(), cache.putComment("not-an-id", newer));
+    Assert.assertEquals(0, loads.get());
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<Document> comments(String id) {
+    return (List<Document>) cache.getMovie(id).get("comments");
+  }
+}
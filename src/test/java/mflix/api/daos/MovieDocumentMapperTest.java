@@ -0,0 +1,141 @@
+package mflix.api.daos;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import mflix.api.models.Movie;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.ObjectId;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class MovieDocumentMapperTest {
+
+  private static final int THREADS = 64;
+
+  private static final int MOVIES_PER_THREAD = 2000;
+
+  private static LocalDateTime lastUpdated(int thread, int movie) {
+    return LocalDateTime.of(1990 + thread % 30, 1 + movie % 12, 1 + thread % 28, movie % 24, 7, 9);
+  }
+
+  private static Date toDate(LocalDateTime dateTime) {
+    return Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
+  }
+
+  @Test
+  public void testLegacyDatesParsedConcurrently() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<Integer>> results = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      int thread = t;
+      Callable<Integer> mapper =
+          () -> {
+            start.await();
+            int corrupted = 0;
+            for (int m = 0; m < MOVIES_PER_THREAD; m++) {
+              LocalDateTime expected = lastUpdated(thread, m);
+              Document document =
+                  new Document("_id", new ObjectId())
+                      .append("title", "movie " + m)
+                      .append("lastupdated", expected.toString().replace('T', ' ') + ".177000000");
+              Movie movie = MovieDocumentMapper.mapToMovie(document);
+              if (!toDate(expected).equals(movie.getLastUpdated())) {
+                corrupted++;
+              }
+            }
+            return corrupted;
+          };
+      results.add(executor.submit(mapper));
+    }
+    start.countDown();
+
+    int corrupted = 0;
+    for (Future<Integer> result : results) {
+      corrupted += result.get();
+    }
+    executor.shutdown();
+    Assert.assertEquals("No `lastupdated` value should be corrupted", 0, corrupted);
+  }
+
+  @Test
+  public void testLegacyNumbersAndTitle() {
+    Document document =
+        new Document("_id", new ObjectId())
+            .append("title", 1984)
+            .append("imdb", new Document("rating", "").append("votes", "").append("id", 3))
+            .append(
+                "tomatoes",
+                new Document("viewer", new Document("numReviews", 12L).append("rating", 3)));
+
+    Movie movie = MovieDocumentMapper.mapToMovie(document);
+
+    Assert.assertEquals("1984", movie.getTitle());
+    Assert.assertEquals(12, movie.getTomatoes().getViewer().getNumReviews());
+    Assert.assertEquals(3.0, movie.getTomatoes().getViewer().getRating(), 0);
+  }
+
+  @Test
+  public void testReadsTomatoesLastUpdated() {
+    Date lastUpdated = new Date(1439425679000L);
+    Document camelCase =
+        new Document("_id", new ObjectId())
+            .append("tomatoes", new Document("lastUpdated", lastUpdated));
+    String legacy = "2015-08-13 00:27:59.177000000";
+    Document lowerCase =
+        new Document("_id", new ObjectId())
+            .append("tomatoes", new Document("lastupdated", legacy));
+
+    Assert.assertEquals(
+        lastUpdated, MovieDocumentMapper.mapToMovie(camelCase).getTomatoes().getLastUpdated());
+    Assert.assertEquals(
+        MovieDocumentMapper.parseDate(legacy),
+        MovieDocumentMapper.mapToMovie(lowerCase).getTomatoes().getLastUpdated());
+  }
+
+  @Test
+  public void testNullTitleStaysNull() {
+    Movie movie = MovieDocumentMapper.mapToMovie(new Document("_id", new ObjectId()));
+
+    Assert.assertNull(movie.getTitle());
+  }
+
+  @Test
+  public void testWritesTitlesLikeJackson() throws IOException {
+    ObjectMapper mapper = new ObjectMapper();
+    List<Document> documents = new ArrayList<>();
+    documents.add(new Document("_id", new ObjectId()).append("title", "The Great Train Robbery"));
+    documents.add(new Document("_id", new ObjectId()).append("title", 1984));
+    documents.add(new Document("_id", new ObjectId()).append("title", 3.5));
+    documents.add(new Document("_id", new ObjectId()).append("title", null));
+    documents.add(new Document("title", true).append("_id", new ObjectId()).append("year", 1903));
+    documents.add(new Document("_id", new ObjectId()));
+
+    for (Document document : documents) {
+      StringWriter written = new StringWriter();
+      try (JsonGenerator json = mapper.getFactory().createGenerator(written)) {
+        RawBsonDocument raw = new RawBsonDocument(document, new DocumentCodec());
+        MovieDocumentMapper.writeMovieTitle(raw, json);
+      }
+
+      Assert.assertEquals(
+          mapper.writeValueAsString(MovieDocumentMapper.mapToMovieTitle(document)),
+          written.toString());
+    }
+  }
+}
@@ -0,0 +1,159 @@
+package mflix.api.daos;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import mflix.api.daos.MovieFilterIndex.Field;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class MovieFilterIndexTest {
+
+  private MongoClient mongoClient;
+
+  private MovieFilterIndex index;
+
+  private final List<ObjectId> ids = new ArrayList<>();
+
+  @Before
+  public void setUp() {
+    // never connects, the index is fed directly
+    mongoClient = MongoClients.create("mongodb://localhost:1");
+    index = new MovieFilterIndex(mongoClient, "mflix", new SimpleMeterRegistry());
+    put(10, Arrays.asList("Tom Hanks", "Meg Ryan"), "Comedy");
+    put(30, Arrays.asList("Tom Hanks"), "Drama");
+    put(null, Arrays.asList("Meg Ryan"), "Comedy");
+    put(20, Arrays.asList("Tom Hanks", "Meg Ryan"), "Drama");
+    index.rebuild();
+  }
+
+  @After
+  public void tearDown() {
+    mongoClient.close();
+  }
+
+  /** Adds a movie, which becomes ids.get(n) for the nth call. */
+  private void put(Integer numReviews, List<String> cast, String genre) {
+    ObjectId id = new ObjectId();
+    ids.add(id);
+    Document movie =
+        new Document("_id", id).append("cast", cast).append("genres", Arrays.asList(genre));
+    if (numReviews != null) {
+      movie.append("tomatoes", new Document("viewer", new Document("numReviews", numReviews)));
+    }
+    index.put(movie);
+  }
+
+  @Test
+  public void testPagesInListingOrder() {
+    Assert.assertEquals(
+        Arrays.asList(ids.get(1), ids.get(3), ids.get(0)),
+        index.page(Field.CAST, 0, 10, "Tom Hanks"));
+    Assert.assertEquals(
+        Arrays.asList(ids.get(0), ids.get(2)), index.page(Field.CAST, 1, 10, "Meg Ryan"));
+  }
+
+  @Test
+  public void testCountsUnionOnce() {
+    Assert.assertEquals(4, index.count(Field.CAST, "Tom Hanks", "Meg Ryan", "Tom Hanks"));
+    Assert.assertEquals(2, index.count(Field.GENRES, "Comedy"));
+    Assert.assertEquals(0, index.count(Field.GENRES, "Western"));
+    Assert.assertEquals(0, index.count(Field.COUNTRIES, "USA"));
+  }
+
+  @Test
+  public void testPagesAfterToken() {
+    PageToken after = new PageToken(20L, ids.get(3));
+
+    Assert.assertEquals(
+        Arrays.asList(ids.get(0), ids.get(2)),
+        index.page(Field.CAST, after, 10, "Tom Hanks", "Meg Ryan"));
+  }
+
+  @Test
+  public void testPagesAfterStringSortValue() {
+    ObjectId legacy = new ObjectId();
+    Document movie =
+        new Document("_id", legacy)
+            .append("cast", Arrays.asList("Tom Hanks"))
+            .append("tomatoes", new Document("viewer", new Document("numReviews", "")));
+    index.put(movie);
+    index.rebuild();
+
+    // strings sort above numbers in descending order, as in MongoDB
+    Assert.assertEquals(legacy, index.page(Field.CAST, 0, 1, "Tom Hanks").get(0));
+
+    PageToken after =
+        PageToken.decode(PageToken.after(movie, MovieDao.KEYSET_SORT_KEY).encode());
+
+    Assert.assertNull(after.getSortValue());
+    Assert.assertEquals(
+        Arrays.asList(ids.get(1), ids.get(3), ids.get(0)),
+        index.page(Field.CAST, after, 10, "Tom Hanks"));
+  }
+
+  @Test
+  public void testPagesAfterTokenOfRemovedMovie() {
+    index.remove(ids.get(3));
+    index.rebuild();
+
+    PageToken after = new PageToken(20L, ids.get(3));
+
+    Assert.assertEquals(Arrays.asList(ids.get(0)), index.page(Field.CAST, after, 10, "Tom Hanks"));
+  }
+
+  @Test
+  public void testReplacesChangedMovie() {
+    index.put(
+        new Document("_id", ids.get(2))
+            .append("cast", Arrays.asList("Tom Hanks"))
+            .append("tomatoes", new Document("viewer", new Document("numReviews", 40))));
+    index.rebuild();
+
+    Assert.assertEquals(ids.get(2), index.page(Field.CAST, 0, 1, "Tom Hanks").get(0));
+    Assert.assertEquals(2, index.count(Field.CAST, "Meg Ryan"));
+    Assert.assertEquals(1, index.count(Field.GENRES, "Comedy"));
+  }
+
+  @Test
+  public void testSelectsColumns() {
+    index.put(
+        new Document("_id", ids.get(1))
+            .append("cast", Arrays.asList("Tom Hanks"))
+            .append("runtime", 95)
+            .append("imdb", new Document("rating", ""))
+            .append("tomatoes", new Document("viewer", new Document("numReviews", 30))));
+    index.rebuild();
+
+    MovieFilterIndex.Selection selection = index.select(Field.CAST, "Tom Hanks");
+    MovieFilterIndex.Selection page = selection.page(1, 5);
+
+    Assert.assertArrayEquals(new int[] {0, 1, 2}, selection.ordinals());
+    Assert.assertEquals(Arrays.asList(ids.get(3), ids.get(0)), page.ids());
+    double[] runtime = selection.column(MovieFilterIndex.Column.RUNTIME);
+    Assert.assertEquals(95, runtime[0], 0.0);
+    Assert.assertTrue(Double.isNaN(runtime[1]));
+    Assert.assertTrue(Double.isNaN(selection.column(MovieFilterIndex.Column.IMDB_RATING)[0]));
+    Assert.assertEquals(30, selection.column(MovieFilterIndex.Column.NUM_REVIEWS)[0], 0.0);
+  }
+
+  @Test
+  public void testDensePostingList() {
+    int[] ordinals = {1, 5, 9};
+
+    Assert.assertFalse(PostingList.of(ordinals, 3, 1000).isBitmap());
+    PostingList dense = PostingList.of(ordinals, 3, 64);
+    Assert.assertTrue(dense.isBitmap());
+    Assert.assertEquals(3, dense.cardinality());
+    Assert.assertEquals(5, dense.next(2));
+    Assert.assertEquals(-1, dense.next(10));
+  }
+}
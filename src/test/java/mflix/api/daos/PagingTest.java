@@ -14,6 +14,9 @@ import org.springframework.boot.context.properties.EnableConfigurationProperties
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @SpringBootTest(classes = {MongoDBConfiguration.class})
 @EnableConfigurationProperties
 @EnableAutoConfiguration
@@ -122,4 +125,36 @@ public class PagingTest extends TicketTest {
     Assert.assertEquals(
         "Check the query used in getMovies() in MoviesDao.java", 1084 % 20, finalCount);
   }
+
+  private static List<Object> ids(Iterable<Document> movies) {
+    List<Object> ids = new ArrayList<>();
+    movies.forEach(movie -> ids.add(movie.get("_id")));
+    return ids;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<Object> facetIds(Document pageWithCount) {
+    return ids((List<Document>) pageWithCount.get("movies"));
+  }
+
+  @Test
+  public void testFacetPageLinesUpWithSkipPage() {
+    // many History movies share a numReviews value or have none, page 1 splits their ties
+    String genre = "History";
+    List<Object> pages = facetIds(dao.getMoviesByGenreWithCount(20, 0, genre));
+    pages.addAll(ids(dao.getMoviesByGenre(MovieDao.KEYSET_SORT_KEY, 20, 20, genre)));
+    Assert.assertEquals(
+        "Page 0 from $facet and page 1 from skip should follow one order",
+        facetIds(dao.getMoviesByGenreWithCount(40, 0, genre)),
+        pages);
+
+    String cast = "Tom Hanks";
+    pages = facetIds(dao.getMoviesByCastWithCount(20, 0, cast));
+    pages.addAll(ids(dao.getMoviesByCast(MovieDao.KEYSET_SORT_KEY, 20, 20, cast)));
+    Assert.assertEquals(facetIds(dao.getMoviesByCastWithCount(40, 0, cast)), pages);
+
+    pages = facetIds(dao.getMoviesWithCount(20, 0));
+    pages.addAll(ids(dao.getMovies(20, 20)));
+    Assert.assertEquals(facetIds(dao.getMoviesWithCount(40, 0)), pages);
+  }
 }
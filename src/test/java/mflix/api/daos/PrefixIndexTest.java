@@ -0,0 +1,74 @@
+package mflix.api.daos;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class PrefixIndexTest {
+
+  private PrefixIndex<String> index;
+
+  @Before
+  public void setUp() {
+    index =
+        new PrefixIndex.Builder<String>()
+            .add("The Godfather", 500, "The Godfather")
+            .add("The Godfather: Part II", 300, "The Godfather: Part II")
+            .add("Godzilla", 200, "Godzilla")
+            .add("Spider-Man", 400, "Spider-Man")
+            .add("Thelma & Louise", 100, "Thelma & Louise")
+            .add("Björk", 50, "Björk")
+            .add("--", 1000, "--")
+            .build();
+  }
+
+  @Test
+  public void testRanksMatchesByWeight() {
+    Assert.assertEquals(
+        Arrays.asList("The Godfather", "The Godfather: Part II", "Godzilla"),
+        index.top("God", 10));
+    Assert.assertEquals(
+        Arrays.asList("The Godfather", "The Godfather: Part II"), index.top("god", 2));
+  }
+
+  @Test
+  public void testMatchesEveryWordStart() {
+    Assert.assertEquals(Collections.singletonList("The Godfather: Part II"), index.top("par", 10));
+    Assert.assertEquals(Collections.singletonList("Thelma & Louise"), index.top("lou", 10));
+    Assert.assertEquals(Collections.emptyList(), index.top("odfather", 10));
+  }
+
+  @Test
+  public void testNormalizesKeysAndPrefixes() {
+    Assert.assertEquals(Collections.singletonList("Spider-Man"), index.top("spider m", 10));
+    Assert.assertEquals(Collections.singletonList("Spider-Man"), index.top(" SPIDER-", 10));
+    Assert.assertEquals(Collections.singletonList("Björk"), index.top("bjo", 10));
+    Assert.assertEquals(6, index.size());
+  }
+
+  @Test
+  public void testKeepsTrailingSeparator() {
+    List<String> found = index.top("the ", 10);
+
+    Assert.assertEquals(Arrays.asList("The Godfather", "The Godfather: Part II"), found);
+    Assert.assertEquals(
+        Arrays.asList("The Godfather", "The Godfather: Part II", "Thelma & Louise"),
+        index.top("the", 10));
+  }
+
+  @Test
+  public void testReturnsEachKeyOnce() {
+    PrefixIndex<String> repeated =
+        new PrefixIndex.Builder<String>()
+            .add("New York, New York", 10, "a")
+            .add("New Jack City", 5, "b")
+            .build();
+
+    Assert.assertEquals(Arrays.asList("a", "b"), repeated.top("new", 10));
+    Assert.assertEquals(Collections.emptyList(), repeated.top("", 10));
+  }
+}
@@ -0,0 +1,66 @@
+package mflix.api.daos;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class TrigramIndexTest {
+
+  private TrigramIndex<String> index;
+
+  @Before
+  public void setUp() {
+    index =
+        new TrigramIndex.Builder<String>()
+            .add("Tom Hanks", 500, "Tom Hanks")
+            .add("Tom Hardy", 300, "Tom Hardy")
+            .add("Salma Hayek", 200, "Salma Hayek")
+            .add("Björk", 50, "Björk")
+            .add("Al Pacino", 400, "Al Pacino")
+            .build();
+  }
+
+  private List<String> values(String query, int maxEdits) {
+    List<String> values = new ArrayList<>();
+    index.match(query, maxEdits, 10).forEach(match -> values.add(match.getValue()));
+    return values;
+  }
+
+  @Test
+  public void testMatchesExactlyUpToCaseAndAccents() {
+    Assert.assertEquals(Collections.singletonList("Tom Hanks"), values("tom hanks", 0));
+    Assert.assertEquals(Collections.singletonList("Björk"), values("BJORK", 0));
+    Assert.assertEquals(0, index.match("tom hanks", 0, 1).get(0).getDistance());
+  }
+
+  @Test
+  public void testMatchesWithinEdits() {
+    Assert.assertEquals(Collections.singletonList("Salma Hayek"), values("salma hayec", 1));
+    Assert.assertEquals(Collections.singletonList("Al Pacino"), values("al paccino", 1));
+    Assert.assertEquals(Collections.singletonList("Al Pacino"), values("la pacino", 2));
+    Assert.assertEquals(Collections.emptyList(), values("la pacino", 1));
+  }
+
+  @Test
+  public void testRanksByDistanceThenWeight() {
+    Assert.assertEquals(Arrays.asList("Tom Hanks", "Tom Hardy"), values("tom hanky", 2));
+    Assert.assertEquals(Collections.singletonList("Tom Hardy"), values("tom hardi", 2));
+    Assert.assertEquals(Arrays.asList("Tom Hanks", "Tom Hardy"), values("tom harks", 2));
+  }
+
+  @Test
+  public void testBoundsDistance() {
+    char[] kitten = "kitten".toCharArray();
+    char[] sitting = "sitting".toCharArray();
+
+    Assert.assertEquals(3, TrigramIndex.distance(kitten, sitting, 3));
+    Assert.assertEquals(3, TrigramIndex.distance(kitten, sitting, 2));
+    Assert.assertEquals(0, TrigramIndex.distance(kitten, kitten, 0));
+    Assert.assertEquals(1, TrigramIndex.distance("abc".toCharArray(), "abcd".toCharArray(), 1));
+  }
+}
@@ -0,0 +1,83 @@
+package mflix.api.daos;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import mflix.api.models.Session;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+
+public class WriteBehindSessionStoreTest {
+
+  private static final String SECRET = "c2VjcmV0LXVzZWQtb25seS1ieS10aGlzLXRlc3Q";
+
+  private MongoClient mongoClient;
+
+  private WriteBehindSessionStore store;
+
+  @Before
+  public void setUp() {
+    // never connects, the tests stay in memory
+    mongoClient = MongoClients.create("mongodb://localhost:1");
+    store =
+        new WriteBehindSessionStore(
+            mongoClient, "mflix", SECRET, 60_000, "async", 200, 500, false, 100);
+  }
+
+  @After
+  public void tearDown() {
+    mongoClient.close();
+  }
+
+  private static String jwt(String secret, long expiresAtMillis) {
+    return Jwts.builder()
+        .setSubject("user@fakegmail.com")
+        .setExpiration(new Date(expiresAtMillis))
+        .signWith(SignatureAlgorithm.HS512, secret)
+        .compact();
+  }
+
+  private static Session session(String userId, String jwt) {
+    Session session = new Session();
+    session.setUserId(userId);
+    session.setJwt(jwt);
+    return session;
+  }
+
+  @Test
+  public void testExpiresAtJwtExp() {
+    // jwt expirations have a precision of seconds
+    long exp = (System.currentTimeMillis() / 1000 + 3600) * 1000;
+
+    Assert.assertEquals(exp, store.expiresAtMillis(jwt(SECRET, exp)));
+  }
+
+  @Test
+  public void testExpiredOrForeignJwtIsNotKept() {
+    long hourAgo = System.currentTimeMillis() - 3_600_000;
+    long inAnHour = System.currentTimeMillis() + 3_600_000;
+
+    Assert.assertEquals(0, store.expiresAtMillis(jwt(SECRET, hourAgo)));
+    Assert.assertEquals(0, store.expiresAtMillis(jwt("b3RoZXItc2VjcmV0", inAnHour)));
+    Assert.assertEquals(0, store.expiresAtMillis("not-a-jwt"));
+  }
+
+  @Test
+  public void testRehydrateSkipsExpiredSessions() {
+    long now = System.currentTimeMillis();
+    int rehydrated =
+        store.rehydrate(
+            Arrays.asList(
+                session("live@fakegmail.com", jwt(SECRET, now + 3_600_000)),
+                session("expired@fakegmail.com", jwt(SECRET, now - 3_600_000)),
+                session("logged-out@fakegmail.com", null)));
+
+    Assert.assertEquals(1, rehydrated);
+  }
+}
@@ -0,0 +1,65 @@
+package mflix.api.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class PooledPasswordEncoderTest {
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private PooledPasswordEncoder encoder;
+
+  @After
+  public void tearDown() {
+    encoder.shutdown();
+  }
+
+  @Test
+  public void testEncodeAndMatch() {
+    encoder = new PooledPasswordEncoder(meterRegistry, 4, 1, 4, 10_000);
+    String hash = encoder.encode("somepassword");
+
+    Assert.assertTrue(encoder.matches("somepassword", hash));
+    Assert.assertFalse(encoder.matches("otherpassword", hash));
+    Assert.assertEquals(
+        3, meterRegistry.get("mflix.bcrypt.hash").timers().stream().mapToLong(t -> t.count()).sum());
+  }
+
+  @Test
+  public void testUpgradeEncodingOnOtherStrength() {
+    encoder = new PooledPasswordEncoder(meterRegistry, 5, 1, 4, 10_000);
+
+    Assert.assertTrue(encoder.upgradeEncoding(new BCryptPasswordEncoder(4).encode("password")));
+    Assert.assertFalse(encoder.upgradeEncoding(new BCryptPasswordEncoder(5).encode("password")));
+    Assert.assertFalse(encoder.upgradeEncoding("not a bcrypt hash"));
+  }
+
+  @Test(expected = PasswordHashingBusyException.class)
+  public void testRejectsWhenQueueIsFull() throws InterruptedException {
+    // one slow hash running and one queued fill the pool, the next call must not wait
+    encoder = new PooledPasswordEncoder(meterRegistry, 14, 1, 1, 60_000);
+    ExecutorService clients = Executors.newFixedThreadPool(2);
+    clients.execute(() -> encoder.encode("password"));
+    clients.execute(() -> encoder.encode("password"));
+    clients.shutdown();
+    TimeUnit.MILLISECONDS.sleep(200);
+    try {
+      encoder.encode("password");
+    } finally {
+      clients.shutdownNow();
+    }
+  }
+
+  @Test(expected = PasswordHashingBusyException.class)
+  public void testRejectsWhenWaitIsTooLong() {
+    encoder = new PooledPasswordEncoder(meterRegistry, 14, 1, 4, 50);
+    encoder.encode("password");
+  }
+}
@@ -0,0 +1,87 @@
+package mflix.api.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class MovieFacetEngineTest {
+
+  private MovieFacetEngine engine;
+
+  @After
+  public void tearDown() {
+    engine.stop();
+  }
+
+  private MovieFacetEngine engine(int splitThreshold) {
+    return new MovieFacetEngine(
+        new SimpleMeterRegistry(), true, "page", 4, splitThreshold, "0,60,90,120,180", "", "",
+        "0,6.5,8", "");
+  }
+
+  private static Document bucket(Object id, int count) {
+    return new Document("_id", id).append("count", count);
+  }
+
+  @Test
+  public void testBucketsLikeBucketStage() {
+    engine = engine(4096);
+    double[] runtime = {59, 60, 90, 179.5, 180, Double.NaN, -1, 95};
+    double[] imdbRating = {6.4, 6.5, 7.9, 8, Double.NaN, 9, 0, 7};
+
+    Map<String, List<Document>> facets =
+        engine.facets(new double[][] {runtime, imdbRating}, new int[] {0, 1, 2, 3, 4, 5, 6, 7});
+
+    Assert.assertArrayEquals(new Object[] {"runtime", "imdb_rating"}, facets.keySet().toArray());
+    Assert.assertEquals(
+        Arrays.asList(
+            bucket(0, 1), bucket(60, 1), bucket(90, 2), bucket(120, 1), bucket("other", 3)),
+        facets.get("runtime"));
+    Assert.assertEquals(
+        Arrays.asList(bucket(0, 2), bucket(6.5, 3), bucket("other", 3)), facets.get("imdb_rating"));
+  }
+
+  @Test
+  public void testCountsOnlySelectedOrdinals() {
+    engine = engine(4096);
+    double[] runtime = {30, 100, 30, 150};
+
+    Map<String, List<Document>> facets =
+        engine.facets(new double[][] {runtime, runtime}, new int[] {1, 3});
+
+    Assert.assertEquals(Arrays.asList(bucket(90, 1), bucket(120, 1)), facets.get("runtime"));
+  }
+
+  @Test
+  public void testParallelCountsMatchSequentialOnes() {
+    double[] runtime = new double[10000];
+    int[] ordinals = new int[runtime.length];
+    for (int i = 0; i < runtime.length; i++) {
+      runtime[i] = i % 200;
+      ordinals[i] = i;
+    }
+    double[][] columns = {runtime, runtime};
+
+    engine = engine(4096);
+    Map<String, List<Document>> sequential = engine.facets(columns, ordinals);
+    engine.stop();
+    engine = engine(100);
+    Map<String, List<Document>> parallel = engine.facets(columns, ordinals);
+
+    Assert.assertEquals(sequential, parallel);
+    Assert.assertEquals(bucket(0, 3000), parallel.get("runtime").get(0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsDecreasingBoundaries() {
+    engine = engine(4096);
+    new MovieFacetEngine(
+        new SimpleMeterRegistry(), true, "page", 1, 1, "0,90,60", "", "", "", "");
+  }
+}
@@ -0,0 +1,86 @@
+package mflix.api.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import mflix.api.daos.IncorrectDaoOperation;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class QueryFanOutTest {
+
+  private QueryFanOut fanOut;
+
+  @Before
+  public void setUp() {
+    // half of a driver pool of 2 leaves a single fan-out thread
+    fanOut =
+        new QueryFanOut(
+            new SimpleMeterRegistry(), "mongodb://localhost:1/?maxPoolSize=2", true, 0.5, 8, 10_000);
+  }
+
+  @After
+  public void tearDown() {
+    fanOut.shutdown();
+  }
+
+  @Test
+  public void testLastCallRunsOnCaller() throws Exception {
+    QueryFanOut.Batch batch = fanOut.batch("test");
+    Future<Thread> first = batch.fork(Thread::currentThread);
+    Future<Thread> last = batch.fork(Thread::currentThread);
+    batch.join();
+
+    Assert.assertNotSame(Thread.currentThread(), first.get());
+    Assert.assertSame(Thread.currentThread(), last.get());
+  }
+
+  @Test
+  public void testShutdownFailsQueuedCalls() {
+    CountDownLatch started = new CountDownLatch(1);
+    QueryFanOut.Batch batch = fanOut.batch("test");
+    batch.fork(
+        () -> {
+          started.countDown();
+          // only returns when interrupted by the shutdown
+          return new CountDownLatch(1).await(1, TimeUnit.MINUTES);
+        });
+    Future<Boolean> queued = batch.fork(() -> true);
+    batch.fork(
+        () -> {
+          started.await();
+          fanOut.shutdown();
+          return true;
+        });
+
+    long start = System.nanoTime();
+    try {
+      batch.join();
+      Assert.fail("join should fail once the pool is shut down");
+    } catch (IncorrectDaoOperation ex) {
+      // expected
+    }
+
+    Assert.assertTrue(queued.isCancelled());
+    Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+  }
+
+  @Test
+  public void testForkAfterShutdownFails() {
+    fanOut.shutdown();
+    QueryFanOut.Batch batch = fanOut.batch("test");
+    Future<Boolean> first = batch.fork(() -> true);
+    batch.fork(() -> true);
+
+    try {
+      batch.join();
+      Assert.fail("join should fail once the pool is shut down");
+    } catch (IncorrectDaoOperation ex) {
+      Assert.assertTrue(first.isCancelled());
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package mflix.api.services;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Date;
+
+public class TokenAuthenticationServiceTest {
+
+  private static final String SECRET = "c2VjcmV0LXVzZWQtb25seS1ieS10aGlzLXRlc3Q";
+
+  private TokenAuthenticationService service;
+
+  @Before
+  public void setup() {
+    service = new TokenAuthenticationService();
+    ReflectionTestUtils.setField(service, "jwtSecret", SECRET);
+    ReflectionTestUtils.setField(service, "jwtExpirationInMs", 60_000L);
+    ReflectionTestUtils.setField(service, "refreshWindowInMs", 10_000L);
+    service.init();
+  }
+
+  /** Makes any new signature check fail, only cached verifications still succeed. */
+  private void useOtherSecret() {
+    ReflectionTestUtils.setField(
+        service, "jwtParser", Jwts.parser().setSigningKey("b3RoZXItc2VjcmV0"));
+  }
+
+  private static String token(String subject, long expiresInMs) {
+    return Jwts.builder()
+        .setSubject(subject)
+        .setExpiration(new Date(System.currentTimeMillis() + expiresInMs))
+        .signWith(SignatureAlgorithm.HS512, SECRET)
+        .compact();
+  }
+
+  @Test
+  public void testVerifiedTokenIsNotVerifiedAgain() {
+    String header = service.mintJWTHeader("user@fakegmail.com");
+    Assert.assertEquals("user@fakegmail.com", service.getAuthenticationUser(header));
+
+    useOtherSecret();
+    Assert.assertEquals("user@fakegmail.com", service.getAuthenticationUser(header));
+    Assert.assertEquals(
+        "Token without prefix shares the cached verification",
+        "user@fakegmail.com",
+        service.getAuthenticationUser(header.substring(7)));
+  }
+
+  @Test
+  public void testEvictUserForcesVerification() {
+    String header = service.mintJWTHeader("user@fakegmail.com");
+    service.getAuthenticationUser(header);
+
+    useOtherSecret();
+    service.evictUser("user@fakegmail.com");
+
+    Assert.assertNull(service.getAuthenticationUser(header));
+  }
+
+  @Test
+  public void testEvictTokenForcesVerification() {
+    String header = service.mintJWTHeader("user@fakegmail.com");
+    service.getAuthenticationUser(header);
+
+    useOtherSecret();
+    service.evictToken(header);
+
+    Assert.assertNull(service.getAuthenticationUser(header));
+  }
+
+  @Test
+  public void testExpiredTokenIsNotCached() {
+    Assert.assertNull(service.getAuthenticationUser("Bearer " + token("user@fakegmail.com", -1000)));
+  }
+
+  @Test
+  public void testRefreshKeepsTokenOutsideWindow() {
+    String header = "Bearer " + token("user@fakegmail.com", 60_000);
+
+    Assert.assertEquals(header, service.refreshJWTHeader(header, "user@fakegmail.com"));
+  }
+
+  @Test
+  public void testRefreshMintsTokenInsideWindow() {
+    String header = "Bearer " + token("user@fakegmail.com", 5_000);
+
+    String refreshed = service.refreshJWTHeader(header, "user@fakegmail.com");
+    Assert.assertNotEquals(header, refreshed);
+    Assert.assertEquals("user@fakegmail.com", service.getAuthenticationUser(refreshed));
+  }
+
+  @Test
+  public void testRefreshMintsTokenForOtherUser() {
+    String header = "Bearer " + token("user@fakegmail.com", 60_000);
+
+    String refreshed = service.refreshJWTHeader(header, "other@fakegmail.com");
+    Assert.assertEquals("other@fakegmail.com", service.getAuthenticationUser(refreshed));
+  }
+}